@@ -0,0 +1,126 @@
+package org.jmxcassandra.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jmxcassandra.Distribution;
+import org.jmxcassandra.JmxConnect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yammer.metrics.reporting.JmxReporter;
+
+/**
+ * Throughput of the JmxConnect read paths against an in-process agent. Run
+ * with {@code java -jar target/benchmarks.jar -prof gc} to also report the
+ * allocation per read; since the agent shares the JVM, the figure includes the
+ * server side of every call.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JmxConnectBenchmark {
+	private static final String[] osMetrics = { "FreePhysicalMemorySize", "TotalPhysicalMemorySize",
+			"FreeSwapSpaceSize", "TotalSwapSpaceSize" };
+
+	@Param({ "10" })
+	private int tables;
+
+	private StandInCassandra cassandra;
+	private JmxConnect jmxConnect;
+	private List<String[]> allTables;
+
+	@Setup(Level.Trial)
+	public void connect() throws IOException {
+		cassandra = new StandInCassandra(1, tables);
+		jmxConnect = new JmxConnect("127.0.0.1", cassandra.getPort());
+		allTables = jmxConnect.getColumnFamilies(null);
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws IOException {
+		jmxConnect.close();
+		cassandra.close();
+	}
+
+	@Benchmark
+	public Object columnFamilyGauge() {
+		return jmxConnect.getColumnFamilyMetric("ks0", "table0", "LiveSSTableCount");
+	}
+
+	@Benchmark
+	public Object columnFamilyCounter() {
+		return jmxConnect.getColumnFamilyMetric("ks0", "table0", "LiveDiskSpaceUsed");
+	}
+
+	@Benchmark
+	public double columnFamilyTimer99th() {
+		return ((JmxReporter.TimerMBean) jmxConnect.getColumnFamilyMetric("ks0", "table0", "ReadLatency"))
+				.get99thPercentile();
+	}
+
+	@Benchmark
+	public Object compactionGauge() {
+		return jmxConnect.getCompactionMetric("PendingTasks");
+	}
+
+	@Benchmark
+	public Object compactionMeter() {
+		return jmxConnect.getCompactionMetric("TotalCompactionsCompleted");
+	}
+
+	@Benchmark
+	public Object operatingSystemMetric() {
+		return jmxConnect.getOperatingSystemMetric("FreePhysicalMemorySize");
+	}
+
+	/**
+	 * The four attributes os -m reads, one call per attribute.
+	 */
+	@Benchmark
+	public long operatingSystemMemoryOneByOne() {
+		long sum = 0;
+		for (String metric : osMetrics)
+			sum += (Long) jmxConnect.getOperatingSystemMetric(metric);
+		return sum;
+	}
+
+	/**
+	 * The four attributes os -m reads, in one getAttributes round trip.
+	 */
+	@Benchmark
+	public Map<String, Object> operatingSystemMemoryBatched() {
+		return jmxConnect.getOperatingSystemMetrics(osMetrics);
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> columnFamilyMetricsAllTables() {
+		return jmxConnect.getColumnFamilyMetrics(allTables, "LiveSSTableCount", "LiveDiskSpaceUsed");
+	}
+
+	@Benchmark
+	public List<Map<String, Distribution>> columnFamilyDistributionsAllTables() {
+		return jmxConnect.getColumnFamilyDistributions(allTables, "ReadLatency");
+	}
+
+	@Benchmark
+	public List<String[]> discoverTables() {
+		return jmxConnect.getColumnFamilies(null);
+	}
+}
@@ -0,0 +1,138 @@
+package org.jmxcassandra.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.reporting.JmxReporter;
+
+/**
+ * In-process JMX agent exposing Cassandra-shaped metrics under
+ * org.apache.cassandra.metrics, registered through the same metrics-core
+ * JmxReporter Cassandra 2.1 uses, so the benchmarks exercise the real MBean
+ * interfaces over a real RMI connection.
+ */
+public class StandInCassandra implements AutoCloseable {
+	static final String DOMAIN = "org.apache.cassandra.metrics";
+
+	private final MetricsRegistry registry = new MetricsRegistry();
+	private final JmxReporter reporter = new JmxReporter(registry);
+	private final Registry rmiRegistry;
+	private final JMXConnectorServer connectorServer;
+	private final int port;
+
+	/**
+	 * @param keyspaces
+	 *            number of keyspaces to create
+	 * @param tablesPerKeyspace
+	 *            number of tables in every keyspace, each with a full set of
+	 *            gauges, counters, timers and histograms
+	 */
+	public StandInCassandra(int keyspaces, int tablesPerKeyspace) throws IOException {
+		registerNodeMetrics();
+		for (int k = 0; k < keyspaces; k++)
+			for (int t = 0; t < tablesPerKeyspace; t++)
+				registerTableMetrics("ks" + k, "table" + t);
+		reporter.start();
+
+		port = freePort();
+		rmiRegistry = LocateRegistry.createRegistry(port);
+		JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi");
+		connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(url, null,
+				ManagementFactory.getPlatformMBeanServer());
+		connectorServer.start();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public void close() throws IOException {
+		connectorServer.stop();
+		UnicastRemoteObject.unexportObject(rmiRegistry, true);
+		reporter.shutdown();
+		registry.shutdown();
+	}
+
+	private void registerNodeMetrics() {
+		registry.newCounter(name("Compaction", "BytesCompacted")).inc(123456789L);
+		registry.newGauge(name("Compaction", "PendingTasks"), constant(12));
+		registry.newGauge(name("Compaction", "CompletedTasks"), constant(3456L));
+		registry.newMeter(name("Compaction", "TotalCompactionsCompleted"), "compactions", TimeUnit.SECONDS).mark(789);
+		registry.newGauge(name("Client", "connectedNativeClients"), constant(42));
+		registry.newGauge(name("Client", "connectedThriftClients"), constant(3));
+		registry.newCounter(name("Storage", "Load")).inc(987654321L);
+	}
+
+	private void registerTableMetrics(String keyspace, String table) {
+		for (String gauge : new String[] { "LiveSSTableCount", "MemtableLiveDataSize", "EstimatedRowCount" })
+			registry.newGauge(tableName(keyspace, table, gauge), constant(17L));
+		for (String counter : new String[] { "LiveDiskSpaceUsed", "TotalDiskSpaceUsed", "WriteTotalLatency" })
+			registry.newCounter(tableName(keyspace, table, counter)).inc(1 << 20);
+
+		List<Timer> timers = new ArrayList<Timer>();
+		for (String timer : new String[] { "ReadLatency", "WriteLatency", "CoordinatorReadLatency" })
+			timers.add(registry.newTimer(tableName(keyspace, table, timer), TimeUnit.MICROSECONDS, TimeUnit.SECONDS));
+		for (Timer timer : timers)
+			for (int i = 1; i <= 1000; i++)
+				timer.update(i, TimeUnit.MICROSECONDS);
+
+		for (String histogram : new String[] { "SSTablesPerReadHistogram", "TombstoneScannedHistogram" }) {
+			Histogram h = registry.newHistogram(tableName(keyspace, table, histogram), true);
+			for (int i = 0; i < 100; i++)
+				h.update(i % 10);
+		}
+	}
+
+	private static MetricName name(String type, String name) {
+		return new MetricName(DOMAIN, type, name, null, DOMAIN + ":type=" + type + ",name=" + name);
+	}
+
+	private static MetricName tableName(String keyspace, String table, String name) {
+		return new MetricName(DOMAIN, "ColumnFamily", name, keyspace + "." + table,
+				DOMAIN + ":type=ColumnFamily,keyspace=" + keyspace + ",scope=" + table + ",name=" + name);
+	}
+
+	private static <T> Gauge<T> constant(final T value) {
+		return new Gauge<T>() {
+			@Override
+			public T value() {
+				return value;
+			}
+		};
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Keeps a stand-in agent running for manual testing with the cassmon CLI.
+	 */
+	public static void main(String[] args) throws Exception {
+		StandInCassandra cassandra = new StandInCassandra(2, 3);
+		System.out.println("stand-in Cassandra JMX agent on port " + cassandra.getPort());
+		Thread.sleep(Long.MAX_VALUE);
+	}
+}
@@ -0,0 +1,117 @@
+package org.jmxcassandra;
+
+/**
+ * A rule starting or stopping to hold for a value of a node.
+ */
+public final class Alert {
+	private final AlertRule rule;
+	private final boolean firing;
+	private final String node;
+	private final String label;
+	private final double value;
+	private final long timestamp;
+	private final long since;
+
+	Alert(AlertRule rule, boolean firing, String node, String label, double value, long timestamp, long since) {
+		this.rule = rule;
+		this.firing = firing;
+		this.node = node;
+		this.label = label;
+		this.value = value;
+		this.timestamp = timestamp;
+		this.since = since;
+	}
+
+	public AlertRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * @return true when the rule started to hold, false when it stopped
+	 */
+	public boolean isFiring() {
+		return firing;
+	}
+
+	public String getNode() {
+		return node;
+	}
+
+	/**
+	 * @return the label of the value, which the rule's label may only match
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return the value, or its rate for a rate rule
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * @return milliseconds since the epoch of the sample
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return milliseconds since the epoch of the first sample the rule held
+	 *         for
+	 */
+	public long getSince() {
+		return since;
+	}
+
+	/**
+	 * @return a JSON object, the body of a webhook call
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"status\":\"").append(firing ? "firing" : "resolved").append('"');
+		json.append(",\"rule\":");
+		string(json, rule.getName());
+		json.append(",\"condition\":");
+		string(json, rule.getCondition());
+		json.append(",\"node\":");
+		string(json, node);
+		json.append(",\"metric\":");
+		string(json, label);
+		json.append(",\"value\":").append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : number(value));
+		json.append(",\"timestamp\":").append(timestamp);
+		json.append(",\"since\":").append(since).append('}');
+		return json.toString();
+	}
+
+	private static void string(StringBuilder json, String s) {
+		json.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c < 0x20)
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Whole numbers without a fraction, others as Double.toString
+	 */
+	static String number(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s %s %s=%s (%s)", firing ? "FIRING" : "RESOLVED", rule.getName(), node, label,
+				number(value), rule.getCondition());
+	}
+}
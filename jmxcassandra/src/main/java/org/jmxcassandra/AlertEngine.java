@@ -0,0 +1,155 @@
+package org.jmxcassandra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates alert rules against every value as it is sampled, sending an
+ * {@link Alert} to a sink when a rule starts to hold for a node and again
+ * once it stops.
+ * <p>
+ * Each node and label keeps its previous value for rate rules and, per rule,
+ * since when the condition holds, so a value is evaluated in constant time
+ * whatever the number of samples a duration spans. The rules of a label are
+ * looked up once, wildcard labels included, and remembered.
+ */
+public final class AlertEngine implements AutoCloseable {
+	private static final int[] NO_RULES = {};
+
+	private final AlertRule[] rules;
+	private final AlertSink sink;
+	private final Map<String, int[]> rulesByLabel = new HashMap<String, int[]>();
+	private final Map<String, Map<String, Series>> nodes = new HashMap<String, Map<String, Series>>();
+
+	/**
+	 * Values of one label of one node.
+	 */
+	private static final class Series {
+		final long[] since;
+		final boolean[] firing;
+		double previous = Double.NaN;
+		long previousTime;
+
+		Series(int rules) {
+			this.since = new long[rules];
+			this.firing = new boolean[rules];
+			Arrays.fill(since, -1);
+		}
+	}
+
+	public AlertEngine(List<AlertRule> rules, AlertSink sink) {
+		this.rules = rules.toArray(new AlertRule[rules.size()]);
+		this.sink = sink;
+	}
+
+	/**
+	 * @param node
+	 *            node the value was read from, e.g. 10.0.0.1:7199
+	 * @param label
+	 *            label of the value, e.g. "Pending Tasks"
+	 * @param timestamp
+	 *            milliseconds since the epoch
+	 */
+	public void evaluate(String node, String label, long timestamp, double value) {
+		List<Alert> alerts = null;
+		synchronized (this) {
+			int[] matching = rules(label);
+			if (matching.length == 0 || Double.isNaN(value))
+				return;
+			Series series = series(node, label, matching);
+
+			double rate = Double.NaN;
+			// a counter going down was reset by a restart, the rate is unknown
+			if (!Double.isNaN(series.previous) && timestamp > series.previousTime && value >= series.previous)
+				rate = (value - series.previous) * 1000 / (timestamp - series.previousTime);
+			series.previous = value;
+			series.previousTime = timestamp;
+
+			for (int i = 0; i < matching.length; i++) {
+				AlertRule rule = rules[matching[i]];
+				double evaluated = rule.isRate() ? rate : value;
+				if (Double.isNaN(evaluated))
+					continue;
+				Alert alert = null;
+				if (rule.test(evaluated)) {
+					if (series.since[i] < 0)
+						series.since[i] = timestamp;
+					if (!series.firing[i] && timestamp - series.since[i] >= rule.getDurationMillis()) {
+						series.firing[i] = true;
+						alert = new Alert(rule, true, node, label, evaluated, timestamp, series.since[i]);
+					}
+				} else {
+					if (series.firing[i])
+						alert = new Alert(rule, false, node, label, evaluated, timestamp, series.since[i]);
+					series.firing[i] = false;
+					series.since[i] = -1;
+				}
+				if (alert != null) {
+					if (alerts == null)
+						alerts = new ArrayList<Alert>(1);
+					alerts.add(alert);
+				}
+			}
+		}
+		// outside the lock, a sink may take its time
+		if (alerts != null)
+			for (Alert alert : alerts)
+				sink.send(alert);
+	}
+
+	private int[] rules(String label) {
+		int[] matching = rulesByLabel.get(label);
+		if (matching == null) {
+			List<Integer> indexes = new ArrayList<Integer>();
+			for (int i = 0; i < rules.length; i++)
+				if (rules[i].matches(label))
+					indexes.add(i);
+			matching = indexes.isEmpty() ? NO_RULES : new int[indexes.size()];
+			for (int i = 0; i < matching.length; i++)
+				matching[i] = indexes.get(i);
+			rulesByLabel.put(label, matching);
+		}
+		return matching;
+	}
+
+	private Series series(String node, String label, int[] matching) {
+		Map<String, Series> labels = nodes.get(node);
+		if (labels == null) {
+			labels = new HashMap<String, Series>();
+			nodes.put(node, labels);
+		}
+		Series series = labels.get(label);
+		if (series == null) {
+			series = new Series(matching.length);
+			labels.put(label, series);
+		}
+		return series;
+	}
+
+	/**
+	 * @return a printer evaluating every numeric value before passing it on
+	 *         to out
+	 */
+	public MetricPrinter recorder(final String node, final long timestamp, final MetricPrinter out) {
+		return new MetricPrinter() {
+			@Override
+			public void print(String label, Object value, String text) {
+				if (value instanceof Number)
+					evaluate(node, label, timestamp, ((Number) value).doubleValue());
+				out.print(label, value, text);
+			}
+		};
+	}
+
+	public AlertSink getSink() {
+		return sink;
+	}
+
+	@Override
+	public void close() {
+		sink.close();
+	}
+}
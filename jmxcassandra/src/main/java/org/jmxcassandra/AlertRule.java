@@ -0,0 +1,164 @@
+package org.jmxcassandra;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.io.Files;
+
+/**
+ * A condition on the values a command samples, one per line of a rules file:
+ *
+ * <pre>
+ * # name: [rate(]"label"[)] operator threshold [for duration]
+ * compaction_backlog: "Pending Tasks" &gt; 100 for 10m
+ * read_p99: "* Read Latency 99th" &gt; 50
+ * ntr_blocked: "Native-Transport-Requests Blocked" &gt; 0
+ * dropped_mutations: rate("Dropped MUTATION") &gt; 0
+ * </pre>
+ *
+ * The label is the one printed by the command, where * matches anything, such
+ * as the table in front of a table metric. rate() compares the change per
+ * second since the previous sample instead of the value. With a duration the
+ * condition has to hold on every sample for that long before the rule fires.
+ */
+public final class AlertRule {
+	private static final Pattern RULE = Pattern.compile("\\s*([\\w.-]+)\\s*:\\s*(?:rate\\(\\s*\"([^\"]+)\"\\s*\\)|\"([^\"]+)\")"
+			+ "\\s*(>=|<=|>|<)\\s*(-?[0-9.]+(?:[eE][-+]?[0-9]+)?)\\s*(?:for\\s+([0-9.]+)([smhd]))?\\s*");
+
+	private final String name;
+	private final String label;
+	private final Pattern labelPattern;
+	private final boolean rate;
+	private final String operator;
+	private final boolean above;
+	private final boolean inclusive;
+	private final double threshold;
+	private final long durationMillis;
+
+	public AlertRule(String name, String label, boolean rate, String operator, double threshold, long durationMillis) {
+		if (!operator.equals(">") && !operator.equals(">=") && !operator.equals("<") && !operator.equals("<="))
+			throw new IllegalArgumentException("Unknown operator '" + operator + "', expected >, >=, < or <=");
+		this.name = name;
+		this.label = label;
+		this.labelPattern = label.indexOf('*') < 0 ? null
+				: Pattern.compile(Pattern.quote(label).replace("*", "\\E.*\\Q"));
+		this.rate = rate;
+		this.operator = operator;
+		this.above = operator.charAt(0) == '>';
+		this.inclusive = operator.length() == 2;
+		this.threshold = threshold;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             when the line is not a rule
+	 */
+	public static AlertRule parse(String line) {
+		Matcher m = RULE.matcher(line);
+		if (!m.matches())
+			throw new IllegalArgumentException("Expected name: [rate(]\"label\"[)] > threshold [for 10m] but got '"
+					+ line + "'");
+		boolean rate = m.group(2) != null;
+		long duration = 0;
+		if (m.group(6) != null) {
+			double amount = Double.parseDouble(m.group(6));
+			switch (m.group(7).charAt(0)) {
+			case 's':
+				duration = (long) (amount * SECONDS.toMillis(1));
+				break;
+			case 'm':
+				duration = (long) (amount * MINUTES.toMillis(1));
+				break;
+			case 'h':
+				duration = (long) (amount * HOURS.toMillis(1));
+				break;
+			default:
+				duration = (long) (amount * DAYS.toMillis(1));
+			}
+		}
+		return new AlertRule(m.group(1), rate ? m.group(2) : m.group(3), rate, m.group(4),
+				Double.parseDouble(m.group(5)), duration);
+	}
+
+	/**
+	 * Reads a rules file, skipping blank lines and # comments.
+	 */
+	public static List<AlertRule> load(File file) throws IOException {
+		List<AlertRule> rules = new ArrayList<AlertRule>();
+		int number = 0;
+		for (String line : Files.readLines(file, StandardCharsets.UTF_8)) {
+			number++;
+			String rule = line.trim();
+			if (rule.isEmpty() || rule.startsWith("#"))
+				continue;
+			try {
+				rules.add(parse(rule));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(file + ":" + number + ": " + e.getMessage(), e);
+			}
+		}
+		return rules;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return true when the label has a * in it
+	 */
+	public boolean isPattern() {
+		return labelPattern != null;
+	}
+
+	public boolean matches(String label) {
+		return labelPattern == null ? this.label.equals(label) : labelPattern.matcher(label).matches();
+	}
+
+	public boolean isRate() {
+		return rate;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	boolean test(double value) {
+		if (above)
+			return inclusive ? value >= threshold : value > threshold;
+		return inclusive ? value <= threshold : value < threshold;
+	}
+
+	/**
+	 * @return the rule as written in a rules file, without its name
+	 */
+	public String getCondition() {
+		String condition = (rate ? "rate(\"" + label + "\")" : "\"" + label + "\"") + " " + operator + " "
+				+ Alert.number(threshold);
+		return durationMillis > 0 ? condition + " for " + durationMillis / 1000 + "s" : condition;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + getCondition();
+	}
+}
@@ -0,0 +1,221 @@
+package org.jmxcassandra;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Destination of the alerts an {@link AlertEngine} fires and resolves.
+ */
+public abstract class AlertSink implements AutoCloseable {
+
+	public abstract void send(Alert alert);
+
+	/**
+	 * @return alerts dropped unsent because the destination fell behind
+	 */
+	public long getDroppedAlerts() {
+		return 0;
+	}
+
+	/**
+	 * @return alerts the destination could not be sent to
+	 */
+	public long getFailedAlerts() {
+		return 0;
+	}
+
+	/**
+	 * @return why the last failed alert could not be sent, null when none
+	 *         failed
+	 */
+	public String getLastError() {
+		return null;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * @param address
+	 *            http:// or https:// URL to POST every alert to as JSON, - for
+	 *            stderr, or a file to append one JSON line per alert to,
+	 *            optionally prefixed by file:
+	 */
+	public static AlertSink open(String address) {
+		if (address.equals("-"))
+			return new StreamSink(System.err, false);
+		if (address.startsWith("http://") || address.startsWith("https://")) {
+			try {
+				return new WebhookSink(new URL(address));
+			} catch (MalformedURLException e) {
+				throw new IllegalArgumentException("Invalid webhook URL '" + address + "' - " + e.getMessage(), e);
+			}
+		}
+		String file = address.startsWith("file:") ? address.substring("file:".length()) : address;
+		try {
+			return new StreamSink(new FileOutputStream(file, true), true);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot open alert file '" + file + "' - " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes alerts as they come, as JSON lines to a file or readable lines to
+	 * a terminal.
+	 */
+	static final class StreamSink extends AlertSink {
+		private final Writer out;
+		private final boolean json;
+		private final boolean owned;
+
+		StreamSink(OutputStream out, boolean json) {
+			this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			this.json = json;
+			this.owned = !(out instanceof PrintStream);
+		}
+
+		@Override
+		public synchronized void send(Alert alert) {
+			try {
+				out.write(json ? alert.toJson() : "cassmon: " + alert);
+				out.write('\n');
+				out.flush();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			try {
+				if (owned)
+					out.close();
+				else
+					out.flush();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * POSTs every alert to a URL from a background thread, so a slow or
+	 * unreachable receiver does not hold up sampling. When too many alerts
+	 * are waiting the oldest is dropped; dropped and failed alerts are counted
+	 * for the command to report.
+	 */
+	static final class WebhookSink extends AlertSink {
+		private static final int TIMEOUT_MILLIS = 5000;
+		private static final int MAX_QUEUED = 1000;
+
+		private final URL url;
+		private final ThreadPoolExecutor executor;
+		private final AtomicLong droppedAlerts = new AtomicLong();
+		private final AtomicLong failedAlerts = new AtomicLong();
+		private volatile String lastError;
+
+		WebhookSink(URL url) {
+			this.url = url;
+			this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "cassmon-alerts");
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, new ThreadPoolExecutor.DiscardOldestPolicy() {
+						@Override
+						public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+							// the oldest waiting alert, or this one once closed
+							droppedAlerts.incrementAndGet();
+							super.rejectedExecution(r, e);
+						}
+					});
+		}
+
+		@Override
+		public void send(final Alert alert) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						post(alert.toJson());
+					} catch (IOException e) {
+						failedAlerts.incrementAndGet();
+						lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+					}
+				}
+			});
+		}
+
+		private void post(String json) throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			try {
+				connection.setConnectTimeout(TIMEOUT_MILLIS);
+				connection.setReadTimeout(TIMEOUT_MILLIS);
+				connection.setDoOutput(true);
+				connection.setRequestMethod("POST");
+				connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+				byte[] body = json.getBytes(StandardCharsets.UTF_8);
+				connection.setFixedLengthStreamingMode(body.length);
+				OutputStream out = connection.getOutputStream();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+				int status = connection.getResponseCode();
+				if (status / 100 != 2)
+					throw new IOException("HTTP " + status);
+			} finally {
+				connection.disconnect();
+			}
+		}
+
+		@Override
+		public long getDroppedAlerts() {
+			return droppedAlerts.get();
+		}
+
+		@Override
+		public long getFailedAlerts() {
+			return failedAlerts.get();
+		}
+
+		@Override
+		public String getLastError() {
+			return lastError;
+		}
+
+		/**
+		 * Sends the alerts still waiting, giving up on them, and counting them
+		 * as dropped, after a few seconds.
+		 */
+		@Override
+		public void close() {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+					droppedAlerts.addAndGet(executor.shutdownNow().size());
+			} catch (InterruptedException e) {
+				droppedAlerts.addAndGet(executor.shutdownNow().size());
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.jmxcassandra;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates how fast a JVM allocates from the usage of its eden space, where
+ * new objects are allocated. Between collections the allocated bytes are the
+ * growth of eden; every young collection in between is taken to have run with
+ * eden full, as eden is only collected once it is.
+ */
+public class AllocationSampler {
+
+	private final ConcurrentMap<String, Sample> previous = new ConcurrentHashMap<String, Sample>();
+
+	/**
+	 * Records a new eden usage.
+	 *
+	 * @param key
+	 *            identifies the JVM, usually its node
+	 * @param used
+	 *            bytes used in eden
+	 * @param committed
+	 *            bytes committed to eden
+	 * @param collections
+	 *            collections of the collectors emptying eden so far
+	 * @param nanoTime
+	 *            time the usage was read, from {@link System#nanoTime()}
+	 * @return bytes allocated per second since the previous usage, or -1 on
+	 *         the first sample and after the JVM restarted
+	 */
+	public double update(String key, long used, long committed, long collections, long nanoTime) {
+		Sample last = previous.put(key, new Sample(used, committed, collections, nanoTime));
+		if (last == null || nanoTime <= last.nanoTime || collections < last.collections)
+			return -1;
+
+		long gcs = collections - last.collections;
+		long allocated;
+		if (gcs == 0)
+			allocated = Math.max(0, used - last.used);
+		else
+			allocated = Math.max(0, last.committed - last.used) + (gcs - 1) * committed + used;
+		return allocated * (double) TimeUnit.SECONDS.toNanos(1) / (nanoTime - last.nanoTime);
+	}
+
+	private static final class Sample {
+		final long used;
+		final long committed;
+		final long collections;
+		final long nanoTime;
+
+		Sample(long used, long committed, long collections, long nanoTime) {
+			this.used = used;
+			this.committed = committed;
+			this.collections = collections;
+			this.nanoTime = nanoTime;
+		}
+	}
+}
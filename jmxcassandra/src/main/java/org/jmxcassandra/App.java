@@ -1,8 +1,19 @@
 package org.jmxcassandra;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
-import com.yammer.metrics.reporting.JmxReporter;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.common.io.Files;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
+import com.sun.management.GarbageCollectionNotificationInfo;
 
+import io.airlift.airline.Arguments;
 import io.airlift.airline.Cli;
 import io.airlift.airline.Command;
 import io.airlift.airline.Help;
@@ -12,14 +23,54 @@ import io.airlift.airline.OptionType;
 import static com.google.common.base.Throwables.getStackTraceAsString;
 import static com.google.common.collect.Iterables.toArray;
 import static com.google.common.collect.Lists.newArrayList;
+import static java.lang.Double.parseDouble;
 import static java.lang.Integer.parseInt;
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.commons.lang3.ArrayUtils.EMPTY_STRING_ARRAY;
 import static org.apache.commons.lang3.StringUtils.EMPTY;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.io.util.FileUtils;
 import org.jmxcassandra.JmxConnect;
 
@@ -27,23 +78,14 @@ public class App {
 
 	public static void main(String... args) {
 
-		@SuppressWarnings("unchecked")
-		List<Class<? extends Runnable>> commands = newArrayList(
-				Help.class, 
-				Table.class, 
-				Clients.class,
-				OSMetrics.class,
-				CompactionStats.class);
-
-		Cli<Runnable> parser = Cli.<Runnable> builder("cassmon")
-				.withDescription("Get metrics of Cassandra Process Remotely")
-				.withDefaultCommand(Help.class)
-				.withCommands(commands)
-				.build();
+		// FileUtils is used for formatting only, keep it from loading cassandra.yaml
+		Config.setClientMode(true);
 
 		int status = 0;
 		try {
-			Runnable parse = parser.parse(args);
+			Runnable parse = parser().parse(args);
+			if (parse instanceof CassMonCmd)
+				((CassMonCmd) parse).arguments = args;
 			parse.run();
 		} catch (Exception e) {
 			badUse(e);
@@ -56,6 +98,32 @@ public class App {
 		System.exit(status);
 	}
 
+	static Cli<Runnable> parser() {
+		@SuppressWarnings("unchecked")
+		List<Class<? extends Runnable>> commands = newArrayList(
+				Help.class, 
+				Table.class, 
+				CoordinatorLatency.class,
+				Clients.class,
+				ClientRequests.class,
+				OSMetrics.class,
+				CompactionStats.class,
+				ThreadPoolStats.class,
+				Jvm.class,
+				Serve.class,
+				Daemon.class,
+				History.class,
+				Scan.class,
+				TopTables.class,
+				Events.class);
+
+		return Cli.<Runnable> builder("cassmon")
+				.withDescription("Get metrics of Cassandra Process Remotely")
+				.withDefaultCommand(Help.class)
+				.withCommands(commands)
+				.build();
+	}
+
 	private static void badUse(Exception e) {
 		System.out.println("cassmon: " + e.getMessage());
 		System.out.println("See 'cassmon help' or 'cassmon help <command>'.");
@@ -81,74 +149,841 @@ public class App {
 		@Option(type = OptionType.GLOBAL, name = { "-pw", "--password" }, description = "Remote jmx agent password")
 		private String password = EMPTY;
 
+		@Option(type = OptionType.GLOBAL, name = { "--interval" }, description = "Re-run the command every interval seconds (fractions allowed), 0 runs it once")
+		private String interval = "0";
+
+		@Option(type = OptionType.GLOBAL, name = { "--count" }, description = "Number of samples to take when an interval is given, 0 for no limit")
+		private String count = "0";
+
+		@Option(type = OptionType.GLOBAL, name = { "--hosts" }, description = "Comma separated list of nodes to run the command against in parallel")
+		private String hosts = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--hosts-file" }, description = "File listing one node per line to run the command against in parallel")
+		private String hostsFile = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--threads" }, description = "Maximum number of nodes contacted concurrently with --hosts")
+		private String threads = "16";
+
+		@Option(type = OptionType.GLOBAL, name = { "--daemon" }, description = "Run the command through a cassmon daemon listening on host:port instead of connecting to JMX directly")
+		private String daemon = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--daemon-token-file" }, description = "File holding the token of the --daemon, defaults to ~/.cassmon/daemon-<port>.token")
+		private String daemonTokenFile = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--store" }, description = "Directory to record every sampled numeric value in, read it back with 'cassmon history'")
+		private String store = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--store-retention" }, description = "Days of history to keep in --store")
+		private String storeRetention = "7";
+
+		@Option(type = OptionType.GLOBAL, name = { "--sink" }, description = "Also send every sampled numeric value to graphite://host[:port] (plaintext protocol) or influx://host[:port] (line protocol over TCP)")
+		private String sink = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--sink-prefix" }, description = "First path element of the values sent to Graphite, measurement of those sent to InfluxDB")
+		private String sinkPrefix = "cassandra";
+
+		@Option(type = OptionType.GLOBAL, name = { "--alerts" }, description = "File of alert rules evaluated against every sampled value, one name: [rate(]\"label\"[)] > threshold [for 10m] per line")
+		private String alerts = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--alert-sink" }, description = "Where --alerts go: an http(s):// URL to POST each alert to as JSON, a file to append JSON lines to, or - for stderr")
+		private String alertSink = "-";
+
+		@Option(type = OptionType.GLOBAL, name = { "--connect-timeout" }, description = "Seconds to wait for a node to accept a connection, defaults to 10")
+		private String connectTimeout = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--read-timeout" }, description = "Seconds to wait for a node to answer a single call, defaults to 30")
+		private String readTimeout = EMPTY;
+
+		@Option(type = OptionType.GLOBAL, name = { "--deadline" }, description = "Seconds a node gets to answer all calls of a sample before it is reported as failed, 0 for no limit")
+		private String deadline = "0";
+
+		@Option(type = OptionType.GLOBAL, name = { "--format" }, description = "Output format: table, json (one array, closed when the command ends), ndjson (one object per node and sample) or csv (one timestamp,node,metric,value row per value)")
+		private String format = "table";
+
+		private final RateSampler sampler = new RateSampler();
+		/** buffers of the previous sample of every node, reused by the next */
+		private final Map<JmxConnect, ReadBuffers> buffers = new ConcurrentHashMap<JmxConnect, ReadBuffers>();
+
+		/** Command line the command was parsed from, forwarded to --daemon. */
+		String[] arguments;
+		/** Set when running inside a daemon, connections are borrowed from it. */
+		private JmxConnectPool pool;
+		private PrintStream stdout = System.out;
+		private MetricStore metricStore;
+		private Thread storeFlusher;
+		private MetricSink metricSink;
+		private AlertEngine alertEngine;
+
 		@Override
 		public void run() {
 
-			JmxConnect jmxConnect = connect();
-			execute(jmxConnect);
+			if (!daemon.isEmpty()) {
+				forward();
+				return;
+			}
+
+			if (!store.isEmpty())
+				openStore();
+			try {
+				if (!sink.isEmpty())
+					metricSink = MetricSink.open(sink, sinkPrefix);
+				if (!alerts.isEmpty())
+					openAlerts();
+				runOn(nodes());
+			} finally {
+				if (alertEngine != null)
+					closeAlerts();
+				if (metricSink != null)
+					closeSink();
+				if (metricStore != null)
+					closeStore();
+			}
+
+		}
+
+		protected abstract void execute(JmxConnect jmxConnect, MetricPrinter out);
+
+		/**
+		 * Runs the command against the nodes given with --hosts, or against
+		 * --host when there are none.
+		 */
+		protected void runOn(List<String> nodes) {
+			if (nodes.isEmpty())
+				runNode();
+			else
+				runCluster(nodes);
+		}
+
+		/**
+		 * Runs the command on connections borrowed from the pool, writing its
+		 * output to out.
+		 */
+		void runIn(JmxConnectPool pool, PrintStream out) {
+			checkForwarded();
+			this.pool = pool;
+			this.stdout = out;
+			this.daemon = EMPTY;
+			run();
+		}
+
+		/**
+		 * Rejects the options that would have a daemon read or write files, or
+		 * connect anywhere but to the nodes, on behalf of its clients.
+		 */
+		void checkForwarded() {
+			String[][] options = { { "--hosts-file", hostsFile }, { "--store", store }, { "--sink", sink },
+					{ "--alerts", alerts }, { "--alert-sink", alertSink.equals("-") ? EMPTY : alertSink } };
+			for (String[] option : options)
+				if (!option[1].isEmpty())
+					throw new IllegalArgumentException(option[0] + " cannot be used through the daemon");
+		}
+
+		/**
+		 * Sends the command line to the daemon, without the options meant for
+		 * this side; the nodes of --hosts-file are read here and sent as
+		 * --hosts.
+		 */
+		private void forward() {
+			List<String> args = newArrayList();
+			int hostsAt = -1;
+			for (int i = 0; i < arguments.length; i++) {
+				String option = arguments[i].contains("=") ? arguments[i].substring(0, arguments[i].indexOf('='))
+						: arguments[i];
+				if (!ImmutableSet.of("--daemon", "--daemon-token-file", "--hosts", "--hosts-file").contains(option)) {
+					args.add(arguments[i]);
+					continue;
+				}
+				if (option.startsWith("--hosts") && hostsAt < 0)
+					hostsAt = args.size();
+				if (option.equals(arguments[i]))
+					i++;
+			}
+			if (hostsAt >= 0) {
+				args.add(hostsAt, "--hosts");
+				args.add(hostsAt + 1, Joiner.on(',').join(nodes()));
+			}
+
+			HostAndPort address = HostAndPort.fromString(daemon).withDefaultPort(Daemon.DEFAULT_PORT);
+			File tokenFile = daemonTokenFile.isEmpty() ? Daemon.tokenFile(address.getPort())
+					: new File(daemonTokenFile);
+			String token;
+			try {
+				token = CassMonDaemon.readToken(tokenFile);
+			} catch (IOException e) {
+				throw new RuntimeException(format("Cannot read the daemon token '%s' - %s", tokenFile,
+						e.getMessage()), e);
+			}
+			int status;
+			try {
+				status = CassMonDaemon.forward(new InetSocketAddress(address.getHostText(), address.getPort()), token,
+						toArray(args, String.class), stdout);
+			} catch (IOException e) {
+				throw new RuntimeException(format("Failed to reach daemon at '%s' - %s", address, e.getMessage()), e);
+			}
+			if (status != 0)
+				throw new RuntimeException("cassmon failed in the daemon");
+		}
+
+		private void runNode() {
+			final JmxConnect jmxConnect = connect();
+			final MetricPrinter out = printer();
+			boolean broken = true;
+			try {
+				sample(new Runnable() {
+					@Override
+					public void run() {
+						long now = System.currentTimeMillis();
+						out.begin(jmxConnect.host, now);
+						executeWithin(jmxConnect, record(jmxConnect, now, out));
+						out.end();
+					}
+				});
+				out.close();
+				broken = false;
+			} finally {
+				release(jmxConnect, broken);
+			}
 			if (jmxConnect.isFailed())
 				throw new RuntimeException("cassmon failed, check server logs");
+		}
+
+		/**
+		 * Connects to every node and runs the command against all of them on a
+		 * bounded pool, so a run takes as long as the slowest node rather than
+		 * the sum of all nodes.
+		 */
+		private void runCluster(final List<String> nodes) {
+			final ExecutorService pool = Executors.newFixedThreadPool(Math.min(parseInt(threads), nodes.size()));
+			final Map<String, JmxConnect> connections = new LinkedHashMap<String, JmxConnect>();
+			final Map<String, Throwable> unreachable = new LinkedHashMap<String, Throwable>();
+			final AtomicBoolean failed = new AtomicBoolean();
+			final Set<JmxConnect> broken = Collections.newSetFromMap(new ConcurrentHashMap<JmxConnect, Boolean>());
+			final MetricPrinter records = isTable() ? null : printer();
+
+			try {
+				Map<String, Future<JmxConnect>> connecting = new LinkedHashMap<String, Future<JmxConnect>>();
+				for (final String node : nodes) {
+					connecting.put(node, pool.submit(new Callable<JmxConnect>() {
+						@Override
+						public JmxConnect call() throws IOException {
+							return connect(node);
+						}
+					}));
+				}
+				for (Map.Entry<String, Future<JmxConnect>> entry : connecting.entrySet()) {
+					try {
+						connections.put(entry.getKey(), entry.getValue().get());
+					} catch (ExecutionException e) {
+						unreachable.put(entry.getKey(), e.getCause());
+					}
+				}
+
+				sample(new Runnable() {
+					@Override
+					public void run() {
+						final ClusterReport report = new ClusterReport();
+						final long now = System.currentTimeMillis();
+						List<Future<?>> running = newArrayList();
+						for (String node : nodes) {
+							final JmxConnect jmxConnect = connections.get(node);
+							if (jmxConnect == null) {
+								report.fail(node, unreachable.get(node));
+								continue;
+							}
+							final MetricPrinter out = record(jmxConnect, now, report.node(node));
+							running.add(pool.submit(new Runnable() {
+								@Override
+								public void run() {
+									try {
+										executeWithin(jmxConnect, out);
+									} catch (RuntimeException e) {
+										broken.add(jmxConnect);
+										report.fail(jmxConnect.host, e);
+									}
+									if (jmxConnect.isFailed())
+										failed.set(true);
+								}
+							}));
+						}
+						for (Future<?> future : running)
+							Futures.getUnchecked(future);
+						if (records == null)
+							report.printTo(stdout);
+						else
+							report.printTo(records, now);
+					}
+				});
+				if (records != null)
+					records.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				pool.shutdownNow();
+				for (JmxConnect jmxConnect : connections.values())
+					release(jmxConnect, broken.contains(jmxConnect));
+			}
+			if (failed.get())
+				throw new RuntimeException("cassmon failed, check server logs");
+		}
+
+		/**
+		 * Executes the command, failing once the --deadline passes so that a
+		 * wedged node does not hold up the others. The abandoned execution is
+		 * cancelled and whatever it still prints is dropped, rather than
+		 * landing in the output, --store, --sink or --alerts of a later
+		 * sample; its call ends by itself at the read timeout.
+		 */
+		private void executeWithin(final JmxConnect jmxConnect, MetricPrinter out) {
+			long deadlineNanos = deadlineNanos();
+			if (deadlineNanos <= 0) {
+				execute(jmxConnect, out);
+				return;
+			}
+			final AbandonablePrinter abandonable = new AbandonablePrinter(out);
+			CompletableFuture<Void> execution = AsyncJmxConnect.call(new Callable<Void>() {
+				@Override
+				public Void call() {
+					execute(jmxConnect, abandonable);
+					return null;
+				}
+			}, AsyncJmxConnect.defaultExecutor(), deadlineNanos, NANOSECONDS);
+			try {
+				execution.get();
+			} catch (ExecutionException e) {
+				abandon(jmxConnect, execution, abandonable);
+				if (e.getCause() instanceof TimeoutException)
+					throw new RuntimeException(format("'%s' did not answer within %s seconds", jmxConnect.host,
+							deadline), e.getCause());
+				throw Throwables.propagate(e.getCause());
+			} catch (InterruptedException e) {
+				abandon(jmxConnect, execution, abandonable);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for " + jmxConnect.host, e);
+			}
+		}
+
+		private void abandon(JmxConnect jmxConnect, CompletableFuture<Void> execution,
+				AbandonablePrinter abandonable) {
+			execution.cancel(true);
+			abandonable.abandon();
+			// the abandoned execution may still write to the buffers of the node
+			buffers.remove(jmxConnect);
+		}
+
+		/**
+		 * --connect-timeout, which only applies to the connections of this
+		 * command.
+		 */
+		protected int connectTimeoutMillis() {
+			return connectTimeout.isEmpty() ? JmxConnect.DEFAULT_CONNECT_TIMEOUT_MILLIS
+					: (int) (parseDouble(connectTimeout) * 1000);
+		}
+
+		protected int readTimeoutMillis() {
+			return readTimeout.isEmpty() ? JmxConnect.DEFAULT_READ_TIMEOUT_MILLIS
+					: (int) (parseDouble(readTimeout) * 1000);
+		}
+
+		/**
+		 * @return the --deadline, 0 for no limit
+		 */
+		protected long deadlineNanos() {
+			return (long) (parseDouble(deadline) * NANOSECONDS.convert(1, SECONDS));
+		}
+
+		/**
+		 * Runs the sample once, or at a fixed rate when an interval is given,
+		 * flushing the --sink after each.
+		 */
+		protected void sample(Runnable sample) {
+			final MetricSink sink = metricSink;
+			if (sink != null) {
+				final Runnable unflushed = sample;
+				sample = new Runnable() {
+					@Override
+					public void run() {
+						try {
+							unflushed.run();
+						} finally {
+							sink.flush();
+						}
+					}
+				};
+			}
+			long intervalNanos = intervalNanos();
+			if (intervalNanos > 0)
+				watch(sample, intervalNanos, count());
+			else
+				sample.run();
+		}
+
+		/**
+		 * Re-executes the command over the same connection at a fixed rate, so
+		 * sample times do not drift by the time each execution takes.
+		 */
+		private void watch(final Runnable sample, long intervalNanos, final int samples) {
+			final CountDownLatch done = new CountDownLatch(1);
+			final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+			ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+			scheduler.scheduleAtFixedRate(new Runnable() {
+				private int taken = 0;
+
+				@Override
+				public void run() {
+					try {
+						if (taken > 0 && isTable())
+							stdout.println();
+						sample.run();
+						// stop once nobody reads the output, e.g. a daemon client went away
+						if (++taken == samples || stdout.checkError())
+							done.countDown();
+					} catch (RuntimeException e) {
+						error.set(e);
+						done.countDown();
+						throw e;
+					}
+				}
+			}, 0, intervalNanos, NANOSECONDS);
+
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				scheduler.shutdownNow();
+			}
+
+			if (error.get() != null)
+				throw error.get();
+		}
+
+		/**
+		 * Opens the --store, flushing it on interrupt since watch mode is
+		 * usually ended with ^C.
+		 */
+		private void openStore() {
+			try {
+				metricStore = MetricStore.open(new File(store), MetricStore.DEFAULT_SEGMENT_SIZE,
+						(long) (parseDouble(storeRetention) * DAYS.toMillis(1)));
+			} catch (IOException e) {
+				throw new RuntimeException(format("Cannot open store '%s' - %s", store, e.getMessage()), e);
+			}
+			final MetricStore flushed = metricStore;
+			storeFlusher = new Thread("cassmon-store-flush") {
+				@Override
+				public void run() {
+					try {
+						flushed.flush();
+					} catch (IOException e) {
+						// exiting anyway, the unflushed blocks are lost
+					}
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(storeFlusher);
+		}
+
+		private void openAlerts() {
+			List<AlertRule> rules;
+			try {
+				rules = AlertRule.load(new File(alerts));
+			} catch (IOException e) {
+				throw new RuntimeException(format("Cannot read alert rules '%s' - %s", alerts, e.getMessage()), e);
+			}
+			alertEngine = new AlertEngine(rules, AlertSink.open(alertSink));
+		}
+
+		private void closeAlerts() {
+			alertEngine.close();
+			AlertSink destination = alertEngine.getSink();
+			if (destination.getDroppedAlerts() > 0)
+				warn(format("dropped %d alerts for %s, it was unreachable or too slow",
+						destination.getDroppedAlerts(), alertSink));
+			if (destination.getFailedAlerts() > 0)
+				warn(format("failed to send %d alerts to %s - %s", destination.getFailedAlerts(), alertSink,
+						destination.getLastError()));
+			alertEngine = null;
+		}
+
+		private void closeSink() {
+			metricSink.close();
+			if (metricSink instanceof SocketSink && ((SocketSink) metricSink).getDroppedBatches() > 0)
+				warn(format("dropped %d batches of values for %s, it was unreachable or too slow",
+						((SocketSink) metricSink).getDroppedBatches(), sink));
+			metricSink = null;
+		}
 
+		/**
+		 * Reports a problem that does not fail the command, on stderr or, in
+		 * a daemon, to the client along with the output.
+		 */
+		protected void warn(String message) {
+			(pool != null ? stdout : System.err).println("cassmon: " + message);
 		}
 
-		protected abstract void execute(JmxConnect jmxConnect);
+		private void closeStore() {
+			try {
+				Runtime.getRuntime().removeShutdownHook(storeFlusher);
+			} catch (IllegalStateException e) {
+				// already shutting down, the hook flushes
+			}
+			try {
+				metricStore.close();
+			} catch (IOException e) {
+				throw new RuntimeException(format("Cannot close store '%s' - %s", store, e.getMessage()), e);
+			} finally {
+				metricStore = null;
+			}
+		}
+
+		/**
+		 * @return out, also recording every numeric value in the --store,
+		 *         sending it to the --sink and evaluating the --alerts on it
+		 *         when they are given
+		 */
+		protected MetricPrinter record(JmxConnect jmxConnect, long timestamp, MetricPrinter out) {
+			return record(HostAndPort.fromParts(jmxConnect.host, jmxConnect.port).toString(), timestamp, out);
+		}
+
+		/**
+		 * @param node
+		 *            host:port the values were read from
+		 */
+		protected MetricPrinter record(String node, long timestamp, MetricPrinter out) {
+			if (alertEngine != null)
+				out = alertEngine.recorder(node, timestamp, out);
+			if (metricSink != null)
+				out = metricSink.recorder(node, timestamp, out);
+			if (metricStore != null)
+				out = metricStore.recorder(node, timestamp, out);
+			return out;
+		}
+
+		protected String host() {
+			return host;
+		}
+
+		protected int port() {
+			return parseInt(port);
+		}
+
+		protected String username() {
+			return username;
+		}
+
+		protected String password() {
+			return password;
+		}
+
+		protected int threads() {
+			return parseInt(threads);
+		}
+
+		/**
+		 * @return the --interval, 0 when the command runs once
+		 */
+		protected long intervalNanos() {
+			return (long) (parseDouble(interval) * NANOSECONDS.convert(1, SECONDS));
+		}
+
+		/**
+		 * @return the --count, 0 for no limit
+		 */
+		protected int count() {
+			return parseInt(count);
+		}
+
+		protected PrintStream stdout() {
+			return stdout;
+		}
+
+		/**
+		 * @return true when the output is for people rather than programs
+		 */
+		protected boolean isTable() {
+			return format.equals("table");
+		}
+
+		/**
+		 * @return printer for the --format, see
+		 *         {@link MetricPrinter#begin(String, long)} for the records of
+		 *         the machine readable formats
+		 */
+		protected MetricPrinter printer() {
+			return MetricPrinter.forFormat(format, stdout);
+		}
+
+		private List<String> nodes() {
+			List<String> nodes = newArrayList();
+			for (String node : Splitter.on(',').trimResults().omitEmptyStrings().split(hosts))
+				nodes.add(node);
+
+			if (!hostsFile.isEmpty()) {
+				try {
+					for (String line : Files.readLines(new File(hostsFile), Charsets.UTF_8)) {
+						line = line.trim();
+						if (!line.isEmpty() && !line.startsWith("#"))
+							nodes.add(line);
+					}
+				} catch (IOException e) {
+					throw new IllegalArgumentException("Cannot read hosts file " + hostsFile, e);
+				}
+			}
+			return nodes;
+		}
 
 		private JmxConnect connect() {
 			JmxConnect nodeClient = null;
 
 			try {
-				if (username.isEmpty())
-					nodeClient = new JmxConnect(host, parseInt(port));
-				else
-					nodeClient = new JmxConnect(host, parseInt(port), username, password);
+				nodeClient = connect(host);
 			} catch (IOException e) {
 				Throwable rootCause = Throwables.getRootCause(e);
-				System.err.println(format("cassmon: Failed to connect to '%s:%s' - %s: '%s'.", host, port,
-						rootCause.getClass().getSimpleName(), rootCause.getMessage()));
+				String message = format("Failed to connect to '%s:%s' - %s: '%s'.", host, port,
+						rootCause.getClass().getSimpleName(), rootCause.getMessage());
+				if (pool != null)
+					throw new RuntimeException(message, e);
+				System.err.println("cassmon: " + message);
 				System.exit(1);
 			}
 
 			return nodeClient;
 		}
 
+		protected JmxConnect connect(String node) throws IOException {
+			if (pool != null)
+				return pool.borrow(node, parseInt(port), username, password, connectTimeoutMillis(),
+						readTimeoutMillis());
+			return new JmxConnect(node, parseInt(port), username, password, connectTimeoutMillis(),
+					readTimeoutMillis());
+		}
+
+		/**
+		 * Per-second rate of a counter since this command last sampled it on
+		 * the same node.
+		 * 
+		 * @return null for the first sample, so outside watch mode, or when
+		 *         value is not a number
+		 */
+		protected RateSampler.Rate rate(JmxConnect jmxConnect, String metric, Object value) {
+			if (!(value instanceof Number))
+				return null;
+			return sampler.update(jmxConnect.host + ":" + jmxConnect.port + "/" + metric, ((Number) value).longValue());
+		}
+
+		/**
+		 * @return the buffers of the previous sample of the node, new ones for
+		 *         the plan on its first sample
+		 */
+		protected ReadBuffers buffers(JmxConnect jmxConnect, ReadPlan plan) {
+			ReadBuffers read = buffers.get(jmxConnect);
+			if (read == null || read.getPlan() != plan) {
+				read = new ReadBuffers(plan);
+				buffers.put(jmxConnect, read);
+			}
+			return read;
+		}
+
+		/**
+		 * @return the buffers of the previous sample of the node when they were
+		 *         built for the same tables, null otherwise
+		 */
+		protected ReadBuffers buffers(JmxConnect jmxConnect, List<String[]> tables) {
+			ReadBuffers read = buffers.get(jmxConnect);
+			return read != null && read.reads(tables) ? read : null;
+		}
+
+		/**
+		 * Keeps the buffers for the next samples of the node.
+		 */
+		protected ReadBuffers keep(JmxConnect jmxConnect, ReadBuffers read) {
+			buffers.put(jmxConnect, read);
+			return read;
+		}
+
+		protected static void printRate(MetricPrinter out, String label, RateSampler.Rate rate, double scale, String unit) {
+			if (rate != null)
+				out.print(label, rate.getPerSecond() / scale, format("%.2f %s", rate.getPerSecond() / scale, unit));
+		}
+
+		protected void release(JmxConnect jmxConnect, boolean broken) {
+			buffers.remove(jmxConnect);
+			if (pool != null) {
+				pool.release(jmxConnect, broken);
+				return;
+			}
+			try {
+				jmxConnect.close();
+			} catch (IOException e) {
+				// nothing useful to report once the command has run
+			}
+		}
+
 		protected String[] parseOptionalColumnFamilies(List<String> cmdArgs) {
 			return cmdArgs.size() <= 1 ? EMPTY_STRING_ARRAY : toArray(cmdArgs.subList(1, cmdArgs.size()), String.class);
 		}
 
 	}
 
-	@Command(name = "tablestats", description = "Print information about the table in cassandra")
-	public static class Table extends CassMonCmd {
+	/**
+	 * Printer of an execution that may be given up on, dropping everything it
+	 * prints from then on.
+	 */
+	private static final class AbandonablePrinter extends MetricPrinter {
+		private final MetricPrinter out;
+		private boolean abandoned;
+
+		AbandonablePrinter(MetricPrinter out) {
+			this.out = out;
+		}
 
-		@Option(type = OptionType.COMMAND, name = { "-ks", "--keyspace" }, description = "Keyspace")
+		@Override
+		public synchronized void print(String label, Object value, String text) {
+			if (!abandoned)
+				out.print(label, value, text);
+		}
+
+		/**
+		 * Once this returns, nothing more reaches the printer given.
+		 */
+		synchronized void abandon() {
+			abandoned = true;
+		}
+	}
+
+	/**
+	 * Command reading metrics of one table, of every table of a keyspace or of
+	 * every table on the node.
+	 */
+	public static abstract class TableCmd extends CassMonCmd {
+
+		@Option(type = OptionType.COMMAND, name = { "-ks", "--keyspace" }, description = "Keyspace, without a table every table of the keyspace is shown")
 		private String keyspace = "";
 		
-		@Option(type = OptionType.COMMAND, name = { "-t", "--table" }, description = "Table")
+		@Option(type = OptionType.COMMAND, name = { "-t", "--table" }, description = "Table, without a keyspace and table every table on the node is shown")
 		private String cfname = "";
+
+		protected List<String[]> tables(JmxConnect jmxConnect) {
+			return cfname.isEmpty() ? jmxConnect.getColumnFamilies(keyspace)
+					: Collections.singletonList(new String[] { keyspace, cfname });
+		}
+
+		/**
+		 * @return "keyspace.table " when several tables may be shown, empty
+		 *         when a single table was asked for
+		 */
+		protected String prefix(String[] table) {
+			return cfname.isEmpty() ? table[0] + "." + table[1] + " " : EMPTY;
+		}
+
+		/**
+		 * Prints every percentile, the max and the mean of a timer in
+		 * milliseconds, or of a histogram as plain numbers.
+		 */
+		protected static void printDistribution(MetricPrinter out, String label, Distribution distribution) {
+			String unit = distribution.getUnit() == null ? EMPTY : " ms";
+			double[] values = distribution.getMillis();
+			for (int i = 0; i < values.length; i++)
+				out.print(label + " " + Distribution.LABELS[i], values[i], format("%.2f%s", values[i], unit));
+		}
+	}
+
+	@Command(name = "tablestats", description = "Print information about a table, or every table discovered on the node, in cassandra")
+	public static class Table extends TableCmd {
 		
 		@Option(name = {"-d", "--diskused"}, description = "Live Disk Space Used")
 		private boolean liveDiskSpaceUsed = false;
 		
-		@Option(name = {"-r", "--readlatency"}, description = "Read Latency")
+		@Option(name = {"-r", "--readlatency"}, description = "Read count and latency percentiles, and read rate in watch mode")
 		private boolean readLatency = false;
 		
 		@Option(name = {"-s", "--sstablecount"}, description = "Sstable Count")
 		private boolean sstableCount = false;
 		
+		@Option(name = {"-w", "--writes"}, description = "Write count and latency percentiles, and write rate in watch mode")
+		private boolean writes = false;
+		
+		@Option(name = {"-S", "--sstablesperread"}, description = "SSTables per read percentiles")
+		private boolean sstablesPerRead = false;
+		
+		@Option(name = {"-T", "--tombstones"}, description = "Tombstones scanned per read percentiles")
+		private boolean tombstones = false;
+		
 		@Override
-		public void execute(JmxConnect jmxConnect) {
+		public void execute(JmxConnect jmxConnect, MetricPrinter out) {
 
+			List<String> metricNames = newArrayList();
 			if(liveDiskSpaceUsed)
-				System.out.println("Disk Usage: " + format((Long) jmxConnect.getColumnFamilyMetric(keyspace, cfname, "LiveDiskSpaceUsed"), true));
-			
-			if(readLatency) {
-				double cfReadLatency = ((JmxReporter.TimerMBean) jmxConnect.getColumnFamilyMetric(keyspace, cfname, "ReadLatency")).getCount();
-				cfReadLatency = cfReadLatency > 0 ? cfReadLatency / 1000 : Double.NaN;
-				System.out.println("Read Latency: " + cfReadLatency + " ms");
-			}
-			
+				metricNames.add("LiveDiskSpaceUsed");
 			if(sstableCount)
-				System.out.println("SSTABLE Count: " + jmxConnect.getColumnFamilyMetric(keyspace, cfname, "LiveSSTableCount"));
+				metricNames.add("LiveSSTableCount");
+
+			List<String> distributionNames = newArrayList();
+			if(readLatency)
+				distributionNames.add("ReadLatency");
+			if(writes)
+				distributionNames.add("WriteLatency");
+			if(sstablesPerRead)
+				distributionNames.add("SSTablesPerReadHistogram");
+			if(tombstones)
+				distributionNames.add("TombstoneScannedHistogram");
+
+			if (metricNames.isEmpty() && distributionNames.isEmpty())
+				return;
+
+			List<String[]> tables = tables(jmxConnect);
+			// the plan changes only when tables are created or dropped
+			ReadBuffers read = buffers(jmxConnect, tables);
+			if (read == null) {
+				// value of metric m of table t has id t * metricNames.size() + m
+				ReadPlan.Builder plan = ReadPlan.builder();
+				for (String[] table : tables)
+					for (String metricName : metricNames)
+						plan.add(MetricCatalog.table(metricName), table[0], table[1]);
+				read = keep(jmxConnect, new ReadBuffers(plan.build(), tables));
+			}
+			read.read(jmxConnect);
+			long[] values = read.getLongs();
+			int diskUsedId = metricNames.indexOf("LiveDiskSpaceUsed");
+			int liveSSTablesId = metricNames.indexOf("LiveSSTableCount");
+			List<Map<String, Distribution>> distributions = jmxConnect.getColumnFamilyDistributions(tables,
+					toArray(distributionNames, String.class));
+
+			for (int i = 0; i < tables.size(); i++) {
+				String prefix = prefix(tables.get(i));
+				int first = i * metricNames.size();
+				Map<String, Distribution> tableDistributions = distributions.get(i);
+
+				long diskUsed = diskUsedId < 0 ? ReadPlan.MISSING : values[first + diskUsedId];
+				if(!ReadPlan.isMissing(diskUsed))
+					out.print(prefix + "Disk Usage", diskUsed, format(diskUsed, true));
+				
+				Distribution reads = tableDistributions.get("ReadLatency");
+				if(reads != null) {
+					out.print(prefix + "Read Count", reads.getCount());
+					printRate(out, prefix + "Read Rate", rate(jmxConnect, prefix + "ReadLatency", reads.getCount()), 1, "ops/s");
+					printDistribution(out, prefix + "Read Latency", reads);
+				}
+				
+				long liveSSTables = liveSSTablesId < 0 ? ReadPlan.MISSING : values[first + liveSSTablesId];
+				if(!ReadPlan.isMissing(liveSSTables))
+					out.print(prefix + "SSTABLE Count", liveSSTables);
+				
+				Distribution writeLatency = tableDistributions.get("WriteLatency");
+				if(writeLatency != null) {
+					out.print(prefix + "Write Count", writeLatency.getCount());
+					printRate(out, prefix + "Write Rate", rate(jmxConnect, prefix + "WriteLatency", writeLatency.getCount()), 1, "ops/s");
+					printDistribution(out, prefix + "Write Latency", writeLatency);
+				}
+
+				Distribution sstablesRead = tableDistributions.get("SSTablesPerReadHistogram");
+				if(sstablesRead != null)
+					printDistribution(out, prefix + "SSTables Per Read", sstablesRead);
+
+				Distribution tombstonesScanned = tableDistributions.get("TombstoneScannedHistogram");
+				if(tombstonesScanned != null)
+					printDistribution(out, prefix + "Tombstones Scanned", tombstonesScanned);
+			}
 		}
 
 		private static String format(long bytes, boolean humanReadable) {
@@ -156,6 +991,28 @@ public class App {
 		}
 	}
 
+	@Command(name = "coordinatorlatency", description = "Print coordinator read and scan latency percentiles of a table, or of every table")
+	public static class CoordinatorLatency extends TableCmd {
+
+		@Override
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			List<String[]> tables = tables(jmxConnect);
+			List<Map<String, Distribution>> distributions = jmxConnect.getColumnFamilyDistributions(tables,
+					"CoordinatorReadLatency", "CoordinatorScanLatency");
+
+			for (int i = 0; i < tables.size(); i++) {
+				String prefix = prefix(tables.get(i));
+				Distribution reads = distributions.get(i).get("CoordinatorReadLatency");
+				if (reads != null)
+					printDistribution(out, prefix + "Coordinator Read Latency", reads);
+
+				Distribution scans = distributions.get(i).get("CoordinatorScanLatency");
+				if (scans != null)
+					printDistribution(out, prefix + "Coordinator Scan Latency", scans);
+			}
+		}
+	}
+
 	@Command(name = "clients", description = "Prints information about number of clients connected to cassandra")
 	public static class Clients extends CassMonCmd {
 
@@ -169,16 +1026,105 @@ public class App {
 		private boolean allClients = false;
 
 		@Override
-		protected void execute(JmxConnect jmxConnect) {
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
 
 			if(nativeClients || allClients)
-				System.out.println("Thrift Clients: " + jmxConnect.getConnectedClients("connectedNativeClients"));
+				out.print("Thrift Clients", jmxConnect.getConnectedClients("connectedNativeClients"));
 			
 			if(thriftClients || allClients)
-					System.out.println("Natvie Client: " + jmxConnect.getConnectedClients("connectedThriftClients"));
+					out.print("Natvie Client", jmxConnect.getConnectedClients("connectedThriftClients"));
 		}
 	}
 	
+	@Command(name = "clientrequests", description = "Print coordinator requests, latency percentiles, timeouts, unavailables and failures per request type, with their rates in watch mode")
+	public static class ClientRequests extends CassMonCmd {
+
+		@Option(name = {"-s", "--scope"}, description = "Read, Write, RangeSlice, CASRead or CASWrite, repeatable, defaults to all of them")
+		private List<String> scopes = newArrayList();
+
+		/** Count, percentiles, Max and Mean of Latency, then the counters, for every scope */
+		private static final int LATENCY_VALUES = Distribution.LABELS.length + 1;
+		private static final String[] COUNTERS = { "TotalLatency", "Timeouts", "Unavailables", "Failures" };
+		private static final String[] ERROR_RATES = { "Timeout Rate", "Unavailable Rate", "Failure Rate" };
+		private static final int PER_SCOPE = LATENCY_VALUES + COUNTERS.length;
+		private static final ReadPlan PLAN;
+		/** units of Latency and TotalLatency, per scope */
+		private static final Metric.Unit[] LATENCY_UNITS = new Metric.Unit[MetricCatalog.CLIENT_REQUEST_SCOPES.length];
+		private static final Metric.Unit[] TOTAL_LATENCY_UNITS =
+				new Metric.Unit[MetricCatalog.CLIENT_REQUEST_SCOPES.length];
+		static {
+			ReadPlan.Builder plan = ReadPlan.builder();
+			for (int s = 0; s < MetricCatalog.CLIENT_REQUEST_SCOPES.length; s++) {
+				String scope = MetricCatalog.CLIENT_REQUEST_SCOPES[s];
+				Metric latency = MetricCatalog.clientRequest(scope, "Latency");
+				for (int i = 0; i < LATENCY_VALUES; i++)
+					plan.add(latency.getObjectName(), Distribution.ATTRIBUTES[i]);
+				for (String counter : COUNTERS)
+					plan.add(MetricCatalog.clientRequest(scope, counter));
+				LATENCY_UNITS[s] = latency.getUnit();
+				TOTAL_LATENCY_UNITS[s] = MetricCatalog.clientRequest(scope, "TotalLatency").getUnit();
+			}
+			PLAN = plan.build();
+		}
+
+		@Override
+		protected void runOn(List<String> nodes) {
+			// fail on a bad --scope before connecting
+			for (String scope : scopes)
+				if (!Arrays.asList(MetricCatalog.CLIENT_REQUEST_SCOPES).contains(scope))
+					throw new IllegalArgumentException("Unknown scope '" + scope
+							+ "', expected Read, Write, RangeSlice, CASRead or CASWrite");
+			super.runOn(nodes);
+		}
+
+		@Override
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			ReadBuffers read = buffers(jmxConnect, PLAN);
+			read.read(jmxConnect);
+			long[] longs = read.getLongs();
+			double[] doubles = read.getDoubles();
+
+			for (int s = 0; s < MetricCatalog.CLIENT_REQUEST_SCOPES.length; s++) {
+				String scope = MetricCatalog.CLIENT_REQUEST_SCOPES[s];
+				int id = s * PER_SCOPE;
+				// a scope no request of its type went through yet is not registered
+				if ((!scopes.isEmpty() && !scopes.contains(scope)) || ReadPlan.isMissing(longs[id]))
+					continue;
+
+				String metric = "ClientRequest/" + scope + "/";
+				RateSampler.Rate requestRate = rate(jmxConnect, metric + "Latency", longs[id]);
+				RateSampler.Rate latencyRate = rate(jmxConnect, metric + "TotalLatency", value(longs[id + LATENCY_VALUES]));
+
+				out.print(scope + " Requests", longs[id]);
+				printRate(out, scope + " Request Rate", requestRate, 1, "reqs/s");
+				for (int i = 0; i < Distribution.LABELS.length; i++) {
+					double millis = LATENCY_UNITS[s].toMillis(doubles[id + 1 + i]);
+					if (!Double.isNaN(millis))
+						out.print(scope + " Latency " + Distribution.LABELS[i], millis, format("%.2f ms", millis));
+				}
+				// exact mean of the requests since the previous sample, unlike the decaying percentiles
+				if (requestRate != null && latencyRate != null && requestRate.getPerSecond() > 0) {
+					double millis = TOTAL_LATENCY_UNITS[s]
+							.toMillis(latencyRate.getPerSecond() / requestRate.getPerSecond());
+					out.print(scope + " Latency Since Last Sample", millis, format("%.2f ms", millis));
+				}
+
+				for (int c = 1; c < COUNTERS.length; c++) {
+					Long count = value(longs[id + LATENCY_VALUES + c]);
+					RateSampler.Rate errorRate = rate(jmxConnect, metric + COUNTERS[c], count);
+					if (count == null)
+						continue;
+					out.print(scope + " " + COUNTERS[c], count);
+					printRate(out, scope + " " + ERROR_RATES[c - 1], errorRate, 1, "errors/s");
+				}
+			}
+		}
+
+		private static Long value(long value) {
+			return ReadPlan.isMissing(value) ? null : value;
+		}
+	}
+
 	@Command(name = "compactionstats", description = "Prints information about the compactions")
 	public static class CompactionStats extends CassMonCmd {
 
@@ -193,24 +1139,350 @@ public class App {
 
 		@Option(name = {"-t", "--totalcompactionscompleted"}, description = "Total Compactions Completed")
 		private boolean totalCompactionsCompleted = false;
-		
+
+		@Option(name = {"-a", "--active"}, description = "Progress of every running compaction")
+		private boolean active = false;
+
+		@Option(name = {"-e", "--estimate"}, description = "Throughput, task rate and time to drain the pending tasks over the last minutes, in watch mode")
+		private boolean estimate = false;
+
+		/** counters of the Compaction metrics, read together so that every rate comes from one snapshot */
+		private static final String[] COUNTERS = { "BytesCompacted", "CompletedTasks", "PendingTasks",
+				"TotalCompactionsCompleted" };
+		private static final ReadPlan PLAN;
+		static {
+			ReadPlan.Builder plan = ReadPlan.builder();
+			for (String counter : COUNTERS)
+				plan.add(MetricCatalog.get("Compaction", counter));
+			PLAN = plan.build();
+		}
+
+		private final Map<String, CompactionBacklog> backlogs = new ConcurrentHashMap<String, CompactionBacklog>();
+
 		@Override
-		protected void execute(JmxConnect jmxConnect) {
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			long[] counters = null;
+			if (bytesCompacted || completedTasks || pendingTasks || totalCompactionsCompleted || estimate) {
+				ReadBuffers read = buffers(jmxConnect, PLAN);
+				read.read(jmxConnect);
+				counters = read.getLongs();
+			}
 
-			if(bytesCompacted)
-				System.out.println("Bytes Compacted: " + jmxConnect.getCompactionMetric("BytesCompacted"));
+			if(bytesCompacted) {
+				Long compacted = counter(counters, "BytesCompacted");
+				printIfPresent(out, "Bytes Compacted", compacted);
+				printRate(out, "Compaction Throughput", rate(jmxConnect, "BytesCompacted", compacted), 1024 * 1024, "MB/s");
+			}
 			
-			if(completedTasks)
-					System.out.println("Completed Tasks: " + jmxConnect.getCompactionMetric("CompletedTasks"));
+			if(completedTasks) {
+				Long completed = counter(counters, "CompletedTasks");
+				printIfPresent(out, "Completed Tasks", completed);
+				printRate(out, "Completed Tasks Rate", rate(jmxConnect, "CompletedTasks", completed), 1, "tasks/s");
+			}
 			
 			if(pendingTasks)
-				System.out.println("Pending Tasks: " + jmxConnect.getCompactionMetric("PendingTasks"));
+				printIfPresent(out, "Pending Tasks", counter(counters, "PendingTasks"));
 			
-			if(totalCompactionsCompleted)
-				System.out.println("Total Compactions Completed: " + jmxConnect.getCompactionMetric("TotalCompactionsCompleted"));
+			if(totalCompactionsCompleted) {
+				Long total = counter(counters, "TotalCompactionsCompleted");
+				printIfPresent(out, "Total Compactions Completed", total);
+				printRate(out, "Compactions Completed Rate", rate(jmxConnect, "TotalCompactionsCompleted", total), 1, "compactions/s");
+			}
+
+			long remaining = 0;
+			if (active || estimate) {
+				for (Map<String, String> compaction : jmxConnect.getActiveCompactions()) {
+					long done = Long.parseLong(compaction.get("completed"));
+					long size = Long.parseLong(compaction.get("total"));
+					boolean bytes = "bytes".equals(compaction.get("unit"));
+					if (bytes)
+						remaining += Math.max(0, size - done);
+					if (active) {
+						double percent = size > 0 ? 100.0 * done / size : 0;
+						out.print(format("Compaction %s.%s %s %s", compaction.get("keyspace"),
+								compaction.get("columnfamily"), compaction.get("taskType"), compaction.get("id")),
+								percent, format("%.1f%% of %s", percent, bytes ? FileUtils.stringifyFileSize(size)
+										: size + " " + compaction.get("unit")));
+					}
+				}
+			}
+
+			if (estimate)
+				printEstimate(jmxConnect, out, counters, remaining);
+		}
+
+		/**
+		 * @param counters
+		 *            the counters read for this sample
+		 */
+		private void printEstimate(JmxConnect jmxConnect, MetricPrinter out, long[] counters, long remaining) {
+			Long pending = counter(counters, "PendingTasks");
+			Long compacted = counter(counters, "BytesCompacted");
+			Long completed = counter(counters, "CompletedTasks");
+			if (!pendingTasks)
+				printIfPresent(out, "Pending Tasks", pending);
+			out.print("Active Compactions Remaining", remaining, FileUtils.stringifyFileSize(remaining));
+			if (pending == null || compacted == null || completed == null)
+				return;
+
+			String node = jmxConnect.host + ":" + jmxConnect.port;
+			CompactionBacklog backlog = backlogs.get(node);
+			if (backlog == null) {
+				backlog = new CompactionBacklog(5, MINUTES);
+				backlogs.put(node, backlog);
+			}
+			backlog.update(System.nanoTime(), compacted, completed, pending);
+			if (!backlog.hasRates())
+				return;
+
+			double throughput = backlog.getBytesPerSecond() / (1024 * 1024);
+			out.print("Compaction Throughput (5m)", throughput, format("%.2f MB/s", throughput));
+			out.print("Completed Tasks Rate (5m)", backlog.getTasksPerSecond(),
+					format("%.2f tasks/s", backlog.getTasksPerSecond()));
+			out.print("Pending Tasks Trend (5m)", backlog.getPendingPerSecond(),
+					format("%+.2f tasks/s", backlog.getPendingPerSecond()));
+			printEta(out, "Pending Tasks Drained In", backlog.getDrainSeconds(), "not draining");
+			if (remaining > 0)
+				printEta(out, "Active Compactions Done In", backlog.getSecondsFor(remaining), "not progressing");
+		}
+
+		/**
+		 * @return the counter, null when the node did not return it
+		 */
+		private static Long counter(long[] counters, String name) {
+			for (int i = 0; i < COUNTERS.length; i++)
+				if (COUNTERS[i].equals(name))
+					return ReadPlan.isMissing(counters[i]) ? null : counters[i];
+			throw new IllegalArgumentException(name);
+		}
+
+		private static void printIfPresent(MetricPrinter out, String label, Long value) {
+			if (value != null)
+				out.print(label, value);
+		}
+
+		private static void printEta(MetricPrinter out, String label, long seconds, String never) {
+			if (seconds < 0)
+				out.print(label, null, never);
+			else
+				out.print(label, seconds, CompactionBacklog.formatSeconds(seconds));
 		}
 	}
 	
+	@Command(name = "tpstats", description = "Print the active, pending, completed and blocked tasks of every thread pool and the dropped messages per verb")
+	public static class ThreadPoolStats extends CassMonCmd {
+
+		@Option(name = {"-b", "--busy"}, description = "Only thread pools with active, pending or blocked tasks")
+		private boolean busy = false;
+
+		@Override
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			Map<String, Map<String, Object>> pools = jmxConnect.getThreadPools();
+			Multiset<String> names = HashMultiset.create();
+			for (String pool : pools.keySet())
+				names.add(name(pool));
+
+			for (Map.Entry<String, Map<String, Object>> entry : pools.entrySet()) {
+				// pools are labelled by name, and by path too when the name is used under several paths
+				String pool = names.count(name(entry.getKey())) > 1 ? entry.getKey() : name(entry.getKey());
+				Map<String, Object> metrics = entry.getValue();
+				Object completed = metrics.get("CompletedTasks");
+				// sampled before skipping so the rate is there once the pool gets busy
+				RateSampler.Rate completedRate = rate(jmxConnect, "ThreadPools/" + entry.getKey(), completed);
+				if (busy && !isBusy(metrics))
+					continue;
+
+				printIfPresent(out, pool + " Active", metrics.get("ActiveTasks"));
+				printIfPresent(out, pool + " Pending", metrics.get("PendingTasks"));
+				printIfPresent(out, pool + " Completed", completed);
+				printRate(out, pool + " Completed Rate", completedRate, 1, "tasks/s");
+				printIfPresent(out, pool + " Blocked", metrics.get("CurrentlyBlockedTasks"));
+				printIfPresent(out, pool + " All Time Blocked", metrics.get("TotalBlockedTasks"));
+			}
+
+			for (Map.Entry<String, Long> entry : jmxConnect.getDroppedMessages().entrySet()) {
+				RateSampler.Rate droppedRate = rate(jmxConnect, "DroppedMessage/" + entry.getKey(), entry.getValue());
+				if (busy && entry.getValue() == 0)
+					continue;
+				out.print("Dropped " + entry.getKey(), entry.getValue());
+				printRate(out, "Dropped " + entry.getKey() + " Rate", droppedRate, 1, "msgs/s");
+			}
+		}
+
+		/**
+		 * @return ReadStage for request/ReadStage
+		 */
+		private static String name(String pool) {
+			return pool.substring(pool.indexOf('/') + 1);
+		}
+
+		private static boolean isBusy(Map<String, Object> metrics) {
+			for (String metric : new String[] { "ActiveTasks", "PendingTasks", "CurrentlyBlockedTasks" }) {
+				Object value = metrics.get(metric);
+				if (value instanceof Number && ((Number) value).longValue() > 0)
+					return true;
+			}
+			return false;
+		}
+
+		private static void printIfPresent(MetricPrinter out, String label, Object value) {
+			if (value != null)
+				out.print(label, value);
+		}
+	}
+
+	@Command(name = "jvm", description = "Print heap usage and garbage collections, with GC time, collection and allocation rates in watch mode")
+	public static class Jvm extends CassMonCmd {
+
+		/** collectors counting concurrent cycles, which leave eden alone */
+		private static final Set<String> CONCURRENT_COLLECTORS = ImmutableSet.of("ConcurrentMarkSweep", "G1 Concurrent GC");
+
+		@Option(name = {"-m", "--pools"}, description = "Usage of every memory pool")
+		private boolean pools = false;
+
+		@Option(name = {"-n", "--notifications"}, description = "Subscribe to GC notifications and print every collection since the previous sample, in watch mode")
+		private boolean notifications = false;
+
+		private final AllocationSampler allocations = new AllocationSampler();
+		private final Map<JmxConnect, Subscription> collections = new ConcurrentHashMap<JmxConnect, Subscription>();
+
+		/**
+		 * GC notifications of a node, queued until its next sample.
+		 */
+		private static class Subscription implements NotificationListener {
+			private final Queue<GarbageCollectionNotificationInfo> notified = new ConcurrentLinkedQueue<GarbageCollectionNotificationInfo>();
+			private List<ObjectName> collectors;
+
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				notified.add(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+			}
+		}
+
+		@Override
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			long nanoTime = System.nanoTime();
+			Map<String, MemoryUsage> memory = jmxConnect.getMemory();
+			Map<String, MemoryUsage> memoryPools = jmxConnect.getMemoryPools();
+			Map<String, Map<String, Object>> collectors = jmxConnect.getGarbageCollectors();
+
+			MemoryUsage heap = memory.get("HeapMemoryUsage");
+			if (heap != null) {
+				printBytes(out, "Heap Used", heap.getUsed());
+				printBytes(out, "Heap Committed", heap.getCommitted());
+				printBytes(out, "Heap Max", heap.getMax());
+			}
+			MemoryUsage nonHeap = memory.get("NonHeapMemoryUsage");
+			if (nonHeap != null)
+				printBytes(out, "Non-Heap Used", nonHeap.getUsed());
+
+			if (pools)
+				for (Map.Entry<String, MemoryUsage> entry : memoryPools.entrySet()) {
+					printBytes(out, entry.getKey() + " Used", entry.getValue().getUsed());
+					printBytes(out, entry.getKey() + " Max", entry.getValue().getMax());
+				}
+
+			String eden = null;
+			for (String pool : memoryPools.keySet())
+				if (pool.contains("Eden"))
+					eden = pool;
+
+			double gcTime = 0;
+			boolean rated = false;
+			long edenCollections = 0;
+			for (Map.Entry<String, Map<String, Object>> entry : collectors.entrySet()) {
+				String collector = entry.getKey();
+				Object count = entry.getValue().get("CollectionCount");
+				Object time = entry.getValue().get("CollectionTime");
+				out.print(collector + " Collections", count);
+				out.print(collector + " Collection Time", time, time + " ms");
+
+				RateSampler.Rate countRate = rate(jmxConnect, "GarbageCollector/" + collector + "/Count", count);
+				printRate(out, collector + " Collections Rate", countRate, 1, "collections/s");
+				RateSampler.Rate timeRate = rate(jmxConnect, "GarbageCollector/" + collector + "/Time", time);
+				if (timeRate != null) {
+					double fraction = timeRate.getPerSecond() / 1000;
+					out.print(collector + " Time Fraction", fraction, format("%.2f%%", fraction * 100));
+					gcTime += fraction;
+					rated = true;
+				}
+
+				String[] collected = (String[]) entry.getValue().get("MemoryPoolNames");
+				if (eden != null && count instanceof Number && collected != null && Arrays.asList(collected).contains(eden)
+						&& !CONCURRENT_COLLECTORS.contains(collector))
+					edenCollections += ((Number) count).longValue();
+			}
+			if (rated)
+				out.print("GC Time Fraction", gcTime, format("%.2f%%", gcTime * 100));
+
+			if (eden != null) {
+				MemoryUsage usage = memoryPools.get(eden);
+				double allocationRate = allocations.update(jmxConnect.host + ":" + jmxConnect.port, usage.getUsed(),
+						usage.getCommitted(), edenCollections, nanoTime);
+				if (allocationRate >= 0)
+					out.print("Allocation Rate", allocationRate,
+							format("%.2f MB/s", allocationRate / (1024 * 1024)));
+			}
+
+			if (notifications)
+				printCollections(jmxConnect, out);
+		}
+
+		/**
+		 * Prints the collections notified since the previous sample of the
+		 * node. The first sample subscribes, so it has none.
+		 */
+		private void printCollections(JmxConnect jmxConnect, MetricPrinter out) {
+			Subscription subscription = collections.get(jmxConnect);
+			if (subscription == null) {
+				subscription = new Subscription();
+				collections.put(jmxConnect, subscription);
+				subscription.collectors = jmxConnect.addGarbageCollectionListener(subscription);
+				return;
+			}
+
+			long max = 0;
+			int count = 0;
+			for (GarbageCollectionNotificationInfo info; (info = subscription.notified.poll()) != null; count++) {
+				long duration = info.getGcInfo().getDuration();
+				max = Math.max(max, duration);
+				long freed = 0;
+				for (Map.Entry<String, MemoryUsage> before : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+					MemoryUsage after = info.getGcInfo().getMemoryUsageAfterGc().get(before.getKey());
+					if (after != null)
+						freed += before.getValue().getUsed() - after.getUsed();
+				}
+				out.print(format("GC %s #%d", info.getGcName(), info.getGcInfo().getId()), duration,
+						format("%d ms, %s, %s freed", duration, info.getGcCause(), FileUtils.stringifyFileSize(freed)));
+			}
+			out.print("GC Notified", count);
+			out.print("GC Longest", max, max + " ms");
+		}
+
+		/**
+		 * Unsubscribes from the GC notifications of the node once the command
+		 * is done with it, so a pooled connection does not keep feeding them.
+		 */
+		@Override
+		protected void release(JmxConnect jmxConnect, boolean broken) {
+			Subscription subscription = collections.remove(jmxConnect);
+			if (subscription != null && subscription.collectors != null && !broken) {
+				try {
+					jmxConnect.unsubscribe(subscription.collectors, subscription);
+				} catch (RuntimeException e) {
+					broken = true;
+				}
+			}
+			super.release(jmxConnect, broken);
+		}
+
+		private static void printBytes(MetricPrinter out, String label, long bytes) {
+			// max is -1 when undefined
+			if (bytes >= 0)
+				out.print(label, bytes, FileUtils.stringifyFileSize(bytes));
+		}
+	}
+
 	@Command(name = "os", description = "Prints information about Operating System metrics")
 	public static class OSMetrics extends CassMonCmd {
 
@@ -244,58 +1516,791 @@ public class App {
 		@Option(name = {"-f", "--filedescriptor"}, description = "Open/Max File descriptors")
 		private boolean filedescriptor = false;
 		
+		/** numeric metrics, read through a plan built once for every node */
+		private static final String[] NUMERIC = { "ProcessCpuLoad", "SystemCpuLoad", "AvailableProcessors",
+				"SystemLoadAverage", "ProcessCpuTime", "FreePhysicalMemorySize", "TotalPhysicalMemorySize",
+				"FreeSwapSpaceSize", "TotalSwapSpaceSize", "MaxFileDescriptorCount", "OpenFileDescriptorCount" };
+		private static final ReadPlan PLAN;
+		static {
+			ReadPlan.Builder plan = ReadPlan.builder();
+			for (String metric : NUMERIC)
+				plan.add(MetricCatalog.operatingSystem(metric));
+			PLAN = plan.build();
+		}
+
 		@Override
-		protected void execute(JmxConnect jmxConnect) {
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			boolean numeric = cpuload || sysload || processors || sysavgload || processcputime || memory || filedescriptor;
+			ReadBuffers read = buffers(jmxConnect, PLAN);
+			if (numeric)
+				read.read(jmxConnect);
+			long[] longs = read.getLongs();
+			double[] doubles = read.getDoubles();
+
+			List<String> textNames = newArrayList();
+			if (arch)
+				textNames.add("Arch");
+			if (version)
+				textNames.add("Version");
+			if (name)
+				textNames.add("Name");
+			Map<String, Object> text = textNames.isEmpty() ? Collections.<String, Object> emptyMap()
+					: jmxConnect.getOperatingSystemMetrics(toArray(textNames, String.class));
+
 			if (cpuload) {
-				System.out.println("Cpu Load: " + jmxConnect.getOperatingSystemMetric("ProcessCpuLoad"));
+				printDouble(out, "Cpu Load", doubles[id("ProcessCpuLoad")]);
 			}
 			
 			if (sysload) {
-				System.out.println("System Load: " + jmxConnect.getOperatingSystemMetric("SystemCpuLoad"));
+				printDouble(out, "System Load", doubles[id("SystemCpuLoad")]);
 			}
 			
 			if(processors) {
-				System.out.println("Processors: " + jmxConnect.getOperatingSystemMetric("AvailableProcessors"));
+				printLong(out, "Processors", longs[id("AvailableProcessors")]);
 			}
 			
 			if(arch) {
-				System.out.println("OS Architechture: " + jmxConnect.getOperatingSystemMetric("Arch"));
+				out.print("OS Architechture", text.get("Arch"));
 			}
 			
 			if(sysavgload) {
-				System.out.println("System Avg. Load: " + jmxConnect.getOperatingSystemMetric("SystemLoadAverage"));
+				printDouble(out, "System Avg. Load", doubles[id("SystemLoadAverage")]);
 			}
 			
 			if(version) {
-				System.out.println("OS Version: " + jmxConnect.getOperatingSystemMetric("Version"));
+				out.print("OS Version", text.get("Version"));
 			}
 			
 			if(name) {
-				System.out.println("OS Name: " + jmxConnect.getOperatingSystemMetric("Name"));
+				out.print("OS Name", text.get("Name"));
 			}
 			
 			if(processcputime) {
-				long processTime = (long) jmxConnect.getOperatingSystemMetric("ProcessCpuTime");
-				processTime = processTime > 0 ? processTime / 1000000 : Long.MIN_VALUE;
-				System.out.println("Process cpu time: " + processTime + " ms");
+				long processTime = longs[id("ProcessCpuTime")];
+				if (ReadPlan.isMissing(processTime))
+					out.print("Process cpu time", null, "n/a");
+				else {
+					processTime = processTime > 0 ? processTime / 1000000 : Long.MIN_VALUE;
+					out.print("Process cpu time", processTime, processTime + " ms");
+				}
 			}
 			
 			if(memory) {
-				System.out.println("System memory(Free/Total): " + format((long) jmxConnect.getOperatingSystemMetric("FreePhysicalMemorySize"), true) + "/" 
-									+ format((long) jmxConnect.getOperatingSystemMetric("TotalPhysicalMemorySize"), true));
+				String systemMemory = format(longs[id("FreePhysicalMemorySize")], true) + "/" 
+									+ format(longs[id("TotalPhysicalMemorySize")], true);
+				out.print("System memory(Free/Total)", systemMemory);
 				
-				System.out.println("Swap Memory(Free/Total): " + format((long) jmxConnect.getOperatingSystemMetric("FreeSwapSpaceSize"), true) + "/" 
-				+ format((long) jmxConnect.getOperatingSystemMetric("TotalSwapSpaceSize"), true));
+				String swapMemory = format(longs[id("FreeSwapSpaceSize")], true) + "/" 
+				+ format(longs[id("TotalSwapSpaceSize")], true);
+				out.print("Swap Memory(Free/Total)", swapMemory);
 			}
 			
 			if(filedescriptor) {
-				System.out.println("File Descriptors(Open/Max): " + jmxConnect.getOperatingSystemMetric("MaxFileDescriptorCount") + "/" 
-						+ jmxConnect.getOperatingSystemMetric("OpenFileDescriptorCount"));
+				out.print("File Descriptors(Open/Max)", format(longs[id("MaxFileDescriptorCount")], false) + "/" 
+						+ format(longs[id("OpenFileDescriptorCount")], false));
 			}
 		}
+
+		private static int id(String metric) {
+			for (int i = 0; i < NUMERIC.length; i++)
+				if (NUMERIC[i].equals(metric))
+					return i;
+			throw new IllegalArgumentException(metric);
+		}
+
+		private static void printDouble(MetricPrinter out, String label, double value) {
+			if (Double.isNaN(value))
+				out.print(label, null, "n/a");
+			else
+				out.print(label, value);
+		}
+
+		private static void printLong(MetricPrinter out, String label, long value) {
+			if (ReadPlan.isMissing(value))
+				out.print(label, null, "n/a");
+			else
+				out.print(label, value);
+		}
 		
 		private static String format(long bytes, boolean humanReadable) {
+			if (ReadPlan.isMissing(bytes))
+				return "n/a";
 			return humanReadable ? FileUtils.stringifyFileSize(bytes) : Long.toString(bytes);
 		}
 	}
-}
\ No newline at end of file
+
+	@Command(name = "serve", description = "Serve metrics in Prometheus text format over HTTP until interrupted")
+	public static class Serve extends CassMonCmd {
+
+		@Option(name = {"-l", "--listen"}, description = "Address to serve /metrics on, host:port")
+		private String listen = "127.0.0.1:9500";
+
+		@Option(name = {"-r", "--refresh"}, description = "Seconds between metric refreshes")
+		private String refresh = "15";
+
+		@Option(name = {"-t", "--table"}, description = "keyspace.table to export table metrics for, may be repeated, defaults to every table on the node")
+		private List<String> tables = newArrayList();
+
+		@Override
+		void checkForwarded() {
+			throw new IllegalArgumentException("serve cannot run in the daemon");
+		}
+
+		@Override
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			List<String[]> keyspaceTables = newArrayList();
+			for (String table : tables) {
+				int dot = table.indexOf('.');
+				if (dot <= 0 || dot == table.length() - 1)
+					throw new IllegalArgumentException("Expected keyspace.table but got '" + table + "'");
+				keyspaceTables.add(new String[] { table.substring(0, dot), table.substring(dot + 1) });
+			}
+
+			HostAndPort address = HostAndPort.fromString(listen).withDefaultPort(9500);
+			PrometheusExporter exporter = new PrometheusExporter(jmxConnect, keyspaceTables);
+			try {
+				exporter.start(new InetSocketAddress(address.getHostText(), address.getPort()),
+						(long) (parseDouble(refresh) * 1000));
+				out.print("Serving metrics on", "http://" + address + "/metrics");
+				new CountDownLatch(1).await();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				exporter.close();
+			}
+		}
+	}
+
+	@Command(name = "scan", description = "Read a few metrics from every node given with --hosts or --hosts-file, printing each node as it answers")
+	public static class Scan extends CassMonCmd {
+		@Option(name = {"-m", "--metric"}, description = "Metric to read as Type.Name, e.g. Compaction.PendingTasks, may be repeated")
+		private List<String> metrics = newArrayList("Storage.Load", "Compaction.PendingTasks", "Client.connectedNativeClients");
+
+		@Option(name = {"--handshakes"}, description = "Maximum number of nodes being connected to at once")
+		private String handshakes = "64";
+
+		@Option(name = {"--node-timeout"}, description = "Seconds to wait for each node to connect, and then to answer, unless --deadline is given")
+		private String nodeTimeout = "10";
+
+		private Map<String, List<MBeanAttribute>> attributes;
+
+		/**
+		 * Scans the nodes on connections of their own, once or every
+		 * --interval, recording what they answer like every other command.
+		 */
+		@Override
+		protected void runOn(List<String> nodes) {
+			if (nodes.isEmpty())
+				nodes = Collections.singletonList(host());
+			final List<String> scanned = nodes;
+			attributes(); // fail on a bad --metric before connecting
+			long timeoutNanos = deadlineNanos() > 0 ? deadlineNanos() : (long) (parseDouble(nodeTimeout) * 1e9);
+			final ClusterScanner scanner = new ClusterScanner(AsyncJmxConnect.defaultExecutor(), parseInt(handshakes),
+					timeoutNanos, NANOSECONDS, connectTimeoutMillis(), readTimeoutMillis());
+			final MetricPrinter records = isTable() ? null : printer();
+
+			sample(new Runnable() {
+				@Override
+				public void run() {
+					scan(scanner, scanned, records);
+				}
+			});
+			if (records != null)
+				records.close();
+		}
+
+		private void scan(ClusterScanner scanner, List<String> nodes, final MetricPrinter records) {
+			final PrintStream out = stdout();
+			final long now = System.currentTimeMillis();
+			final int[] failed = new int[1];
+			long start = System.nanoTime();
+			try {
+				scanner.scan(nodes, port(), username(), password(), new ClusterScanner.Probe<Map<String, Object>>() {
+					@Override
+					public Map<String, Object> read(JmxConnect jmxConnect) {
+						return Scan.this.read(jmxConnect);
+					}
+				}, new ClusterScanner.Listener<Map<String, Object>>() {
+					@Override
+					public void result(String node, Map<String, Object> values) {
+						String recorded = HostAndPort.fromParts(node, port()).toString();
+						if (records != null) {
+							records.begin(node, now);
+							print(record(recorded, now, records), values);
+							records.end();
+							return;
+						}
+						final StringBuilder line = new StringBuilder(node);
+						print(record(recorded, now, new MetricPrinter() {
+							@Override
+							public void print(String label, Object value, String text) {
+								line.append(' ').append(label).append('=').append(value);
+							}
+						}), values);
+						out.println(line);
+					}
+
+					@Override
+					public void failed(String node, Throwable error) {
+						failed[0]++;
+						Throwable cause = Throwables.getRootCause(error);
+						String message = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+						if (records != null) {
+							records.begin(node, now);
+							records.print("error", message);
+							records.end();
+							return;
+						}
+						out.println(node + " failed: " + message);
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while scanning", e);
+			}
+			if (records == null)
+				out.println(format("Scanned %d nodes in %.1f s, %d failed", nodes.size(),
+						(System.nanoTime() - start) / 1e9, failed[0]));
+		}
+
+		/**
+		 * Not used, {@link #runOn(List)} reads every node through the scanner.
+		 */
+		@Override
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			throw new UnsupportedOperationException("scan reads the nodes through its scanner");
+		}
+
+		private Map<String, Object> read(JmxConnect jmxConnect) {
+			Map<String, List<MBeanAttribute>> attributes = attributes();
+			List<MBeanAttribute> all = newArrayList();
+			for (List<MBeanAttribute> metric : attributes.values())
+				all.addAll(metric);
+			Map<MBeanAttribute, Object> read = jmxConnect.getAttributes(all);
+
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, List<MBeanAttribute>> metric : attributes.entrySet()) {
+				Object value = read.get(metric.getValue().get(0));
+				if (value == null && metric.getValue().size() > 1)
+					value = read.get(metric.getValue().get(1));
+				values.put(metric.getKey(), value);
+			}
+			return values;
+		}
+
+		private static void print(MetricPrinter out, Map<String, Object> values) {
+			for (Map.Entry<String, Object> value : values.entrySet())
+				out.print(value.getKey(), value.getValue());
+		}
+
+		/**
+		 * Attributes to read for every --metric, resolved once.
+		 */
+		private synchronized Map<String, List<MBeanAttribute>> attributes() {
+			if (attributes != null)
+				return attributes;
+			attributes = new LinkedHashMap<String, List<MBeanAttribute>>();
+			for (String metric : metrics) {
+				Metric known = MetricCatalog.find(metric);
+				if (known != null && !known.isTableMetric()) {
+					attributes.put(metric, newArrayList(new MBeanAttribute(known.getObjectName(), known.getAttribute())));
+					continue;
+				}
+				int dot = metric.indexOf('.');
+				if (dot <= 0 || dot == metric.length() - 1)
+					throw new IllegalArgumentException("Expected Type.Name but got '" + metric + "'");
+				ObjectName name = objectName(Metric.DOMAIN + ":type=" + metric.substring(0, dot) + ",name="
+						+ metric.substring(dot + 1));
+				// not in the catalog: gauges have a Value, counters and meters a Count; absent attributes are left out of the reply
+				attributes.put(metric, newArrayList(new MBeanAttribute(name, "Value"), new MBeanAttribute(name, "Count")));
+			}
+			return attributes;
+		}
+
+		private static ObjectName objectName(String name) {
+			try {
+				return new ObjectName(name);
+			} catch (MalformedObjectNameException e) {
+				throw new IllegalArgumentException("Invalid metric " + name, e);
+			}
+		}
+	}
+
+	@Command(name = "toptables", description = "Rank the tables of the node, or of every node given with --hosts, by operation rate, latency or SSTables per read, refreshing like top")
+	public static class TopTables extends CassMonCmd {
+		private static final long DEFAULT_INTERVAL = SECONDS.toNanos(5);
+		/** cursor home, then erase the screen */
+		private static final String CLEAR_SCREEN = "\033[H\033[2J";
+		/** the values of the nodes only go to the recorders, the output is the ranking */
+		private static final MetricPrinter UNPRINTED = new MetricPrinter() {
+			@Override
+			public void print(String label, Object value, String text) {
+			}
+		};
+
+		@Option(name = {"-s", "--sort"}, description = "Rank by ops (reads and writes per second), reads, writes, p99 (worst read or write 99th percentile) or sstables (SSTables per read 99th percentile)")
+		private String sort = "ops";
+
+		@Option(name = {"-n", "--limit"}, description = "Number of tables to show")
+		private String limit = "20";
+
+		private final TableRanking ranking = new TableRanking();
+
+		/**
+		 * Samples every 5 seconds unless an interval is given.
+		 */
+		@Override
+		protected long intervalNanos() {
+			return super.intervalNanos() > 0 ? super.intervalNanos() : DEFAULT_INTERVAL;
+		}
+
+		/**
+		 * A ranking needs two samples, --count counts rankings.
+		 */
+		@Override
+		protected int count() {
+			return super.count() > 0 ? super.count() + 1 : 0;
+		}
+
+		@Override
+		protected void runOn(List<String> nodes) {
+			if (nodes.isEmpty())
+				nodes = Collections.singletonList(host());
+			ranking.top(sort, 0); // fail on a bad --sort before connecting
+			final List<String> sampled = nodes;
+			final ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads(), nodes.size()));
+			final Map<String, JmxConnect> connections = new ConcurrentHashMap<String, JmxConnect>();
+			final Set<String> failed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			final MetricPrinter records = isTable() ? null : printer();
+
+			if (isTable())
+				stdout().println(format("Sampling %d node(s) every %.1f s...", nodes.size(), intervalNanos() / 1e9));
+			try {
+				sample(new Runnable() {
+					private boolean first = true;
+
+					@Override
+					public void run() {
+						ranking.clear();
+						failed.clear();
+						List<Future<?>> running = newArrayList();
+						for (final String node : sampled) {
+							running.add(pool.submit(new Runnable() {
+								@Override
+								public void run() {
+									read(node, connections, failed);
+								}
+							}));
+						}
+						for (Future<?> future : running)
+							Futures.getUnchecked(future);
+
+						if (first) {
+							first = false;
+							return;
+						}
+						if (records != null)
+							print(records, ranking.top(sort, parseInt(limit)));
+						else
+							print(sampled.size() - failed.size(), sampled.size());
+					}
+				});
+				if (records != null)
+					records.close();
+			} finally {
+				pool.shutdownNow();
+				for (JmxConnect jmxConnect : connections.values())
+					release(jmxConnect, false);
+			}
+		}
+
+		/**
+		 * Reads every table of a node, connecting on first use and again after
+		 * a failure.
+		 */
+		private void read(String node, Map<String, JmxConnect> connections, Set<String> failed) {
+			JmxConnect jmxConnect = connections.get(node);
+			try {
+				if (jmxConnect == null) {
+					jmxConnect = connect(node);
+					connections.put(node, jmxConnect);
+				}
+				execute(jmxConnect, record(jmxConnect, System.currentTimeMillis(), UNPRINTED));
+			} catch (IOException e) {
+				failed.add(node);
+			} catch (RuntimeException e) {
+				failed.add(node);
+				if (jmxConnect != null) {
+					connections.remove(node);
+					release(jmxConnect, true);
+				}
+			}
+		}
+
+		/**
+		 * Adds the node to the ranking of the current sample, and prints the
+		 * count and distributions of every table like tablestats does.
+		 */
+		@Override
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			List<String[]> tables = jmxConnect.getColumnFamilies(null);
+			List<Map<String, Distribution>> distributions = jmxConnect.getColumnFamilyDistributions(tables,
+					TableRanking.METRICS);
+			ranking.add(jmxConnect.host, tables, distributions, System.nanoTime());
+
+			for (int i = 0; i < tables.size(); i++) {
+				String prefix = tables.get(i)[0] + "." + tables.get(i)[1] + " ";
+				Distribution reads = distributions.get(i).get("ReadLatency");
+				if (reads != null) {
+					out.print(prefix + "Read Count", reads.getCount());
+					TableCmd.printDistribution(out, prefix + "Read Latency", reads);
+				}
+				Distribution writes = distributions.get(i).get("WriteLatency");
+				if (writes != null) {
+					out.print(prefix + "Write Count", writes.getCount());
+					TableCmd.printDistribution(out, prefix + "Write Latency", writes);
+				}
+				Distribution sstables = distributions.get(i).get("SSTablesPerReadHistogram");
+				if (sstables != null)
+					TableCmd.printDistribution(out, prefix + "SSTables Per Read", sstables);
+			}
+		}
+
+		/**
+		 * Prints a frame, over the previous one when the output is a terminal
+		 * like top does, after it otherwise so that the output can be logged.
+		 */
+		private void print(int answering, int nodes) {
+			PrintStream out = stdout();
+			if (out == System.out && System.console() != null)
+				out.print(CLEAR_SCREEN);
+			out.println(format("cassmon toptables - %d/%d nodes, %d tables, by %s, %tT", answering, nodes,
+					ranking.size(), sort, new Date()));
+			out.println();
+			out.println(format("%-40s %10s %10s %12s %12s %10s", "TABLE", "READS/S", "WRITES/S", "READ P99 ms",
+					"WRITE P99 ms", "SST/READ"));
+			for (TableRanking.Row row : ranking.top(sort, parseInt(limit)))
+				out.println(format("%-40s %10.1f %10.1f %12.2f %12.2f %10.0f", row.getTable(), row.getReads(),
+						row.getWrites(), row.getReadP99(), row.getWriteP99(), row.getSstablesP99()));
+			out.flush();
+		}
+
+		private static void print(MetricPrinter out, List<TableRanking.Row> rows) {
+			long now = System.currentTimeMillis();
+			for (TableRanking.Row row : rows) {
+				out.begin("cluster", now);
+				out.print("Table", row.getTable());
+				out.print("Reads/s", row.getReads());
+				out.print("Writes/s", row.getWrites());
+				out.print("Read p99 ms", row.getReadP99());
+				out.print("Write p99 ms", row.getWriteP99());
+				out.print("SSTables per read p99", row.getSstablesP99());
+				out.end();
+			}
+		}
+	}
+
+	@Command(name = "events", description = "Print GC, repair and compaction notifications as the node, or every node given with --hosts, pushes them, until interrupted")
+	public static class Events extends CassMonCmd {
+		private static final Map<String, String> SOURCES = ImmutableMap.of(
+				"gc", "java.lang:type=GarbageCollector,*",
+				"repair", "org.apache.cassandra.db:type=StorageService",
+				"compaction", "org.apache.cassandra.db:type=CompactionManager");
+
+		@Option(name = {"-s", "--source"}, description = "gc, repair, compaction or an MBean name pattern to subscribe to, repeatable, defaults to gc, repair and compaction")
+		private List<String> sources = newArrayList();
+
+		@Option(name = {"-d", "--duration"}, description = "Seconds to print events for, 0 until interrupted")
+		private String duration = "0";
+
+		@Option(name = {"-q", "--queue"}, description = "Events held for the output before further events are dropped")
+		private String queue = "10000";
+
+		@Override
+		protected void runOn(List<String> nodes) {
+			if (intervalNanos() > 0 || count() > 0)
+				throw new IllegalArgumentException("events prints notifications as they come, use --duration instead of --interval and --count");
+			if (nodes.isEmpty())
+				nodes = Collections.singletonList(host());
+			final List<String> patterns = patterns();
+
+			final EventQueue<JmxEvent> events = new EventQueue<JmxEvent>(parseInt(queue));
+			final Map<String, JmxConnect> connections = new LinkedHashMap<String, JmxConnect>();
+			final Map<JmxConnect, List<ObjectName>> subscriptions = new ConcurrentHashMap<JmxConnect, List<ObjectName>>();
+			final Map<String, NotificationListener> listeners = new ConcurrentHashMap<String, NotificationListener>();
+			final AtomicBoolean stopped = new AtomicBoolean();
+			ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads(), nodes.size()));
+			MetricPrinter records = isTable() ? null : printer();
+			try {
+				for (final String node : nodes) {
+					pool.submit(new Runnable() {
+						@Override
+						public void run() {
+							subscribe(node, patterns, events, connections, subscriptions, listeners, stopped);
+						}
+					});
+				}
+				stream(events, records);
+				if (records != null)
+					records.close();
+			} finally {
+				pool.shutdownNow();
+				// connects do not react to interrupts, give them until their socket timeouts
+				try {
+					pool.awaitTermination(connectTimeoutMillis() + readTimeoutMillis(), MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				Map<String, JmxConnect> opened;
+				synchronized (connections) {
+					// a subscription still connecting releases its connection itself
+					stopped.set(true);
+					opened = new LinkedHashMap<String, JmxConnect>(connections);
+				}
+				for (Map.Entry<String, JmxConnect> entry : opened.entrySet()) {
+					JmxConnect jmxConnect = entry.getValue();
+					List<ObjectName> names = subscriptions.get(jmxConnect);
+					boolean broken = false;
+					try {
+						if (names != null)
+							jmxConnect.unsubscribe(names, listeners.get(entry.getKey()));
+					} catch (RuntimeException e) {
+						broken = true;
+					}
+					release(jmxConnect, broken);
+				}
+			}
+		}
+
+		/**
+		 * Not used, {@link #runOn(List)} subscribes to every node and streams
+		 * their events.
+		 */
+		@Override
+		protected void execute(JmxConnect jmxConnect, MetricPrinter out) {
+			throw new UnsupportedOperationException("events streams the nodes from runOn");
+		}
+
+		private List<String> patterns() {
+			List<String> patterns = newArrayList();
+			for (String source : sources.isEmpty() ? SOURCES.keySet() : sources)
+				patterns.add(SOURCES.containsKey(source) ? SOURCES.get(source) : source);
+			return patterns;
+		}
+
+		/**
+		 * Prints the queued events until the --duration ends, the thread is
+		 * interrupted or nobody reads the output anymore.
+		 *
+		 * @param records
+		 *            null for the table output
+		 */
+		private void stream(EventQueue<JmxEvent> events, MetricPrinter records) {
+			long durationNanos = (long) (parseDouble(duration) * SECONDS.toNanos(1));
+			long end = durationNanos > 0 ? System.nanoTime() + durationNanos : Long.MAX_VALUE;
+			long dropped = 0;
+			for (long left; (left = end - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted();) {
+				JmxEvent event = events.poll(Math.min(left, SECONDS.toNanos(1)), NANOSECONDS);
+				if (event != null)
+					print(records, event);
+				if (events.getDropped() > dropped) {
+					warn(format("dropped %d events, the output is not keeping up", events.getDropped() - dropped));
+					dropped = events.getDropped();
+				}
+				if (stdout().checkError())
+					break;
+			}
+		}
+
+		/**
+		 * Connects to a node and subscribes to every pattern, queueing what
+		 * the node pushes. Failures are queued as events too, so they show up
+		 * in order with the rest of the output.
+		 *
+		 * @param stopped
+		 *            set, under the lock of connections, once the command no
+		 *            longer takes new connections
+		 */
+		private void subscribe(String node, List<String> patterns, EventQueue<JmxEvent> events,
+				Map<String, JmxConnect> connections, Map<JmxConnect, List<ObjectName>> subscriptions,
+				Map<String, NotificationListener> listeners, AtomicBoolean stopped) {
+			NotificationListener listener = listener(node, events);
+			try {
+				JmxConnect jmxConnect = connect(node);
+				synchronized (connections) {
+					if (stopped.get()) {
+						release(jmxConnect, false);
+						return;
+					}
+					connections.put(node, jmxConnect);
+				}
+				listeners.put(node, listener);
+				jmxConnect.addConnectionListener(listener);
+				List<ObjectName> subscribed = subscribe(jmxConnect, patterns, listener);
+				subscriptions.put(jmxConnect, subscribed);
+				events.offer(new JmxEvent(node, System.currentTimeMillis(), "cassmon.subscribed", node,
+						format("listening to %d MBean(s)", subscribed.size())));
+			} catch (Exception e) {
+				events.offer(new JmxEvent(node, System.currentTimeMillis(), "cassmon.failed", node,
+						Throwables.getRootCause(e).toString()));
+			}
+		}
+
+		private static List<ObjectName> subscribe(JmxConnect jmxConnect, List<String> patterns,
+				NotificationListener listener) {
+			List<ObjectName> subscribed = newArrayList();
+			for (String pattern : patterns) {
+				NotificationFilterSupport filter = null;
+				if (pattern.equals(SOURCES.get("gc"))) {
+					filter = new NotificationFilterSupport();
+					filter.enableType(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION);
+				}
+				subscribed.addAll(jmxConnect.subscribe(pattern, filter, listener));
+			}
+			return subscribed;
+		}
+
+		private static NotificationListener listener(final String node, final EventQueue<JmxEvent> events) {
+			return new NotificationListener() {
+				@Override
+				public void handleNotification(Notification notification, Object handback) {
+					events.offer(JmxEvent.of(node, notification));
+				}
+			};
+		}
+
+		private void print(MetricPrinter records, JmxEvent event) {
+			if (records == null) {
+				stdout().println(format("%tT %s %s %s: %s", new Date(event.getTimestamp()), event.getNode(),
+						event.getType(), event.getSource(), event.getMessage()));
+				return;
+			}
+			records.begin(event.getNode(), event.getTimestamp());
+			records.print("Type", event.getType());
+			records.print("Source", event.getSource());
+			records.print("Message", event.getMessage());
+			records.end();
+		}
+
+	}
+
+	@Command(name = "daemon", description = "Keep warm JMX connections and run commands sent with --daemon on them until interrupted")
+	public static class Daemon implements Runnable {
+		static final int DEFAULT_PORT = 7299;
+
+		@Option(name = {"-l", "--listen"}, description = "Address of the control socket, host:port")
+		private String listen = "127.0.0.1:" + DEFAULT_PORT;
+
+		@Option(name = {"--max-idle"}, description = "Maximum number of idle connections kept per node")
+		private String maxIdle = "4";
+
+		@Option(name = {"--token-file"}, description = "File to write the token clients must send to, readable by the current user only, defaults to ~/.cassmon/daemon-<port>.token")
+		private String tokenFile = EMPTY;
+
+		@Override
+		public void run() {
+			HostAndPort address = HostAndPort.fromString(listen).withDefaultPort(DEFAULT_PORT);
+			File token = tokenFile.isEmpty() ? tokenFile(address.getPort()) : new File(tokenFile);
+			JmxConnectPool pool = new JmxConnectPool(parseInt(maxIdle));
+			boolean written = false;
+			try {
+				CassMonDaemon daemon = new CassMonDaemon(new InetSocketAddress(address.getHostText(), address.getPort()),
+						parser(), pool);
+				daemon.writeToken(token);
+				written = true;
+				System.out.println("cassmon daemon listening on " + address + ", token in " + token);
+				daemon.serve();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				// the token of a daemon already listening there stays
+				if (written)
+					token.delete();
+				pool.close();
+			}
+		}
+
+		static File tokenFile(int port) {
+			return new File(System.getProperty("user.home"), ".cassmon/daemon-" + port + ".token");
+		}
+	}
+
+	@Command(name = "history", description = "Print the values recorded with --store, or the recorded series when none is given")
+	public static class History implements Runnable {
+
+		@Arguments(title = "store [series]", description = "Store directory and the text the names of the series to print contain, e.g. 'Pending Tasks'")
+		private List<String> arguments = newArrayList();
+
+		@Option(name = {"-f", "--from"}, description = "Start of the range, epoch milliseconds or a duration ago such as 90s, 15m, 6h or 2d")
+		private String from = "1h";
+
+		@Option(name = {"-t", "--to"}, description = "End of the range, epoch milliseconds or a duration ago, defaults to now")
+		private String to = "0s";
+
+		@Override
+		public void run() {
+			if (arguments.isEmpty())
+				throw new IllegalArgumentException("Missing store directory");
+			File directory = new File(arguments.get(0));
+			if (!directory.isDirectory())
+				throw new IllegalArgumentException("No store at " + directory);
+
+			long now = System.currentTimeMillis();
+			long start = time(from, now);
+			long end = time(to, now);
+			final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+			MetricStore metricStore;
+			try {
+				metricStore = MetricStore.openReadOnly(directory);
+			} catch (IOException e) {
+				throw new RuntimeException(format("Cannot read store '%s' - %s", directory, e.getMessage()), e);
+			}
+			try {
+				for (String series : metricStore.series()) {
+					if (arguments.size() == 1) {
+						System.out.println(series);
+						continue;
+					}
+					if (!series.contains(arguments.get(1)))
+						continue;
+					System.out.println("== " + series + " ==");
+					metricStore.read(series, start, end, new MetricStore.PointVisitor() {
+						@Override
+						public void point(long timestamp, double value) {
+							System.out.println(dateFormat.format(new Date(timestamp)) + " " + value);
+						}
+					});
+				}
+			} finally {
+				try {
+					metricStore.close();
+				} catch (IOException e) {
+					// nothing was written
+				}
+			}
+		}
+
+		private static long time(String value, long now) {
+			char unit = value.charAt(value.length() - 1);
+			if (Character.isDigit(unit))
+				return Long.parseLong(value);
+
+			long amount = Long.parseLong(value.substring(0, value.length() - 1));
+			switch (unit) {
+			case 's':
+				return now - SECONDS.toMillis(amount);
+			case 'm':
+				return now - MINUTES.toMillis(amount);
+			case 'h':
+				return now - HOURS.toMillis(amount);
+			case 'd':
+				return now - DAYS.toMillis(amount);
+			default:
+				throw new IllegalArgumentException("Unknown time unit in " + value);
+			}
+		}
+	}
+}
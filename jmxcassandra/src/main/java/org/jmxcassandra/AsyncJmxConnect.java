@@ -0,0 +1,329 @@
+package org.jmxcassandra;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Non-blocking facade over a {@link JmxConnect}: every read runs on an
+ * executor and completes a CompletableFuture, so a caller can fan out to many
+ * nodes without parking one of its own threads on each.
+ * <p>
+ * A future is completed exceptionally with a TimeoutException once its
+ * deadline passes, and cancelling it skips the read if it has not started yet
+ * or interrupts the thread running it. An RMI call blocked on a socket does
+ * not react to interrupts, so the read itself only ends when the socket does;
+ * the future is released right away either way.
+ */
+public class AsyncJmxConnect {
+	private static final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(
+			daemonThreads("cassmon-deadline"));
+	private static volatile Executor defaultExecutor;
+
+	private final JmxConnect jmxConnect;
+	private final Executor executor;
+	private final long timeoutNanos;
+
+	/**
+	 * Runs reads on {@link #defaultExecutor()} without a deadline.
+	 */
+	public AsyncJmxConnect(JmxConnect jmxConnect) {
+		this(jmxConnect, defaultExecutor(), 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param executor
+	 *            runs the blocking JMX calls
+	 * @param timeout
+	 *            deadline of every read, 0 for none
+	 */
+	public AsyncJmxConnect(JmxConnect jmxConnect, Executor executor, long timeout, TimeUnit unit) {
+		this.jmxConnect = jmxConnect;
+		this.executor = executor;
+		this.timeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * @return a facade over the same connection and executor whose reads have
+	 *         the given deadline
+	 */
+	public AsyncJmxConnect withTimeout(long timeout, TimeUnit unit) {
+		return new AsyncJmxConnect(jmxConnect, executor, timeout, unit);
+	}
+
+	public JmxConnect getJmxConnect() {
+		return jmxConnect;
+	}
+
+	/**
+	 * Opens a JmxConnect on the executor. A connection established after the
+	 * deadline or cancellation is closed again.
+	 *
+	 * @param username
+	 *            null or empty to connect without credentials
+	 */
+	public static CompletableFuture<JmxConnect> connect(String host, int port, String username, String password,
+			Executor executor, long timeout, TimeUnit unit) {
+		return connect(host, port, username, password, JmxConnect.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+				JmxConnect.DEFAULT_READ_TIMEOUT_MILLIS, executor, timeout, unit);
+	}
+
+	/**
+	 * Opens a JmxConnect with its own socket timeouts on the executor.
+	 *
+	 * @see JmxConnect#JmxConnect(String, int, String, String, int, int)
+	 */
+	public static CompletableFuture<JmxConnect> connect(final String host, final int port, final String username,
+			final String password, final int connectTimeoutMillis, final int readTimeoutMillis, Executor executor,
+			long timeout, TimeUnit unit) {
+		return call(new Callable<JmxConnect>() {
+			@Override
+			public JmxConnect call() throws IOException {
+				return new JmxConnect(host, port, username, password, connectTimeoutMillis, readTimeoutMillis);
+			}
+		}, executor, timeout, unit);
+	}
+
+	/**
+	 * Runs any read against the connection.
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> read) {
+		return call(read, executor, timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public CompletableFuture<Boolean> isAlive() {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return jmxConnect.isAlive();
+			}
+		});
+	}
+
+	public CompletableFuture<Object> getConnectedClients(final String metricName) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return jmxConnect.getConnectedClients(metricName);
+			}
+		});
+	}
+
+	public CompletableFuture<Object> getColumnFamilyMetric(final String ks, final String cf, final String metricName) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return jmxConnect.getColumnFamilyMetric(ks, cf, metricName);
+			}
+		});
+	}
+
+	public CompletableFuture<List<Map<String, Object>>> getColumnFamilyMetrics(final List<String[]> tables,
+			final String... metricNames) {
+		return submit(new Callable<List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> call() {
+				return jmxConnect.getColumnFamilyMetrics(tables, metricNames);
+			}
+		});
+	}
+
+	public CompletableFuture<List<Map<String, Distribution>>> getColumnFamilyDistributions(final List<String[]> tables,
+			final String... metricNames) {
+		return submit(new Callable<List<Map<String, Distribution>>>() {
+			@Override
+			public List<Map<String, Distribution>> call() {
+				return jmxConnect.getColumnFamilyDistributions(tables, metricNames);
+			}
+		});
+	}
+
+	public CompletableFuture<List<String[]>> getColumnFamilies(final String ks) {
+		return submit(new Callable<List<String[]>>() {
+			@Override
+			public List<String[]> call() {
+				return jmxConnect.getColumnFamilies(ks);
+			}
+		});
+	}
+
+	public CompletableFuture<Object> getCompactionMetric(final String metricName) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return jmxConnect.getCompactionMetric(metricName);
+			}
+		});
+	}
+
+	public CompletableFuture<Long> getStorageMetric(final String metricName) {
+		return submit(new Callable<Long>() {
+			@Override
+			public Long call() {
+				return jmxConnect.getStorageMetric(metricName);
+			}
+		});
+	}
+
+	public CompletableFuture<Object> getOperatingSystemMetric(final String metricName) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return jmxConnect.getOperatingSystemMetric(metricName);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<String, Object>> getOperatingSystemMetrics(final String... metricNames) {
+		return submit(new Callable<Map<String, Object>>() {
+			@Override
+			public Map<String, Object> call() {
+				return jmxConnect.getOperatingSystemMetrics(metricNames);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<MBeanAttribute, Object>> getAttributes(final Collection<MBeanAttribute> attributes) {
+		return submit(new Callable<Map<MBeanAttribute, Object>>() {
+			@Override
+			public Map<MBeanAttribute, Object> call() {
+				return jmxConnect.getAttributes(attributes);
+			}
+		});
+	}
+
+	/**
+	 * Virtual thread per task executor when the JVM has virtual threads,
+	 * otherwise an unbounded pool of daemon threads.
+	 */
+	public static Executor defaultExecutor() {
+		if (defaultExecutor == null) {
+			synchronized (AsyncJmxConnect.class) {
+				if (defaultExecutor == null)
+					defaultExecutor = newExecutor();
+			}
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * @return true when {@link #defaultExecutor()} runs reads on virtual
+	 *         threads
+	 */
+	public static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static ExecutorService newExecutor() {
+		ExecutorService virtual = virtualThreadExecutor();
+		return virtual != null ? virtual : Executors.newCachedThreadPool(daemonThreads("cassmon-jmx"));
+	}
+
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Runs any blocking call on the executor, with the deadline and
+	 * cancellation handling of the reads.
+	 *
+	 * @param timeout
+	 *            deadline of the call, 0 for none
+	 */
+	public static <T> CompletableFuture<T> call(final Callable<T> read, Executor executor, long timeout,
+			TimeUnit unit) {
+		final long timeoutNanos = unit.toNanos(timeout);
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				if (result.isDone())
+					return;
+				runner.set(Thread.currentThread());
+				try {
+					T value = read.call();
+					if (!result.complete(value) && value instanceof AutoCloseable)
+						((AutoCloseable) value).close();
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				} finally {
+					synchronized (runner) {
+						runner.set(null);
+						// clear an interrupt aimed at this read before the thread is reused
+						Thread.interrupted();
+					}
+				}
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+			return result;
+		}
+
+		final ScheduledFuture<?> deadline = timeoutNanos <= 0 ? null : deadlines.schedule(new Runnable() {
+			@Override
+			public void run() {
+				result.completeExceptionally(new TimeoutException("JMX read did not complete in "
+						+ TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms"));
+			}
+		}, timeoutNanos, TimeUnit.NANOSECONDS);
+
+		result.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T value, Throwable error) {
+				if (deadline != null)
+					deadline.cancel(false);
+				if (error == null)
+					return;
+				synchronized (runner) {
+					Thread thread = runner.get();
+					if (thread != null)
+						thread.interrupt();
+				}
+			}
+		});
+		return result;
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,38 @@
+package org.jmxcassandra;
+
+/**
+ * Reads back what {@link BitWriter} wrote.
+ */
+final class BitReader {
+	private final byte[] bytes;
+	private int position;
+
+	BitReader(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return the next n bits as an unsigned value
+	 */
+	long read(int n) {
+		long value = 0;
+		for (int i = 0; i < n; i++) {
+			int bit = (bytes[position >>> 3] >>> (7 - (position & 7))) & 1;
+			value = (value << 1) | bit;
+			position++;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the next n bits as a two's complement value
+	 */
+	long readSigned(int n) {
+		long value = read(n);
+		return n == 64 ? value : (value << (64 - n)) >> (64 - n);
+	}
+
+	boolean readBit() {
+		return read(1) == 1;
+	}
+}
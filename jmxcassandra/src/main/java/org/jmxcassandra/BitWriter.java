@@ -0,0 +1,46 @@
+package org.jmxcassandra;
+
+import java.util.Arrays;
+
+/**
+ * Growable big-endian bit buffer used by the time-series block encoder.
+ */
+final class BitWriter {
+	private long[] words = new long[8];
+	private int bits;
+
+	/**
+	 * Appends the low n bits of value, most significant first.
+	 */
+	void write(long value, int n) {
+		if (n == 0)
+			return;
+		if (n < 64)
+			value &= (1L << n) - 1;
+
+		int word = bits >>> 6;
+		int used = bits & 63;
+		if (word + 1 >= words.length)
+			words = Arrays.copyOf(words, words.length * 2);
+
+		int free = 64 - used;
+		if (n <= free) {
+			words[word] |= value << (free - n);
+		} else {
+			words[word] |= value >>> (n - free);
+			words[word + 1] |= value << (64 - (n - free));
+		}
+		bits += n;
+	}
+
+	int size() {
+		return bits;
+	}
+
+	byte[] toByteArray() {
+		byte[] bytes = new byte[(bits + 7) >>> 3];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3)));
+		return bytes;
+	}
+}
@@ -0,0 +1,300 @@
+package org.jmxcassandra;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jmxcassandra.App.CassMonCmd;
+
+import com.google.common.io.BaseEncoding;
+
+import io.airlift.airline.Cli;
+
+/**
+ * Local control socket through which cassmon invocations run their command on
+ * the daemon's pooled JMX connections instead of dialing the node themselves.
+ * <p>
+ * A request is the daemon's token, the argument count and every argument, as
+ * modified UTF-8. The reply is a sequence of output frames ('O', length,
+ * bytes) ended by an exit frame ('X', status). The token is random per daemon
+ * and kept in a file only its owner can read, so only the daemon's user can
+ * send it commands; those commands cannot make the daemon touch files or
+ * connect anywhere but to the nodes.
+ */
+public class CassMonDaemon implements AutoCloseable {
+	private static final int OUTPUT = 'O';
+	private static final int EXIT = 'X';
+	public static final int MAX_CLIENTS = 32;
+	public static final int MAX_ARGUMENTS = 256;
+	public static final int MAX_ARGUMENT_BYTES = 8192;
+	/** time a client gets to send its request */
+	static final int REQUEST_TIMEOUT_MILLIS = 10000;
+
+	private final Cli<Runnable> parser;
+	private final JmxConnectPool pool;
+	private final ServerSocket serverSocket;
+	private final String token;
+	private final ThreadPoolExecutor workers = new ThreadPoolExecutor(0, MAX_CLIENTS, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>());
+
+	public CassMonDaemon(InetSocketAddress address, Cli<Runnable> parser, JmxConnectPool pool) throws IOException {
+		this.parser = parser;
+		this.pool = pool;
+		byte[] random = new byte[32];
+		new SecureRandom().nextBytes(random);
+		this.token = BaseEncoding.base16().lowerCase().encode(random);
+		this.serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(address);
+	}
+
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	/**
+	 * @return what clients must send first, see {@link #writeToken(File)}
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Writes the token to a file only the current user can read, replacing
+	 * any previous one.
+	 */
+	public void writeToken(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+		Path path = file.toPath();
+		Files.deleteIfExists(path);
+		try {
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			// not a POSIX file system
+			Files.createFile(path);
+			file.setReadable(false, false);
+			file.setWritable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(true, true);
+		}
+		Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static String readToken(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Accepts requests until the daemon is closed.
+	 */
+	public void serve() {
+		while (!serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if (serverSocket.isClosed())
+					return;
+				continue;
+			}
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						handle(socket);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				refuse(socket, "cassmon: the daemon is busy with " + MAX_CLIENTS + " other commands");
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		workers.shutdownNow();
+	}
+
+	private void handle(Socket socket) {
+		try {
+			socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			PrintStream out = new PrintStream(new FramedOutputStream(reply), true, "UTF-8");
+
+			int status;
+			if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+					readString(in).getBytes(StandardCharsets.UTF_8))) {
+				out.println("cassmon: wrong daemon token");
+				status = 1;
+			} else {
+				int count = in.readInt();
+				if (count < 0 || count > MAX_ARGUMENTS) {
+					out.println("cassmon: at most " + MAX_ARGUMENTS + " arguments can be sent to the daemon");
+					status = 1;
+				} else {
+					String[] args = new String[count];
+					for (int i = 0; i < args.length; i++)
+						args[i] = readString(in);
+					status = execute(args, out);
+				}
+			}
+			out.flush();
+			reply.writeByte(EXIT);
+			reply.writeInt(status);
+			reply.flush();
+		} catch (IOException e) {
+			// client went away, too slow or too long
+		} finally {
+			closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * Reads a modified UTF-8 string, rejecting it before it is read when it
+	 * is longer than {@link #MAX_ARGUMENT_BYTES}.
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		in.mark(2);
+		int length = in.readUnsignedShort();
+		if (length > MAX_ARGUMENT_BYTES)
+			throw new IOException("argument of " + length + " bytes");
+		in.reset();
+		return in.readUTF();
+	}
+
+	private int execute(String[] args, PrintStream out) {
+		try {
+			Runnable command = parser.parse(args);
+			if (!(command instanceof CassMonCmd)) {
+				out.println("cassmon: only node commands can run in the daemon");
+				return 1;
+			}
+			((CassMonCmd) command).runIn(pool, out);
+			return 0;
+		} catch (Exception e) {
+			out.println("cassmon: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	private static void refuse(Socket socket, String message) {
+		try {
+			DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+			reply.writeByte(OUTPUT);
+			reply.writeInt(bytes.length);
+			reply.write(bytes);
+			reply.writeByte(EXIT);
+			reply.writeInt(1);
+			reply.flush();
+		} catch (IOException e) {
+			// client went away
+		} finally {
+			closeQuietly(socket);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing left to do with this client
+		}
+	}
+
+	/**
+	 * Sends the arguments to a daemon and copies its output to out.
+	 *
+	 * @param token
+	 *            token of the daemon, see {@link #readToken(File)}
+	 * @return the exit status of the command
+	 */
+	public static int forward(InetSocketAddress daemon, String token, String[] args, OutputStream out)
+			throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(daemon);
+			DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			request.writeUTF(token);
+			request.writeInt(args.length);
+			for (String arg : args)
+				request.writeUTF(arg);
+			request.flush();
+
+			DataInputStream reply = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			byte[] buffer = new byte[8192];
+			while (true) {
+				int type = reply.read();
+				if (type == EXIT)
+					return reply.readInt();
+				if (type != OUTPUT)
+					throw new EOFException("daemon closed the connection");
+
+				int length = reply.readInt();
+				while (length > 0) {
+					int read = reply.read(buffer, 0, Math.min(buffer.length, length));
+					if (read < 0)
+						throw new EOFException("daemon closed the connection");
+					out.write(buffer, 0, read);
+					length -= read;
+				}
+				out.flush();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Wraps every write into an output frame.
+	 */
+	private static final class FramedOutputStream extends OutputStream {
+		private final DataOutputStream out;
+
+		FramedOutputStream(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return;
+			out.writeByte(OUTPUT);
+			out.writeInt(len);
+			out.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package org.jmxcassandra;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Collects the output of one command run against several nodes so that it can
+ * be printed per node, in host order, followed by a cluster-wide aggregate of
+ * every numeric metric. Each node records into its own printer, so nodes can
+ * be executed concurrently.
+ */
+public final class ClusterReport {
+
+	private final Map<String, NodePrinter> nodes = new LinkedHashMap<String, NodePrinter>();
+
+	/**
+	 * Reserves the position of a node in the report, call in host order.
+	 */
+	public synchronized MetricPrinter node(String host) {
+		NodePrinter printer = new NodePrinter();
+		nodes.put(host, printer);
+		return printer;
+	}
+
+	public synchronized void fail(String host, Throwable error) {
+		Throwable rootCause = Throwables.getRootCause(error);
+		NodePrinter printer = nodes.get(host);
+		if (printer == null)
+			printer = (NodePrinter) node(host);
+		printer.error = rootCause.getClass().getSimpleName() + ": " + rootCause.getMessage();
+	}
+
+	public synchronized void printTo(PrintStream out) {
+		Map<String, Aggregate> aggregates = new LinkedHashMap<String, Aggregate>();
+		int reporting = 0;
+
+		for (Map.Entry<String, NodePrinter> node : nodes.entrySet()) {
+			NodePrinter printer = node.getValue();
+			out.println("== " + node.getKey() + " ==");
+			if (printer.error != null) {
+				out.println("error: " + printer.error);
+				continue;
+			}
+
+			reporting++;
+			for (Line line : printer.lines) {
+				out.println(line.label + ": " + line.text);
+				if (!(line.value instanceof Number))
+					continue;
+
+				Aggregate aggregate = aggregates.get(line.label);
+				if (aggregate == null) {
+					aggregate = new Aggregate();
+					aggregates.put(line.label, aggregate);
+				}
+				aggregate.add(((Number) line.value).doubleValue());
+			}
+		}
+
+		out.println("== cluster (" + reporting + "/" + nodes.size() + " nodes) ==");
+		for (Map.Entry<String, Aggregate> entry : aggregates.entrySet())
+			out.println(entry.getKey() + ": " + entry.getValue());
+	}
+
+	/**
+	 * Replays every node as a record of its own, for the machine readable
+	 * formats; a node that failed gets a record holding only its error. There
+	 * is no cluster aggregate, consumers aggregate records themselves.
+	 */
+	public synchronized void printTo(MetricPrinter out, long timestamp) {
+		for (Map.Entry<String, NodePrinter> node : nodes.entrySet()) {
+			NodePrinter printer = node.getValue();
+			out.begin(node.getKey(), timestamp);
+			if (printer.error != null) {
+				out.print("error", printer.error);
+			} else {
+				for (Line line : printer.lines)
+					out.print(line.label, line.value, line.text);
+			}
+			out.end();
+		}
+	}
+
+	private static final class Line {
+		final String label;
+		final Object value;
+		final String text;
+
+		Line(String label, Object value, String text) {
+			this.label = label;
+			this.value = value;
+			this.text = text;
+		}
+	}
+
+	private static final class NodePrinter extends MetricPrinter {
+		final List<Line> lines = new ArrayList<Line>();
+		volatile String error;
+
+		@Override
+		public void print(String label, Object value, String text) {
+			lines.add(new Line(label, value, text));
+		}
+	}
+
+	private static final class Aggregate {
+		int count;
+		double sum;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+
+		void add(double value) {
+			count++;
+			sum += value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("sum=%s min=%s max=%s avg=%s", number(sum), number(min), number(max),
+					number(sum / count));
+		}
+
+		private static String number(double value) {
+			return value == Math.rint(value) && !Double.isInfinite(value) ? Long.toString((long) value)
+					: String.format("%.3f", value);
+		}
+	}
+}
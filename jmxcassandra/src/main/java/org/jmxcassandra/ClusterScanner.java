@@ -0,0 +1,176 @@
+package org.jmxcassandra;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Reads a few values from every node of a large fleet: each node gets its own
+ * connection, read and close, chained on {@link AsyncJmxConnect} so that no
+ * thread waits on a node between the blocking JMX calls. Only the number of
+ * handshakes in flight is capped, since that is where a scan spends memory and
+ * file descriptors; reads on established connections are cheap. A handshake
+ * holds its place until it actually ends, even once its node timed out.
+ * <p>
+ * Results are handed to the listener as nodes answer, one at a time.
+ */
+public class ClusterScanner {
+
+	/**
+	 * What to read from each node once connected.
+	 */
+	public interface Probe<T> {
+		T read(JmxConnect jmxConnect) throws Exception;
+	}
+
+	/**
+	 * Receives the outcome of every node, never concurrently.
+	 */
+	public interface Listener<T> {
+		void result(String node, T result);
+
+		void failed(String node, Throwable error);
+	}
+
+	private final Executor executor;
+	private final Semaphore handshakes;
+	private final long timeoutNanos;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+
+	/**
+	 * @param executor
+	 *            runs the blocking JMX calls, see
+	 *            {@link AsyncJmxConnect#defaultExecutor()}
+	 * @param maxHandshakes
+	 *            maximum number of connections being established at once
+	 * @param timeout
+	 *            deadline of the connect, and separately of the read, of every
+	 *            node
+	 */
+	public ClusterScanner(Executor executor, int maxHandshakes, long timeout, TimeUnit unit) {
+		this(executor, maxHandshakes, timeout, unit, JmxConnect.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+				JmxConnect.DEFAULT_READ_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Connects with the given socket timeouts, which bound how long a
+	 * handshake that missed its deadline keeps its place.
+	 *
+	 * @see JmxConnect#JmxConnect(String, int, String, String, int, int)
+	 */
+	public ClusterScanner(Executor executor, int maxHandshakes, long timeout, TimeUnit unit, int connectTimeoutMillis,
+			int readTimeoutMillis) {
+		this.executor = executor;
+		this.handshakes = new Semaphore(maxHandshakes);
+		this.timeoutNanos = unit.toNanos(timeout);
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * Scans every node, returning once all of them answered, failed or timed
+	 * out.
+	 *
+	 * @param username
+	 *            null or empty to connect without credentials
+	 */
+	public <T> void scan(Iterable<String> nodes, int port, String username, String password, final Probe<T> probe,
+			final Listener<T> listener) throws InterruptedException {
+		int count = 0;
+		for (@SuppressWarnings("unused") String node : nodes)
+			count++;
+		final CountDownLatch done = new CountDownLatch(count);
+
+		for (final String node : nodes) {
+			handshakes.acquire();
+			connect(node, port, username, password).thenCompose(new Function<JmxConnect, CompletableFuture<T>>() {
+						@Override
+						public CompletableFuture<T> apply(JmxConnect jmxConnect) {
+							return read(jmxConnect, probe);
+						}
+					}).whenComplete(new BiConsumer<T, Throwable>() {
+						@Override
+						public void accept(T result, Throwable error) {
+							synchronized (listener) {
+								if (error == null)
+									listener.result(node, result);
+								else
+									listener.failed(node, error instanceof CompletionException ? error.getCause() : error);
+							}
+							done.countDown();
+						}
+					});
+		}
+		done.await();
+	}
+
+	/**
+	 * Opens a connection holding a handshake place until the connect ends, or
+	 * until the deadline when the connect never started.
+	 */
+	private CompletableFuture<JmxConnect> connect(final String node, final int port, final String username,
+			final String password) {
+		final AtomicBoolean started = new AtomicBoolean();
+		CompletableFuture<JmxConnect> connected = AsyncJmxConnect.call(new Callable<JmxConnect>() {
+			@Override
+			public JmxConnect call() throws Exception {
+				if (!started.compareAndSet(false, true))
+					throw new TimeoutException("connect to " + node + " did not start in time");
+				try {
+					return new JmxConnect(node, port, username, password, connectTimeoutMillis, readTimeoutMillis);
+				} finally {
+					handshakes.release();
+				}
+			}
+		}, executor, timeoutNanos, TimeUnit.NANOSECONDS);
+		connected.whenComplete(new BiConsumer<JmxConnect, Throwable>() {
+			@Override
+			public void accept(JmxConnect jmxConnect, Throwable error) {
+				if (started.compareAndSet(false, true))
+					handshakes.release();
+			}
+		});
+		return connected;
+	}
+
+	private <T> CompletableFuture<T> read(final JmxConnect jmxConnect, final Probe<T> probe) {
+		return new AsyncJmxConnect(jmxConnect, executor, timeoutNanos, TimeUnit.NANOSECONDS)
+				.submit(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						return probe.read(jmxConnect);
+					}
+				}).whenComplete(new BiConsumer<T, Throwable>() {
+					@Override
+					public void accept(T result, Throwable error) {
+						close(jmxConnect);
+					}
+				});
+	}
+
+	/**
+	 * Closes on the executor, closing a wedged connection blocks as well.
+	 */
+	private void close(final JmxConnect jmxConnect) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					jmxConnect.close();
+				} catch (IOException e) {
+					// the result is in, nothing left to do with the node
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,109 @@
+package org.jmxcassandra;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates whether compaction keeps up on a node from its compaction
+ * counters sampled over time. Rates are taken over a sliding window of
+ * samples rather than between the last two, since compactions finish in
+ * bursts.
+ */
+public final class CompactionBacklog {
+	private final long windowNanos;
+	private final Deque<Sample> samples = new ArrayDeque<Sample>();
+
+	private static final class Sample {
+		final long nanoTime;
+		final long bytesCompacted;
+		final long completedTasks;
+		final long pendingTasks;
+
+		Sample(long nanoTime, long bytesCompacted, long completedTasks, long pendingTasks) {
+			this.nanoTime = nanoTime;
+			this.bytesCompacted = bytesCompacted;
+			this.completedTasks = completedTasks;
+			this.pendingTasks = pendingTasks;
+		}
+	}
+
+	/**
+	 * @param window
+	 *            how far back rates are computed from
+	 */
+	public CompactionBacklog(long window, TimeUnit unit) {
+		this.windowNanos = unit.toNanos(window);
+	}
+
+	public synchronized void update(long nanoTime, long bytesCompacted, long completedTasks, long pendingTasks) {
+		Sample last = samples.peekLast();
+		// a restarted node starts its counters over, so does the estimate
+		if (last != null && (bytesCompacted < last.bytesCompacted || completedTasks < last.completedTasks))
+			samples.clear();
+		samples.addLast(new Sample(nanoTime, bytesCompacted, completedTasks, pendingTasks));
+		while (samples.size() > 2 && nanoTime - samples.peekFirst().nanoTime > windowNanos)
+			samples.removeFirst();
+	}
+
+	/**
+	 * @return false until two samples were taken
+	 */
+	public synchronized boolean hasRates() {
+		return samples.size() > 1 && samples.peekLast().nanoTime > samples.peekFirst().nanoTime;
+	}
+
+	public synchronized double getBytesPerSecond() {
+		return perSecond(samples.peekLast().bytesCompacted - samples.peekFirst().bytesCompacted);
+	}
+
+	public synchronized double getTasksPerSecond() {
+		return perSecond(samples.peekLast().completedTasks - samples.peekFirst().completedTasks);
+	}
+
+	/**
+	 * @return how fast the pending tasks grow, negative while they drain
+	 */
+	public synchronized double getPendingPerSecond() {
+		return perSecond(samples.peekLast().pendingTasks - samples.peekFirst().pendingTasks);
+	}
+
+	/**
+	 * Time until no task is pending at the current net drain rate, which
+	 * accounts for the tasks being added while others complete.
+	 *
+	 * @return seconds, 0 when nothing is pending, -1 when the backlog is not
+	 *         shrinking
+	 */
+	public synchronized long getDrainSeconds() {
+		long pending = samples.peekLast().pendingTasks;
+		if (pending == 0)
+			return 0;
+		double drain = -getPendingPerSecond();
+		return drain > 0 ? (long) Math.ceil(pending / drain) : -1;
+	}
+
+	/**
+	 * @return seconds to compact the given bytes at the current throughput,
+	 *         -1 when nothing is being compacted
+	 */
+	public synchronized long getSecondsFor(long bytes) {
+		double throughput = getBytesPerSecond();
+		return throughput > 0 ? (long) Math.ceil(bytes / throughput) : -1;
+	}
+
+	private double perSecond(long delta) {
+		return delta * 1e9 / (samples.peekLast().nanoTime - samples.peekFirst().nanoTime);
+	}
+
+	/**
+	 * @return e.g. "2h 05m", "3m 20s" or "45s"
+	 */
+	public static String formatSeconds(long seconds) {
+		if (seconds >= 3600)
+			return String.format("%dh %02dm", seconds / 3600, seconds % 3600 / 60);
+		if (seconds >= 60)
+			return String.format("%dm %02ds", seconds / 60, seconds % 60);
+		return seconds + "s";
+	}
+}
@@ -0,0 +1,92 @@
+package org.jmxcassandra;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes one timestamp,node,metric,value row per value, so the columns stay
+ * the same whatever a command prints and rows can be written as they come.
+ * The writer is flushed once per record.
+ */
+final class CsvPrinter extends MetricPrinter {
+	private final Writer out;
+	private boolean header;
+	private String timestamp;
+	private String node;
+
+	CsvPrinter(OutputStream out) {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public void begin(String node, long timestamp) {
+		this.node = node;
+		this.timestamp = Long.toString(timestamp);
+		try {
+			if (!header)
+				out.write("timestamp,node,metric,value\n");
+			header = true;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void print(String label, Object value, String text) {
+		try {
+			out.write(timestamp);
+			out.write(',');
+			field(node);
+			out.write(',');
+			field(label);
+			out.write(',');
+			if (value instanceof Number) {
+				double d = ((Number) value).doubleValue();
+				// NaN and infinities are left empty, like a missing value
+				if (!Double.isNaN(d) && !Double.isInfinite(d))
+					out.write(value.toString());
+			} else if (value != null) {
+				field(value.toString());
+			}
+			out.write('\n');
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void end() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Quotes a field holding a separator, a quote or a line break.
+	 */
+	private void field(String s) throws IOException {
+		boolean quote = false;
+		for (int i = 0; i < s.length() && !quote; i++) {
+			char c = s.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			out.write(s);
+			return;
+		}
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"')
+				out.write('"');
+			out.write(c);
+		}
+		out.write('"');
+	}
+}
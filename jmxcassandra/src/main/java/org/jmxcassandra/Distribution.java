@@ -0,0 +1,85 @@
+package org.jmxcassandra;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of a TimerMBean or HistogramMBean read in a single round trip.
+ * Timer values are in the timer's latency unit, usually microseconds for
+ * Cassandra latencies; histogram values have no unit.
+ */
+public final class Distribution {
+	static final String[] ATTRIBUTES = { "Count", "50thPercentile", "75thPercentile", "95thPercentile",
+			"98thPercentile", "99thPercentile", "999thPercentile", "Max", "Mean", "LatencyUnit" };
+
+	/**
+	 * Labels of the values returned by {@link #getValues()}, in order.
+	 */
+	public static final String[] LABELS = { "50th", "75th", "95th", "98th", "99th", "999th", "Max", "Mean" };
+
+	private final long count;
+	private final double[] values;
+	private final TimeUnit unit;
+
+	private Distribution(long count, double[] values, TimeUnit unit) {
+		this.count = count;
+		this.values = values;
+		this.unit = unit;
+	}
+
+	/**
+	 * @param attributes
+	 *            attribute name to value as read from the MBean
+	 * @return null when the MBean could not be read
+	 */
+	public static Distribution of(Map<String, Object> attributes) {
+		Object count = attributes.get("Count");
+		if (count == null)
+			return null;
+
+		double[] values = new double[LABELS.length];
+		for (int i = 0; i < LABELS.length; i++) {
+			Object value = attributes.get(ATTRIBUTES[i + 1]);
+			values[i] = value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+		}
+
+		Object unit = attributes.get("LatencyUnit");
+		return new Distribution(((Number) count).longValue(), values,
+				unit == null ? null : TimeUnit.valueOf(unit.toString().toUpperCase()));
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return 50th, 75th, 95th, 98th, 99th, 999th percentiles, max and mean
+	 */
+	public double[] getValues() {
+		return values.clone();
+	}
+
+	public double get99thPercentile() {
+		return values[4];
+	}
+
+	/**
+	 * @return the latency unit of a timer, null for a histogram
+	 */
+	public TimeUnit getUnit() {
+		return unit;
+	}
+
+	/**
+	 * @return values converted to milliseconds, or unchanged for a histogram
+	 */
+	public double[] getMillis() {
+		double[] millis = getValues();
+		if (unit != null) {
+			double toMillis = (double) unit.toNanos(1) / TimeUnit.MILLISECONDS.toNanos(1);
+			for (int i = 0; i < millis.length; i++)
+				millis[i] *= toMillis;
+		}
+		return millis;
+	}
+}
@@ -0,0 +1,87 @@
+package org.jmxcassandra;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue between the threads delivering JMX notifications and the one
+ * thread writing them out. Producers never block or take a lock: when the
+ * consumer falls behind and the queue is full, new events are dropped and
+ * counted, so that a slow output cannot stall the notification threads.
+ */
+public final class EventQueue<E> {
+	private final Queue<E> events = new ConcurrentLinkedQueue<E>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private final int capacity;
+	private volatile Thread consumer;
+
+	public EventQueue(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return false when the queue was full and the event was dropped
+	 */
+	public boolean offer(E event) {
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			dropped.incrementAndGet();
+			return false;
+		}
+		events.add(event);
+		Thread waiting = consumer;
+		if (waiting != null)
+			LockSupport.unpark(waiting);
+		return true;
+	}
+
+	/**
+	 * @return the oldest event, or null when there is none
+	 */
+	public E poll() {
+		E event = events.poll();
+		if (event != null)
+			size.decrementAndGet();
+		return event;
+	}
+
+	/**
+	 * Waits for an event, to be called by the single consumer only.
+	 *
+	 * @return the oldest event, or null when none arrived in time or the
+	 *         thread was interrupted
+	 */
+	public E poll(long timeout, TimeUnit unit) {
+		E event = poll();
+		if (event != null)
+			return event;
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		consumer = Thread.currentThread();
+		try {
+			for (long left; (event = poll()) == null && (left = deadline - System.nanoTime()) > 0
+					&& !Thread.currentThread().isInterrupted();)
+				LockSupport.parkNanos(this, left);
+		} finally {
+			consumer = null;
+		}
+		return event;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * @return events dropped since the queue was created
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
@@ -0,0 +1,43 @@
+package org.jmxcassandra;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Writes values in Graphite's plaintext protocol,
+ * "prefix.node.metric value seconds", one line per value. Characters Graphite
+ * treats specially in a path, such as the dots of an address, become
+ * underscores.
+ */
+public final class GraphiteSink extends SocketSink {
+	private final String prefix;
+
+	public GraphiteSink(InetSocketAddress address, String prefix) {
+		this(address, prefix, DEFAULT_BATCH_BYTES, DEFAULT_MAX_BATCHES);
+	}
+
+	public GraphiteSink(InetSocketAddress address, String prefix, int batchBytes, int maxBatches) {
+		super(address, batchBytes, maxBatches);
+		this.prefix = prefix;
+	}
+
+	@Override
+	protected void format(StringBuilder line, String node, String metric, long timestamp, double value) {
+		if (!prefix.isEmpty())
+			line.append(prefix).append('.');
+		appendPathElement(line, node);
+		line.append('.');
+		appendPathElement(line, metric);
+		line.append(' ');
+		appendValue(line, value);
+		line.append(' ').append(timestamp / 1000).append('\n');
+	}
+
+	private static void appendPathElement(StringBuilder line, String element) {
+		for (int i = 0; i < element.length(); i++) {
+			char c = element.charAt(i);
+			boolean plain = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-'
+					|| c == '_';
+			line.append(plain ? c : '_');
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.jmxcassandra;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Writes values in InfluxDB line protocol,
+ * "measurement,node=...,metric=... value=... nanoseconds", one line per
+ * value, with the node and the metric label as tags. Values read as integers
+ * over JMX, such as counts and sizes, go to an integer field value_int
+ * instead: InfluxDB rejects a point whose field type differs from the one
+ * it already holds for the measurement, whatever the tags.
+ */
+public final class InfluxSink extends SocketSink {
+	private final String measurement;
+
+	public InfluxSink(InetSocketAddress address, String measurement) {
+		this(address, measurement, DEFAULT_BATCH_BYTES, DEFAULT_MAX_BATCHES);
+	}
+
+	public InfluxSink(InetSocketAddress address, String measurement, int batchBytes, int maxBatches) {
+		super(address, batchBytes, maxBatches);
+		this.measurement = measurement.isEmpty() ? "cassmon" : measurement;
+	}
+
+	@Override
+	protected void format(StringBuilder line, String node, String metric, long timestamp, double value) {
+		tags(line, node, metric);
+		line.append(" value=");
+		appendValue(line, value);
+		line.append(' ').append(timestamp).append("000000\n");
+	}
+
+	@Override
+	protected void format(StringBuilder line, String node, String metric, long timestamp, long value) {
+		tags(line, node, metric);
+		line.append(" value_int=").append(value).append('i');
+		line.append(' ').append(timestamp).append("000000\n");
+	}
+
+	private void tags(StringBuilder line, String node, String metric) {
+		escape(line, measurement, false);
+		line.append(",node=");
+		escape(line, node, true);
+		line.append(",metric=");
+		escape(line, metric, true);
+	}
+
+	/**
+	 * Escapes commas and spaces, and equal signs in tags.
+	 */
+	private static void escape(StringBuilder line, String s, boolean tag) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == ',' || c == ' ' || (tag && c == '='))
+				line.append('\\');
+			line.append(c);
+		}
+	}
+}
@@ -1,41 +1,63 @@
 package org.jmxcassandra;
 
 import java.io.IOException;
-import java.rmi.server.RMIClientSocketFactory;
-import java.rmi.server.RMISocketFactory;
+import java.lang.management.MemoryUsage;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
-import javax.management.JMX;
+import javax.management.JMException;
+import javax.management.ListenerNotFoundException;
 import javax.management.MBeanException;
 import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
+import javax.management.NotificationBroadcaster;
+import javax.management.NotificationFilter;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeData;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
-import javax.rmi.ssl.SslRMIClientSocketFactory;
 
-import com.yammer.metrics.reporting.JmxReporter;
-import com.yammer.metrics.reporting.JmxReporter.GaugeMBean;
+import com.google.common.base.Throwables;
+import com.sun.management.GarbageCollectionNotificationInfo;
 
 public class JmxConnect implements AutoCloseable {
-	private static final String fmtUrl = "service:jmx:rmi:///jndi/rmi://[%s]:%d/jmxrmi";
+	private static final String fmtUrl = "service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi";
+	private static final ObjectName memoryName = objectName("java.lang:type=Memory");
+	private static final ObjectName compactionManagerName = objectName("org.apache.cassandra.db:type=CompactionManager");
 
 	@SuppressWarnings("unused")
 	private static final int defaultPort = 7199;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = TimeoutSocketFactory.DEFAULT_CONNECT_TIMEOUT;
+	public static final int DEFAULT_READ_TIMEOUT_MILLIS = TimeoutSocketFactory.DEFAULT_READ_TIMEOUT;
 
 	final String host;
 	final int port;
 	private String username;
 	private String password;
+	private final TimeoutSocketFactory timeouts;
 
 	private JMXConnector jmxc;
 	private MBeanServerConnection mbeanServerConn;
-	private GaugeMBean guageMBean;
+	private MBeanProxyCache proxies;
 
 	private boolean failed;
 
@@ -58,6 +80,7 @@ public class JmxConnect implements AutoCloseable {
 		this.port = port;
 		this.username = username;
 		this.password = password;
+		this.timeouts = socketFactory(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
 		connect();
 	}
 
@@ -74,6 +97,32 @@ public class JmxConnect implements AutoCloseable {
 	public JmxConnect(String host, int port) throws IOException {
 		this.host = host;
 		this.port = port;
+		this.timeouts = socketFactory(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+		connect();
+	}
+
+	/**
+	 * Creates a JmxConnect giving up on the node after the given timeouts,
+	 * which only apply to this connection.
+	 *
+	 * @param username
+	 *            null or empty for an unauthenticated agent
+	 * @param connectTimeoutMillis
+	 *            time the node gets to accept a connection
+	 * @param readTimeoutMillis
+	 *            time the node gets to answer a single call
+	 * @throws IOException
+	 *             on connection failures
+	 */
+	public JmxConnect(String host, int port, String username, String password, int connectTimeoutMillis,
+			int readTimeoutMillis) throws IOException {
+		this.host = host;
+		this.port = port;
+		if (username != null && !username.isEmpty()) {
+			this.username = username;
+			this.password = password;
+		}
+		this.timeouts = socketFactory(connectTimeoutMillis, readTimeoutMillis);
 		connect();
 	}
 
@@ -84,36 +133,96 @@ public class JmxConnect implements AutoCloseable {
 	 *             on connection failures
 	 */
 	private void connect() throws IOException {
-		JMXServiceURL jmxUrl = new JMXServiceURL(String.format(fmtUrl, host, port));
-		Map<String, Object> env = new HashMap<String, Object>();
+		final JMXServiceURL jmxUrl = serviceUrl(host, port);
+		final Map<String, Object> env = new HashMap<String, Object>();
 		if (username != null) {
 			String[] creds = { username, password };
 			env.put(JMXConnector.CREDENTIALS, creds);
 			env.put("jmx.remote.x.server.connection.timeout", new Long(120000L));
 		}
 
-		env.put("com.sun.jndi.rmi.factory.socket", getRMIClientSocketFactory());
+		env.put("com.sun.jndi.rmi.factory.socket", timeouts);
+		// notifications are long polled on a thread of their own, with the default read timeout
+		env.put("jmx.remote.x.notification.fetch.timeout", Long.valueOf(DEFAULT_READ_TIMEOUT_MILLIS / 2));
 
-		jmxc = JMXConnectorFactory.connect(jmxUrl, env);
-		mbeanServerConn = jmxc.getMBeanServerConnection();
+		// the lookup is bounded by the sockets of the factory, the handshake after it by the call
+		jmxc = call(timeouts.getConnectTimeout() + timeouts.getReadTimeout(), new Callable<JMXConnector>() {
+			@Override
+			public JMXConnector call() throws IOException {
+				return JMXConnectorFactory.connect(jmxUrl, env);
+			}
+		});
+		mbeanServerConn = timeouts.withTimeouts(jmxc.getMBeanServerConnection());
+		proxies = new MBeanProxyCache(mbeanServerConn);
+	}
 
+	/**
+	 * @return the URL of the JMX agent registered as jmxrmi in the RMI
+	 *         registry of host:port
+	 */
+	public static JMXServiceURL serviceUrl(String host, int port) throws MalformedURLException {
+		// only IPv6 literals may be bracketed, newer JDKs reject [127.0.0.1]
+		String urlHost = host.indexOf(':') >= 0 && !host.startsWith("[") ? "[" + host + "]" : host;
+		return new JMXServiceURL(String.format(fmtUrl, urlHost, port));
+	}
+
+	private static TimeoutSocketFactory socketFactory(int connectTimeoutMillis, int readTimeoutMillis) {
+		return new TimeoutSocketFactory(Boolean.parseBoolean(System.getProperty("ssl.enable")), connectTimeoutMillis,
+				readTimeoutMillis);
 	}
 
-	private RMIClientSocketFactory getRMIClientSocketFactory() throws IOException {
-		if (Boolean.parseBoolean(System.getProperty("ssl.enable")))
-			return new SslRMIClientSocketFactory();
-		else
-			return RMISocketFactory.getDefaultSocketFactory();
+	public int getConnectTimeoutMillis() {
+		return timeouts.getConnectTimeout();
+	}
+
+	public int getReadTimeoutMillis() {
+		return timeouts.getReadTimeout();
 	}
 
 	public void close() throws IOException {
-		jmxc.close();
+		call(timeouts.getReadTimeout(), new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				jmxc.close();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Runs a call through the connector itself, rather than through the
+	 * MBeanServerConnection, giving up on it after timeoutMillis.
+	 */
+	private static <T> T call(int timeoutMillis, Callable<T> call) throws IOException {
+		try {
+			return TimeoutSocketFactory.within(timeoutMillis, call);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw Throwables.propagate(e);
+		}
 	}
 
 	public boolean isFailed() {
 		return failed;
 	}
 
+	/**
+	 * Round trip to the agent to check that the connection still works.
+	 * 
+	 * @return false when the connection is broken
+	 */
+	public boolean isAlive() {
+		try {
+			mbeanServerConn.getMBeanCount();
+			return true;
+		} catch (IOException e) {
+			return false;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Retrieve Client metrics
 	 * 
@@ -122,15 +231,7 @@ public class JmxConnect implements AutoCloseable {
 	 * @return
 	 */
 	public Object getConnectedClients(String metricName) {
-		try {
-			ObjectName name = new ObjectName(
-					String.format("org.apache.cassandra.metrics:type=Client,name=%s", metricName));
-			guageMBean = JMX.newMBeanProxy(mbeanServerConn, name, JmxReporter.GaugeMBean.class);
-
-			return guageMBean.getValue();
-		} catch (MalformedObjectNameException e) {
-			throw new RuntimeException("Invalid ObjectName? Please report this as a bug.", e);
-		}
+		return read(MetricCatalog.get("Client", metricName));
 	}
 
 	/**
@@ -144,56 +245,346 @@ public class JmxConnect implements AutoCloseable {
 	 *            View {@link org.apache.cassandra.metrics.ColumnFamilyMetrics}.
 	 */
 	public Object getColumnFamilyMetric(String ks, String cf, String metricName) {
-		try {
-			String type = cf.contains(".") ? "IndexColumnFamily" : "ColumnFamily";
-			ObjectName oName = new ObjectName(String.format(
-					"org.apache.cassandra.metrics:type=%s,keyspace=%s,scope=%s,name=%s", type, ks, cf, metricName));
-			switch (metricName) {
-			case "BloomFilterDiskSpaceUsed":
-			case "BloomFilterFalsePositives":
-			case "BloomFilterFalseRatio":
-			case "BloomFilterOffHeapMemoryUsed":
-			case "IndexSummaryOffHeapMemoryUsed":
-			case "CompressionMetadataOffHeapMemoryUsed":
-			case "CompressionRatio":
-			case "EstimatedColumnCountHistogram":
-			case "EstimatedRowSizeHistogram":
-			case "EstimatedRowCount":
-			case "KeyCacheHitRate":
-			case "LiveSSTableCount":
-			case "MaxRowSize":
-			case "MeanRowSize":
-			case "MemtableColumnsCount":
-			case "MemtableLiveDataSize":
-			case "MemtableOffHeapSize":
-			case "MinRowSize":
-			case "RecentBloomFilterFalsePositives":
-			case "RecentBloomFilterFalseRatio":
-			case "SnapshotsSize":
-				return JMX.newMBeanProxy(mbeanServerConn, oName, JmxReporter.GaugeMBean.class).getValue();
-			case "LiveDiskSpaceUsed":
-			case "MemtableSwitchCount":
-			case "SpeculativeRetries":
-			case "TotalDiskSpaceUsed":
-			case "WriteTotalLatency":
-			case "ReadTotalLatency":
-			case "PendingFlushes":
-				return JMX.newMBeanProxy(mbeanServerConn, oName, JmxReporter.CounterMBean.class).getCount();
-			case "ReadLatency":
-			case "CoordinatorReadLatency":
-			case "CoordinatorScanLatency":
-			case "WriteLatency":
-				return JMX.newMBeanProxy(mbeanServerConn, oName, JmxReporter.TimerMBean.class);
-			case "LiveScannedHistogram":
-			case "SSTablesPerReadHistogram":
-			case "TombstoneScannedHistogram":
-				return JMX.newMBeanProxy(mbeanServerConn, oName, JmxReporter.HistogramMBean.class);
-			default:
-				throw new RuntimeException("Unknown column family metric.");
+		Metric metric = MetricCatalog.table(metricName);
+		if (metric.getKind().isDistribution())
+			return proxies.get(metric, ks, cf);
+		return getAttribute(metric.getObjectName(ks, cf), metric.getAttribute());
+	}
+
+	/**
+	 * Retrieve the same ColumnFamily metrics for many tables, reading each
+	 * MBean with a single getAttributes round trip. Gauges report their Value,
+	 * every other kind its Count.
+	 * 
+	 * @param tables
+	 *            (keyspace, table) pairs, see {@link #getColumnFamilies(String)}
+	 * @param metricNames
+	 *            View {@link org.apache.cassandra.metrics.ColumnFamilyMetrics}.
+	 * @return one map of metric name to value per table, in table order
+	 */
+	public List<Map<String, Object>> getColumnFamilyMetrics(List<String[]> tables, String... metricNames) {
+		Metric[] catalog = new Metric[metricNames.length];
+		for (int i = 0; i < metricNames.length; i++)
+			catalog[i] = MetricCatalog.table(metricNames[i]);
+
+		List<MBeanAttribute> request = new ArrayList<MBeanAttribute>(tables.size() * metricNames.length);
+		for (String[] table : tables)
+			for (Metric metric : catalog)
+				request.add(new MBeanAttribute(metric.getObjectName(table[0], table[1]), metric.getAttribute()));
+
+		Map<MBeanAttribute, Object> values = getAttributes(request);
+
+		List<Map<String, Object>> metrics = new ArrayList<Map<String, Object>>(tables.size());
+		int next = 0;
+		for (int t = 0; t < tables.size(); t++) {
+			Map<String, Object> tableMetrics = new HashMap<String, Object>();
+			for (int i = 0; i < metricNames.length; i++) {
+				Object value = values.get(request.get(next++));
+				if (value != null)
+					tableMetrics.put(metricNames[i], value);
 			}
-		} catch (MalformedObjectNameException e) {
-			throw new RuntimeException(e);
+			metrics.add(tableMetrics);
 		}
+		return metrics;
+	}
+
+	/**
+	 * Retrieve the full distribution of ColumnFamily timers and histograms for
+	 * many tables, reading each MBean with a single getAttributes round trip.
+	 * 
+	 * @param tables
+	 *            (keyspace, table) pairs, see {@link #getColumnFamilies(String)}
+	 * @param metricNames
+	 *            ReadLatency, WriteLatency, CoordinatorReadLatency,
+	 *            CoordinatorScanLatency, SSTablesPerReadHistogram,
+	 *            TombstoneScannedHistogram or LiveScannedHistogram.
+	 * @return one map of metric name to distribution per table, in table order
+	 */
+	public List<Map<String, Distribution>> getColumnFamilyDistributions(List<String[]> tables, String... metricNames) {
+		Metric[] metrics = new Metric[metricNames.length];
+		for (int i = 0; i < metricNames.length; i++) {
+			metrics[i] = MetricCatalog.table(metricNames[i]);
+			if (!metrics[i].getKind().isDistribution())
+				throw new IllegalArgumentException(metricNames[i] + " is neither a timer nor a histogram.");
+		}
+
+		List<MBeanAttribute> request = new ArrayList<MBeanAttribute>(
+				tables.size() * metricNames.length * Distribution.ATTRIBUTES.length);
+		for (String[] table : tables)
+			for (Metric metric : metrics) {
+				ObjectName oName = metric.getObjectName(table[0], table[1]);
+				for (String attribute : metric.attributes())
+					request.add(new MBeanAttribute(oName, attribute));
+			}
+
+		Map<MBeanAttribute, Object> values = getAttributes(request);
+
+		List<Map<String, Distribution>> distributions = new ArrayList<Map<String, Distribution>>(tables.size());
+		int next = 0;
+		for (int t = 0; t < tables.size(); t++) {
+			Map<String, Distribution> tableDistributions = new HashMap<String, Distribution>();
+			for (Metric metric : metrics) {
+				Map<String, Object> attributes = new HashMap<String, Object>();
+				for (String attribute : metric.attributes()) {
+					Object value = values.get(request.get(next++));
+					if (value != null)
+						attributes.put(attribute, value);
+				}
+				Distribution distribution = Distribution.of(attributes);
+				if (distribution != null)
+					tableDistributions.put(metric.getName(), distribution);
+			}
+			distributions.add(tableDistributions);
+		}
+		return distributions;
+	}
+
+	/**
+	 * Discover the tables, including secondary index tables, that have
+	 * metrics registered on the node with a single queryNames call.
+	 * 
+	 * @param ks
+	 *            Keyspace to restrict discovery to, null or empty for all.
+	 * @return (keyspace, table) pairs sorted by keyspace and table
+	 */
+	public List<String[]> getColumnFamilies(String ks) {
+		String keyspace = ks == null || ks.isEmpty() ? "*" : ks;
+		ObjectName pattern = objectName(
+				"org.apache.cassandra.metrics:type=*ColumnFamily,keyspace=" + keyspace + ",name=LiveSSTableCount,*");
+
+		Set<ObjectName> names = queryNames(pattern);
+
+		List<String[]> tables = new ArrayList<String[]>(names.size());
+		for (ObjectName name : names)
+			tables.add(new String[] { name.getKeyProperty("keyspace"), name.getKeyProperty("scope") });
+		Collections.sort(tables, new Comparator<String[]>() {
+			@Override
+			public int compare(String[] a, String[] b) {
+				int c = a[0].compareTo(b[0]);
+				return c != 0 ? c : a[1].compareTo(b[1]);
+			}
+		});
+		return tables;
+	}
+
+	/**
+	 * Retrieve the task counts of every thread pool, discovering the pools
+	 * with a single queryNames call and reading each pool metric with one
+	 * getAttributes round trip.
+	 * 
+	 * @return pool path and name, e.g. request/ReadStage, to its ActiveTasks,
+	 *         PendingTasks, CompletedTasks, CurrentlyBlockedTasks and
+	 *         TotalBlockedTasks, sorted by path and name; metrics the node does
+	 *         not have are absent
+	 */
+	public Map<String, Map<String, Object>> getThreadPools() {
+		List<MBeanAttribute> request = new ArrayList<MBeanAttribute>();
+		for (ObjectName name : queryNames("org.apache.cassandra.metrics:type=ThreadPools,*")) {
+			String attribute = threadPoolMetricAttribute(name.getKeyProperty("name"));
+			if (attribute != null)
+				request.add(new MBeanAttribute(name, attribute));
+		}
+
+		Map<String, Map<String, Object>> pools = new TreeMap<String, Map<String, Object>>();
+		for (Map.Entry<MBeanAttribute, Object> entry : getAttributes(request).entrySet()) {
+			ObjectName name = entry.getKey().getObjectName();
+			// the same pool name can be used under several paths
+			String key = name.getKeyProperty("path") + "/" + name.getKeyProperty("scope");
+			Map<String, Object> pool = pools.get(key);
+			if (pool == null) {
+				pool = new HashMap<String, Object>();
+				pools.put(key, pool);
+			}
+			pool.put(name.getKeyProperty("name"), entry.getValue());
+		}
+		return pools;
+	}
+
+	/**
+	 * Retrieve the number of messages dropped per verb since the node
+	 * started, discovering the verbs with a single queryNames call.
+	 * 
+	 * @return verb, e.g. MUTATION or READ, to dropped count, sorted by verb
+	 */
+	public Map<String, Long> getDroppedMessages() {
+		List<MBeanAttribute> request = new ArrayList<MBeanAttribute>();
+		for (ObjectName name : queryNames("org.apache.cassandra.metrics:type=DroppedMessage,name=Dropped,*"))
+			request.add(new MBeanAttribute(name, "Count"));
+
+		Map<String, Long> dropped = new TreeMap<String, Long>();
+		for (Map.Entry<MBeanAttribute, Object> entry : getAttributes(request).entrySet())
+			dropped.put(entry.getKey().getObjectName().getKeyProperty("scope"), ((Number) entry.getValue()).longValue());
+		return dropped;
+	}
+
+	private static String threadPoolMetricAttribute(String metricName) {
+		switch (metricName) {
+		case "ActiveTasks":
+		case "PendingTasks":
+		case "CompletedTasks":
+			return "Value";
+		case "CurrentlyBlockedTasks":
+		case "TotalBlockedTasks":
+			return "Count";
+		default:
+			// MaxPoolSize and the like
+			return null;
+		}
+	}
+
+	/**
+	 * Retrieve the collection counts and times of every garbage collector in
+	 * one round trip per collector.
+	 * 
+	 * @return collector name, e.g. ParNew or G1 Young Generation, to its
+	 *         CollectionCount, CollectionTime in milliseconds and
+	 *         MemoryPoolNames, sorted by name
+	 */
+	public Map<String, Map<String, Object>> getGarbageCollectors() {
+		return getByName("java.lang:type=GarbageCollector,*", "CollectionCount", "CollectionTime", "MemoryPoolNames");
+	}
+
+	/**
+	 * Retrieve the current usage of every memory pool, e.g. Par Eden Space or
+	 * CMS Old Gen, in one round trip per pool.
+	 * 
+	 * @return pool name to usage, sorted by name
+	 */
+	public Map<String, MemoryUsage> getMemoryPools() {
+		Map<String, MemoryUsage> pools = new TreeMap<String, MemoryUsage>();
+		for (Map.Entry<String, Map<String, Object>> entry : getByName("java.lang:type=MemoryPool,*", "Usage").entrySet()) {
+			Object usage = entry.getValue().get("Usage");
+			if (usage instanceof CompositeData)
+				pools.put(entry.getKey(), MemoryUsage.from((CompositeData) usage));
+		}
+		return pools;
+	}
+
+	/**
+	 * Retrieve the heap and non-heap usage in a single round trip
+	 * 
+	 * @return usage keyed by HeapMemoryUsage and NonHeapMemoryUsage
+	 */
+	public Map<String, MemoryUsage> getMemory() {
+		List<MBeanAttribute> request = new ArrayList<MBeanAttribute>(2);
+		request.add(new MBeanAttribute(memoryName, "HeapMemoryUsage"));
+		request.add(new MBeanAttribute(memoryName, "NonHeapMemoryUsage"));
+
+		Map<String, MemoryUsage> memory = new HashMap<String, MemoryUsage>();
+		for (Map.Entry<MBeanAttribute, Object> entry : getAttributes(request).entrySet())
+			if (entry.getValue() instanceof CompositeData)
+				memory.put(entry.getKey().getAttribute(), MemoryUsage.from((CompositeData) entry.getValue()));
+		return memory;
+	}
+
+	/**
+	 * Subscribe to the notification every garbage collector sends after a
+	 * collection, carrying its cause, duration and the memory usage before
+	 * and after. The listener is called on a JMX notification thread with
+	 * the notification's user data, see
+	 * {@link GarbageCollectionNotificationInfo#from(CompositeData)}.
+	 * 
+	 * @return the collectors subscribed to, to pass to
+	 *         {@link #unsubscribe(Collection, NotificationListener)}, empty on
+	 *         JVMs not sending these notifications
+	 */
+	public List<ObjectName> addGarbageCollectionListener(NotificationListener listener) {
+		NotificationFilterSupport filter = new NotificationFilterSupport();
+		filter.enableType(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION);
+		return subscribe("java.lang:type=GarbageCollector,*", filter, listener);
+	}
+
+	/**
+	 * Subscribe to the notifications of every MBean matching the pattern
+	 * that sends notifications at all. The node pushes them as they happen;
+	 * the listener is called on a JMX notification thread, which should not
+	 * be held up.
+	 * 
+	 * @param filter
+	 *            applied on the node, null for every notification
+	 * @return the MBeans subscribed to, empty when none matched or none sends
+	 *         notifications
+	 */
+	public List<ObjectName> subscribe(String pattern, NotificationFilter filter, NotificationListener listener) {
+		List<ObjectName> subscribed = new ArrayList<ObjectName>();
+		for (ObjectName name : queryNames(pattern)) {
+			try {
+				if (!mbeanServerConn.isInstanceOf(name, NotificationBroadcaster.class.getName()))
+					continue;
+				mbeanServerConn.addNotificationListener(name, listener, filter, null);
+				subscribed.add(name);
+			} catch (InstanceNotFoundException e) {
+				// unregistered since the query
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return subscribed;
+	}
+
+	/**
+	 * Stop the notifications subscribed to with
+	 * {@link #subscribe(String, NotificationFilter, NotificationListener)}.
+	 */
+	public void unsubscribe(Collection<ObjectName> names, NotificationListener listener) {
+		for (ObjectName name : names) {
+			try {
+				mbeanServerConn.removeNotificationListener(name, listener);
+			} catch (InstanceNotFoundException e) {
+				// unregistered meanwhile, nothing left to remove
+			} catch (ListenerNotFoundException e) {
+				// already removed
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Listen to the state of the connection itself: jmx.remote.connection.failed
+	 * and closed, and jmx.remote.connection.notifs.lost when the node discarded
+	 * notifications before they were fetched.
+	 */
+	public void addConnectionListener(NotificationListener listener) {
+		jmxc.addConnectionNotificationListener(listener, null, null);
+	}
+
+	/**
+	 * Reads the same attributes of every MBean matching the pattern.
+	 * 
+	 * @return name key property to attribute values, sorted by name
+	 */
+	private Map<String, Map<String, Object>> getByName(String pattern, String... attributes) {
+		List<MBeanAttribute> request = new ArrayList<MBeanAttribute>();
+		for (ObjectName name : queryNames(pattern))
+			for (String attribute : attributes)
+				request.add(new MBeanAttribute(name, attribute));
+
+		Map<String, Map<String, Object>> beans = new TreeMap<String, Map<String, Object>>();
+		for (Map.Entry<MBeanAttribute, Object> entry : getAttributes(request).entrySet()) {
+			String name = entry.getKey().getObjectName().getKeyProperty("name");
+			Map<String, Object> bean = beans.get(name);
+			if (bean == null) {
+				bean = new HashMap<String, Object>();
+				beans.put(name, bean);
+			}
+			bean.put(entry.getKey().getAttribute(), entry.getValue());
+		}
+		return beans;
+	}
+
+	/**
+	 * Retrieve the compactions running on the node
+	 * 
+	 * @return one map per compaction with its id, keyspace, columnfamily,
+	 *         taskType and its progress as completed out of total in unit
+	 *         (bytes, keys or ranges), empty when there are none
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Map<String, String>> getActiveCompactions() {
+		MBeanAttribute compactions = new MBeanAttribute(compactionManagerName, "Compactions");
+		Object value = getAttributes(Collections.singletonList(compactions)).get(compactions);
+		return value == null ? Collections.<Map<String, String>> emptyList() : (List<Map<String, String>>) value;
 	}
 
 	/**
@@ -204,27 +595,7 @@ public class JmxConnect implements AutoCloseable {
 	 *            TotalCompactionsCompleted.
 	 */
 	public Object getCompactionMetric(String metricName) {
-		try {
-			switch (metricName) {
-			case "BytesCompacted":
-				return JMX.newMBeanProxy(mbeanServerConn,
-						new ObjectName("org.apache.cassandra.metrics:type=Compaction,name=" + metricName),
-						JmxReporter.CounterMBean.class).getCount();
-			case "CompletedTasks":
-			case "PendingTasks":
-				return JMX.newMBeanProxy(mbeanServerConn,
-						new ObjectName("org.apache.cassandra.metrics:type=Compaction,name=" + metricName),
-						JmxReporter.GaugeMBean.class).getValue();
-			case "TotalCompactionsCompleted":
-				return JMX.newMBeanProxy(mbeanServerConn,
-						new ObjectName("org.apache.cassandra.metrics:type=Compaction,name=" + metricName),
-						JmxReporter.MeterMBean.class).getCount();
-			default:
-				throw new RuntimeException("Unknown compaction metric.");
-			}
-		} catch (MalformedObjectNameException e) {
-			throw new RuntimeException(e);
-		}
+		return read(MetricCatalog.get("Compaction", metricName));
 	}
 
 	/**
@@ -234,13 +605,7 @@ public class JmxConnect implements AutoCloseable {
 	 *            Exceptions, Load, TotalHints or TotalHintsInProgress.
 	 */
 	public long getStorageMetric(String metricName) {
-		try {
-			return JMX.newMBeanProxy(mbeanServerConn,
-					new ObjectName("org.apache.cassandra.metrics:type=Storage,name=" + metricName),
-					JmxReporter.CounterMBean.class).getCount();
-		} catch (MalformedObjectNameException e) {
-			throw new RuntimeException(e);
-		}
+		return ((Number) read(MetricCatalog.get("Storage", metricName))).longValue();
 	}
 	
 	/**
@@ -250,10 +615,9 @@ public class JmxConnect implements AutoCloseable {
 	 * @return
 	 */
 	public Object getOperatingSystemMetric(String metricName) {
+		Metric metric = MetricCatalog.operatingSystem(metricName);
 		try {
-			return mbeanServerConn.getAttribute(new ObjectName("java.lang:type=OperatingSystem"), metricName);
-		} catch (MalformedObjectNameException e) {
-			throw new RuntimeException(e);
+			return mbeanServerConn.getAttribute(metric.getObjectName(), metric.getAttribute());
 		} catch (AttributeNotFoundException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -272,4 +636,184 @@ public class JmxConnect implements AutoCloseable {
 		} 
 		return null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Retrieve OperatingSystem metrics in a single round trip
+	 * 
+	 * @param metricNames
+	 *            ProcessCpuLoad, AvailableProcessors, ...
+	 * @return values keyed by metric name, missing metrics are absent
+	 */
+	public Map<String, Object> getOperatingSystemMetrics(String... metricNames) {
+		List<Metric> metrics = new ArrayList<Metric>(metricNames.length);
+		for (String metricName : metricNames)
+			metrics.add(MetricCatalog.operatingSystem(metricName));
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		for (Map.Entry<Metric, Object> entry : read(metrics).entrySet())
+			values.put(entry.getKey().getName(), entry.getValue());
+		return values;
+	}
+
+	/**
+	 * Retrieve the value of a node wide metric: a gauge's Value, the Count of
+	 * any other metrics-core metric, or the plain attribute.
+	 * 
+	 * @throws RuntimeException
+	 *             when the node does not have the metric
+	 */
+	public Object read(Metric metric) {
+		return getAttribute(metric.getObjectName(), metric.getAttribute());
+	}
+
+	/**
+	 * Retrieve the values of several node wide metrics with one getAttributes
+	 * round trip per MBean.
+	 * 
+	 * @return values in the order of the metrics, metrics the node does not
+	 *         have are absent
+	 */
+	public Map<Metric, Object> read(Collection<Metric> metrics) {
+		List<MBeanAttribute> request = new ArrayList<MBeanAttribute>(metrics.size());
+		for (Metric metric : metrics)
+			request.add(new MBeanAttribute(metric.getObjectName(), metric.getAttribute()));
+
+		Map<MBeanAttribute, Object> values = getAttributes(request);
+		Map<Metric, Object> read = new LinkedHashMap<Metric, Object>(metrics.size() * 2);
+		int next = 0;
+		for (Metric metric : metrics) {
+			Object value = values.get(request.get(next++));
+			if (value != null)
+				read.put(metric, value);
+		}
+		return read;
+	}
+
+	/**
+	 * Read every value of a plan into primitive buffers indexed by value id,
+	 * with one getAttributes round trip per MBean. Numbers are written to
+	 * both buffers; values the node did not return, and values that are not
+	 * numbers, are written as {@link ReadPlan#MISSING} and NaN.
+	 * 
+	 * @param longs
+	 *            buffer of at least {@link ReadPlan#size()} values, or null
+	 * @param doubles
+	 *            buffer of at least {@link ReadPlan#size()} values, or null
+	 * @return the number of values read
+	 */
+	public int read(ReadPlan plan, long[] longs, double[] doubles) {
+		if (longs != null)
+			Arrays.fill(longs, 0, plan.size(), ReadPlan.MISSING);
+		if (doubles != null)
+			Arrays.fill(doubles, 0, plan.size(), Double.NaN);
+
+		int read = 0;
+		for (int b = 0; b < plan.beans.length; b++) {
+			String[] names = plan.attributes[b];
+			List<Attribute> list;
+			try {
+				list = mbeanServerConn.getAttributes(plan.beans[b], names).asList();
+			} catch (InstanceNotFoundException e) {
+				// bean not registered on this node, e.g. a dropped table
+				continue;
+			} catch (ReflectionException e) {
+				failed = true;
+				throw Throwables.propagate(e);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+
+			// attributes come back in request order, minus those that failed
+			int a = 0;
+			for (int i = 0; i < list.size(); i++) {
+				Attribute attribute = list.get(i);
+				while (a < names.length && !names[a].equals(attribute.getName()))
+					a++;
+				if (a == names.length)
+					break;
+				if (!(attribute.getValue() instanceof Number))
+					continue;
+				Number value = (Number) attribute.getValue();
+				for (int id : plan.ids[b][a]) {
+					if (longs != null)
+						longs[id] = value.longValue();
+					if (doubles != null)
+						doubles[id] = value.doubleValue();
+					read++;
+				}
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * Retrieve several attributes, issuing one getAttributes round trip per
+	 * distinct MBean instead of one per attribute.
+	 * 
+	 * @param attributes
+	 *            (ObjectName, attribute) pairs to read
+	 * @return values keyed by the requested pair, attributes the server could
+	 *         not read are absent
+	 */
+	public Map<MBeanAttribute, Object> getAttributes(Collection<MBeanAttribute> attributes) {
+		Map<ObjectName, List<String>> byBean = new LinkedHashMap<ObjectName, List<String>>();
+		for (MBeanAttribute attribute : attributes) {
+			List<String> names = byBean.get(attribute.getObjectName());
+			if (names == null) {
+				names = new ArrayList<String>();
+				byBean.put(attribute.getObjectName(), names);
+			}
+			if (!names.contains(attribute.getAttribute()))
+				names.add(attribute.getAttribute());
+		}
+
+		Map<MBeanAttribute, Object> values = new LinkedHashMap<MBeanAttribute, Object>(attributes.size() * 2);
+		for (Map.Entry<ObjectName, List<String>> entry : byBean.entrySet()) {
+			ObjectName oName = entry.getKey();
+			List<String> names = entry.getValue();
+			try {
+				AttributeList list = mbeanServerConn.getAttributes(oName, names.toArray(new String[names.size()]));
+				for (Attribute attribute : list.asList())
+					values.put(new MBeanAttribute(oName, attribute.getName()), attribute.getValue());
+			} catch (InstanceNotFoundException e) {
+				// bean not registered on this node, e.g. a dropped table
+			} catch (ReflectionException e) {
+				failed = true;
+				throw Throwables.propagate(e);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return values;
+	}
+
+	private Object getAttribute(ObjectName oName, String attribute) {
+		try {
+			return mbeanServerConn.getAttribute(oName, attribute);
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Set<ObjectName> queryNames(String pattern) {
+		return queryNames(objectName(pattern));
+	}
+
+	private Set<ObjectName> queryNames(ObjectName pattern) {
+		try {
+			return mbeanServerConn.queryNames(pattern, null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static ObjectName objectName(String name) {
+		try {
+			return new ObjectName(name);
+		} catch (MalformedObjectNameException e) {
+			throw new RuntimeException("Invalid ObjectName? Please report this as a bug.", e);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package org.jmxcassandra;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Keeps connected JmxConnect instances per node so that repeated commands
+ * skip the JNDI lookup, RMI handshake and SSL negotiation. Idle connections
+ * are health checked in the background and before reuse when they have been
+ * idle for a while; a broken connection is closed and replaced by a new one
+ * on the next borrow.
+ * <p>
+ * Connections are only handed out again for the same node, credentials and
+ * timeouts they were opened with. Credentials are kept in the pool as a
+ * digest salted per pool.
+ */
+public class JmxConnectPool implements AutoCloseable {
+	static final long VALIDATE_AFTER_IDLE_MILLIS = 5000;
+	static final long HEALTH_CHECK_MILLIS = 30000;
+
+	private final int maxIdlePerNode;
+	private final long validateAfterIdleMillis;
+	private final byte[] salt = new byte[16];
+	private final Map<String, Deque<Idle>> idle = new HashMap<String, Deque<Idle>>();
+	private final Map<JmxConnect, String> borrowed = new IdentityHashMap<JmxConnect, String>();
+	private final ScheduledExecutorService healthCheck;
+	private boolean closed;
+
+	public JmxConnectPool(int maxIdlePerNode) {
+		this(maxIdlePerNode, VALIDATE_AFTER_IDLE_MILLIS, HEALTH_CHECK_MILLIS);
+	}
+
+	/**
+	 * @param validateAfterIdleMillis
+	 *            idle time after which a connection is pinged before it is
+	 *            handed out again
+	 * @param healthCheckMillis
+	 *            interval at which every idle connection is pinged
+	 */
+	public JmxConnectPool(int maxIdlePerNode, long validateAfterIdleMillis, long healthCheckMillis) {
+		this.maxIdlePerNode = maxIdlePerNode;
+		this.validateAfterIdleMillis = validateAfterIdleMillis;
+		new SecureRandom().nextBytes(salt);
+		this.healthCheck = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "cassmon-pool-health");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		healthCheck.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictBroken();
+			}
+		}, healthCheckMillis, healthCheckMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Hands out an idle connection to the node, or opens a new one.
+	 *
+	 * @param username
+	 *            empty or null for an unauthenticated agent
+	 * @throws IOException
+	 *             when a new connection cannot be opened
+	 */
+	public JmxConnect borrow(String host, int port, String username, String password) throws IOException {
+		return borrow(host, port, username, password, JmxConnect.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+				JmxConnect.DEFAULT_READ_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Hands out an idle connection opened with the same credentials and
+	 * timeouts, or opens a new one.
+	 *
+	 * @see JmxConnect#JmxConnect(String, int, String, String, int, int)
+	 */
+	public JmxConnect borrow(String host, int port, String username, String password, int connectTimeoutMillis,
+			int readTimeoutMillis) throws IOException {
+		String key = key(host, port, username, password, connectTimeoutMillis, readTimeoutMillis);
+		while (true) {
+			Idle candidate;
+			synchronized (this) {
+				if (closed)
+					throw new IllegalStateException("pool is closed");
+				Deque<Idle> connections = idle.get(key);
+				candidate = connections == null ? null : connections.pollFirst();
+				if (candidate != null)
+					borrowed.put(candidate.jmxConnect, key);
+			}
+			if (candidate == null)
+				break;
+
+			boolean stale = System.currentTimeMillis() - candidate.since >= validateAfterIdleMillis;
+			if (!stale || candidate.jmxConnect.isAlive())
+				return candidate.jmxConnect;
+			release(candidate.jmxConnect, true);
+		}
+
+		JmxConnect jmxConnect = new JmxConnect(host, port, username, password, connectTimeoutMillis,
+				readTimeoutMillis);
+		synchronized (this) {
+			borrowed.put(jmxConnect, key);
+		}
+		return jmxConnect;
+	}
+
+	/**
+	 * Returns a borrowed connection.
+	 *
+	 * @param broken
+	 *            true when the caller saw the connection fail, it is then
+	 *            closed instead of being reused
+	 */
+	public void release(JmxConnect jmxConnect, boolean broken) {
+		synchronized (this) {
+			String key = borrowed.remove(jmxConnect);
+			if (key == null)
+				throw new IllegalArgumentException("connection was not borrowed from this pool");
+
+			if (!broken && !closed && !jmxConnect.isFailed()) {
+				Deque<Idle> connections = idle.get(key);
+				if (connections == null) {
+					connections = new ArrayDeque<Idle>();
+					idle.put(key, connections);
+				}
+				if (connections.size() < maxIdlePerNode) {
+					connections.addFirst(new Idle(jmxConnect));
+					return;
+				}
+			}
+		}
+		closeQuietly(jmxConnect);
+	}
+
+	public synchronized int idleCount() {
+		int count = 0;
+		for (Deque<Idle> connections : idle.values())
+			count += connections.size();
+		return count;
+	}
+
+	/**
+	 * Pings every idle connection and closes the ones that no longer answer.
+	 */
+	void evictBroken() {
+		List<Idle> candidates = new ArrayList<Idle>();
+		synchronized (this) {
+			for (Deque<Idle> connections : idle.values())
+				candidates.addAll(connections);
+		}
+
+		for (Idle candidate : candidates) {
+			if (candidate.jmxConnect.isAlive())
+				continue;
+
+			boolean removed = false;
+			synchronized (this) {
+				for (Iterator<Deque<Idle>> it = idle.values().iterator(); it.hasNext();) {
+					Deque<Idle> connections = it.next();
+					removed |= connections.remove(candidate);
+					if (connections.isEmpty())
+						it.remove();
+				}
+			}
+			if (removed)
+				closeQuietly(candidate.jmxConnect);
+		}
+	}
+
+	@Override
+	public void close() {
+		List<Idle> connections = new ArrayList<Idle>();
+		synchronized (this) {
+			closed = true;
+			for (Deque<Idle> node : idle.values())
+				connections.addAll(node);
+			idle.clear();
+		}
+		healthCheck.shutdownNow();
+		for (Idle connection : connections)
+			closeQuietly(connection.jmxConnect);
+	}
+
+	private String key(String host, int port, String username, String password, int connectTimeoutMillis,
+			int readTimeoutMillis) {
+		String credentials = username == null || username.isEmpty() ? ""
+				: Hashing.sha256().newHasher().putBytes(salt).putString(username, StandardCharsets.UTF_8).putByte((byte) 0)
+						.putString(password == null ? "" : password, StandardCharsets.UTF_8).hash().toString();
+		return host + ":" + port + ":" + credentials + ":" + connectTimeoutMillis + ":" + readTimeoutMillis;
+	}
+
+	private static void closeQuietly(JmxConnect jmxConnect) {
+		try {
+			jmxConnect.close();
+		} catch (IOException e) {
+			// already broken
+		}
+	}
+
+	private static final class Idle {
+		final JmxConnect jmxConnect;
+		final long since = System.currentTimeMillis();
+
+		Idle(JmxConnect jmxConnect) {
+			this.jmxConnect = jmxConnect;
+		}
+	}
+}
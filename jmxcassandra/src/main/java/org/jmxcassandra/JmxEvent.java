@@ -0,0 +1,93 @@
+package org.jmxcassandra;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+import javax.management.Notification;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * A notification received from a node, reduced to what is printed of it so
+ * that the remote objects can be let go as soon as it is queued.
+ */
+public final class JmxEvent {
+	private final String node;
+	private final long timestamp;
+	private final String type;
+	private final String source;
+	private final String message;
+
+	public JmxEvent(String node, long timestamp, String type, String source, String message) {
+		this.node = node;
+		this.timestamp = timestamp;
+		this.type = type;
+		this.source = source;
+		this.message = message;
+	}
+
+	/**
+	 * Describes a notification: garbage collections by their collector,
+	 * cause and duration, every other notification by its message and user
+	 * data.
+	 */
+	public static JmxEvent of(String node, Notification notification) {
+		String source = String.valueOf(notification.getSource());
+		String message = notification.getMessage();
+		Object data = notification.getUserData();
+		if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())
+				&& data instanceof CompositeData) {
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) data);
+			source = info.getGcName();
+			message = String.format("%s #%d, %d ms, %s", info.getGcAction(), info.getGcInfo().getId(),
+					info.getGcInfo().getDuration(), info.getGcCause());
+		} else if (data != null) {
+			String text = data.getClass().isArray() ? arrayToString(data) : String.valueOf(data);
+			message = message == null || message.isEmpty() ? text : message + " " + text;
+		}
+		return new JmxEvent(node, notification.getTimeStamp(), notification.getType(), source, message);
+	}
+
+	private static String arrayToString(Object array) {
+		Object[] values = new Object[Array.getLength(array)];
+		for (int i = 0; i < values.length; i++)
+			values[i] = Array.get(array, i);
+		return Arrays.toString(values);
+	}
+
+	public String getNode() {
+		return node;
+	}
+
+	/**
+	 * @return milliseconds since the epoch, as set by the node
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return e.g. com.sun.management.gc.notification, progress or repair
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return the MBean that sent the notification, or the collector of a
+	 *         garbage collection
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return node + " " + type + " " + source + ": " + message;
+	}
+}
@@ -0,0 +1,128 @@
+package org.jmxcassandra;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes every sample of a node as one JSON object, {"timestamp": ..., "node":
+ * ..., label: value, ...}, with the raw values read over JMX rather than their
+ * formatted text. Values are escaped straight into a buffered writer, which
+ * is flushed once per record.
+ * <p>
+ * As NDJSON every record is a line of its own; as JSON the records form an
+ * array that is closed once the command ends.
+ */
+final class JsonPrinter extends MetricPrinter {
+	private final Writer out;
+	private final boolean array;
+	private int records;
+
+	JsonPrinter(OutputStream out, boolean array) {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		this.array = array;
+	}
+
+	@Override
+	public void begin(String node, long timestamp) {
+		try {
+			if (array)
+				out.write(records == 0 ? "[\n" : ",\n");
+			out.write("{\"timestamp\":");
+			out.write(Long.toString(timestamp));
+			out.write(",\"node\":");
+			string(node);
+			records++;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void print(String label, Object value, String text) {
+		try {
+			out.write(',');
+			string(label);
+			out.write(':');
+			value(value);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void end() {
+		try {
+			out.write('}');
+			if (!array)
+				out.write('\n');
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!array)
+			return;
+		try {
+			out.write(records == 0 ? "[]\n" : "\n]\n");
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void value(Object value) throws IOException {
+		if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				out.write("null");
+			else
+				out.write(value.toString());
+		} else if (value instanceof Number || value instanceof Boolean) {
+			out.write(value.toString());
+		} else if (value == null) {
+			out.write("null");
+		} else {
+			string(value.toString());
+		}
+	}
+
+	private void string(String s) throws IOException {
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.write("\\u00");
+					out.write(Character.forDigit(c >> 4, 16));
+					out.write(Character.forDigit(c & 0xf, 16));
+				} else {
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+}
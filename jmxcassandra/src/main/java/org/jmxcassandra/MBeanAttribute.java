@@ -0,0 +1,50 @@
+package org.jmxcassandra;
+
+import javax.management.ObjectName;
+
+/**
+ * A single attribute of a remote MBean, used to request several attributes
+ * in one round trip through {@link JmxConnect#getAttributes(java.util.Collection)}.
+ */
+public final class MBeanAttribute {
+
+	private final ObjectName objectName;
+	private final String attribute;
+
+	public MBeanAttribute(ObjectName objectName, String attribute) {
+		if (objectName == null || attribute == null)
+			throw new IllegalArgumentException("objectName and attribute are required");
+
+		this.objectName = objectName;
+		this.attribute = attribute;
+	}
+
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+
+	public String getAttribute() {
+		return attribute;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof MBeanAttribute))
+			return false;
+
+		MBeanAttribute that = (MBeanAttribute) o;
+		return objectName.equals(that.objectName) && attribute.equals(that.attribute);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * objectName.hashCode() + attribute.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return objectName + "/" + attribute;
+	}
+}
@@ -0,0 +1,58 @@
+package org.jmxcassandra;
+
+import javax.management.JMX;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of MBean proxies for {@link Metric}s, so that polling the same
+ * metric repeatedly does not rebuild its reflection proxy. Proxies are keyed by
+ * the ObjectName the metric keeps for itself, and a metrics-core MBean has a
+ * single kind, so a lookup allocates nothing. Least recently used proxies are
+ * evicted once the cache holds more than {@code cassmon.proxycache.size}
+ * entries.
+ */
+final class MBeanProxyCache {
+	static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+	private final MBeanServerConnection mbeanServerConn;
+	private final Cache<ObjectName, Object> proxies;
+
+	MBeanProxyCache(MBeanServerConnection mbeanServerConn) {
+		this(mbeanServerConn, Integer.getInteger("cassmon.proxycache.size", DEFAULT_MAXIMUM_SIZE));
+	}
+
+	MBeanProxyCache(MBeanServerConnection mbeanServerConn, int maximumSize) {
+		this.mbeanServerConn = mbeanServerConn;
+		this.proxies = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+	}
+
+	/**
+	 * Proxy for a node wide metric
+	 */
+	Object get(Metric metric) {
+		return get(metric, null, null);
+	}
+
+	/**
+	 * Proxy for a table metric, or a node wide metric when keyspace is null.
+	 * 
+	 * @return an instance of the metric kind's MBean interface
+	 */
+	Object get(Metric metric, String keyspace, String table) {
+		ObjectName oName = keyspace == null ? metric.getObjectName() : metric.getObjectName(keyspace, table);
+		Object proxy = proxies.getIfPresent(oName);
+		if (proxy == null) {
+			proxy = JMX.newMBeanProxy(mbeanServerConn, oName, metric.getKind().getMBeanInterface());
+			proxies.put(oName, proxy);
+		}
+		return proxy;
+	}
+
+	long size() {
+		return proxies.size();
+	}
+}
@@ -0,0 +1,208 @@
+package org.jmxcassandra;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Describes one metric: the MBean it is read from, its {@link MetricKind} and
+ * its unit. The ObjectName of node wide metrics is built once; table metrics
+ * build theirs the first time a table is read and keep it, so that polling
+ * the same tables parses no ObjectName. Descriptors are obtained from
+ * {@link MetricCatalog}.
+ */
+public final class Metric {
+	static final String DOMAIN = "org.apache.cassandra.metrics";
+
+	public enum Unit {
+		NONE, COUNT, BYTES, NANOSECONDS, MICROSECONDS, MILLISECONDS, RATIO;
+
+		/**
+		 * @return a value of this unit in milliseconds, unchanged when this is
+		 *         not a unit of time
+		 */
+		public double toMillis(double value) {
+			switch (this) {
+			case NANOSECONDS:
+				return value / 1e6;
+			case MICROSECONDS:
+				return value / 1e3;
+			default:
+				return value;
+			}
+		}
+	}
+
+	private final String group;
+	private final String scope;
+	private final String name;
+	private final MetricKind kind;
+	private final Unit unit;
+	private final ObjectName objectName;
+	private final String attribute;
+	private final String[] attributes;
+	/** ",name=..." ending the ObjectName of a table metric */
+	private final String tableSuffix;
+	/** ObjectNames of a table metric per keyspace, then per table */
+	private final ConcurrentMap<String, ConcurrentMap<String, ObjectName>> tableNames;
+
+	private Metric(String group, String scope, String name, MetricKind kind, Unit unit, ObjectName objectName, String attribute,
+			String[] attributes, String tableSuffix) {
+		this.group = group;
+		this.scope = scope;
+		this.name = name;
+		this.kind = kind;
+		this.unit = unit;
+		this.objectName = objectName;
+		this.attribute = attribute;
+		this.attributes = attributes;
+		this.tableSuffix = tableSuffix;
+		this.tableNames = tableSuffix == null ? null
+				: new ConcurrentHashMap<String, ConcurrentMap<String, ObjectName>>();
+	}
+
+	/**
+	 * org.apache.cassandra.metrics:type=<i>group</i>,name=<i>name</i>
+	 */
+	public static Metric node(String group, String name, MetricKind kind, Unit unit) {
+		if (kind == MetricKind.ATTRIBUTE)
+			throw new IllegalArgumentException("metrics-core metrics have no plain attributes");
+		return new Metric(group, null, name, kind, unit, objectName(DOMAIN + ":type=" + group + ",name=" + name),
+				kind.getValueAttribute(), kind.getAttributes(), null);
+	}
+
+	/**
+	 * org.apache.cassandra.metrics:type=<i>group</i>,scope=<i>scope</i>,name=<i>name</i>,
+	 * e.g. the ClientRequest metrics of one request type.
+	 */
+	public static Metric scoped(String group, String scope, String name, MetricKind kind, Unit unit) {
+		if (kind == MetricKind.ATTRIBUTE)
+			throw new IllegalArgumentException("metrics-core metrics have no plain attributes");
+		return new Metric(group, scope, name, kind, unit, objectName(DOMAIN + ":type=" + group + ",scope=" + scope
+				+ ",name=" + name), kind.getValueAttribute(), kind.getAttributes(), null);
+	}
+
+	/**
+	 * org.apache.cassandra.metrics:type=ColumnFamily,keyspace=...,scope=...,name=<i>name</i>,
+	 * or IndexColumnFamily for secondary index tables.
+	 */
+	public static Metric table(String name, MetricKind kind, Unit unit) {
+		if (kind == MetricKind.ATTRIBUTE)
+			throw new IllegalArgumentException("metrics-core metrics have no plain attributes");
+		return new Metric("ColumnFamily", null, name, kind, unit, null, kind.getValueAttribute(), kind.getAttributes(),
+				",name=" + name);
+	}
+
+	/**
+	 * A plain attribute of any MBean, grouped under the MBean's type.
+	 */
+	public static Metric attribute(String objectName, String attribute, Unit unit) {
+		ObjectName oName = objectName(objectName);
+		return new Metric(oName.getKeyProperty("type"), null, attribute, MetricKind.ATTRIBUTE, unit, oName, attribute,
+				new String[] { attribute }, null);
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	/**
+	 * @return the scope of a scoped metric, null for others
+	 */
+	public String getScope() {
+		return scope;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return group.name, e.g. Compaction.PendingTasks, or group.scope.name
+	 *         for a scoped metric, e.g. ClientRequest.Read.Latency
+	 */
+	public String getQualifiedName() {
+		return scope == null ? group + "." + name : group + "." + scope + "." + name;
+	}
+
+	public MetricKind getKind() {
+		return kind;
+	}
+
+	public Unit getUnit() {
+		return unit;
+	}
+
+	public boolean isTableMetric() {
+		return tableSuffix != null;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             for a table metric, which needs its table
+	 */
+	public ObjectName getObjectName() {
+		if (objectName == null)
+			throw new IllegalStateException(getQualifiedName() + " is read per table");
+		return objectName;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             for a node wide metric
+	 */
+	public ObjectName getObjectName(String keyspace, String table) {
+		if (tableSuffix == null)
+			throw new IllegalStateException(getQualifiedName() + " is not read per table");
+		ConcurrentMap<String, ObjectName> names = tableNames.get(keyspace);
+		if (names == null) {
+			names = new ConcurrentHashMap<String, ObjectName>();
+			ConcurrentMap<String, ObjectName> raced = tableNames.putIfAbsent(keyspace, names);
+			if (raced != null)
+				names = raced;
+		}
+		ObjectName name = names.get(table);
+		if (name == null) {
+			String type = table.indexOf('.') >= 0 ? "IndexColumnFamily" : "ColumnFamily";
+			name = objectName(DOMAIN + ":type=" + type + ",keyspace=" + keyspace + ",scope=" + table + tableSuffix);
+			ObjectName raced = names.putIfAbsent(table, name);
+			if (raced != null)
+				name = raced;
+		}
+		return name;
+	}
+
+	/**
+	 * @return the attribute holding the value, see
+	 *         {@link MetricKind#getValueAttribute()}
+	 */
+	public String getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * @return every attribute of a sample
+	 */
+	public String[] getAttributes() {
+		return attributes.clone();
+	}
+
+	String[] attributes() {
+		return attributes;
+	}
+
+	@Override
+	public String toString() {
+		return getQualifiedName();
+	}
+
+	private static ObjectName objectName(String name) {
+		try {
+			return new ObjectName(name);
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException("Invalid ObjectName " + name, e);
+		}
+	}
+}
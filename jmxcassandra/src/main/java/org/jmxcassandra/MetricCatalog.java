@@ -0,0 +1,148 @@
+package org.jmxcassandra;
+
+import static org.jmxcassandra.Metric.Unit.BYTES;
+import static org.jmxcassandra.Metric.Unit.COUNT;
+import static org.jmxcassandra.Metric.Unit.MICROSECONDS;
+import static org.jmxcassandra.Metric.Unit.NANOSECONDS;
+import static org.jmxcassandra.Metric.Unit.NONE;
+import static org.jmxcassandra.Metric.Unit.RATIO;
+import static org.jmxcassandra.MetricKind.COUNTER;
+import static org.jmxcassandra.MetricKind.GAUGE;
+import static org.jmxcassandra.MetricKind.HISTOGRAM;
+import static org.jmxcassandra.MetricKind.METER;
+import static org.jmxcassandra.MetricKind.TIMER;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Every metric cassmon knows how to read, by group and name, as exposed by
+ * Cassandra 2.1 and the JVM. Commands and exporters look their metrics up
+ * here, so that a misspelt name fails before any node is contacted and a new
+ * metric only needs to be registered.
+ */
+public final class MetricCatalog {
+	private static final String OPERATING_SYSTEM = "java.lang:type=OperatingSystem";
+	/** request types the coordinator keeps ClientRequest metrics for */
+	public static final String[] CLIENT_REQUEST_SCOPES = { "Read", "Write", "RangeSlice", "CASRead", "CASWrite" };
+	private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+	static {
+		for (String name : new String[] { "BloomFilterFalsePositives", "EstimatedRowCount", "MemtableColumnsCount",
+				"RecentBloomFilterFalsePositives", "LiveSSTableCount" })
+			register(Metric.table(name, GAUGE, COUNT));
+		for (String name : new String[] { "BloomFilterDiskSpaceUsed", "BloomFilterOffHeapMemoryUsed",
+				"IndexSummaryOffHeapMemoryUsed", "CompressionMetadataOffHeapMemoryUsed", "MaxRowSize", "MeanRowSize",
+				"MemtableLiveDataSize", "MemtableOffHeapSize", "MinRowSize", "SnapshotsSize" })
+			register(Metric.table(name, GAUGE, BYTES));
+		for (String name : new String[] { "BloomFilterFalseRatio", "CompressionRatio", "KeyCacheHitRate",
+				"RecentBloomFilterFalseRatio" })
+			register(Metric.table(name, GAUGE, RATIO));
+		register(Metric.table("EstimatedColumnCountHistogram", GAUGE, NONE));
+		register(Metric.table("EstimatedRowSizeHistogram", GAUGE, NONE));
+
+		register(Metric.table("LiveDiskSpaceUsed", COUNTER, BYTES));
+		register(Metric.table("TotalDiskSpaceUsed", COUNTER, BYTES));
+		register(Metric.table("MemtableSwitchCount", COUNTER, COUNT));
+		register(Metric.table("SpeculativeRetries", COUNTER, COUNT));
+		register(Metric.table("PendingFlushes", COUNTER, COUNT));
+		register(Metric.table("ReadTotalLatency", COUNTER, MICROSECONDS));
+		register(Metric.table("WriteTotalLatency", COUNTER, MICROSECONDS));
+
+		for (String name : new String[] { "ReadLatency", "WriteLatency", "CoordinatorReadLatency",
+				"CoordinatorScanLatency" })
+			register(Metric.table(name, TIMER, MICROSECONDS));
+		for (String name : new String[] { "LiveScannedHistogram", "SSTablesPerReadHistogram",
+				"TombstoneScannedHistogram" })
+			register(Metric.table(name, HISTOGRAM, COUNT));
+
+		register(Metric.node("Compaction", "BytesCompacted", COUNTER, BYTES));
+		register(Metric.node("Compaction", "CompletedTasks", GAUGE, COUNT));
+		register(Metric.node("Compaction", "PendingTasks", GAUGE, COUNT));
+		register(Metric.node("Compaction", "TotalCompactionsCompleted", METER, COUNT));
+
+		register(Metric.node("Client", "connectedNativeClients", GAUGE, COUNT));
+		register(Metric.node("Client", "connectedThriftClients", GAUGE, COUNT));
+
+		for (String scope : CLIENT_REQUEST_SCOPES) {
+			register(Metric.scoped("ClientRequest", scope, "Latency", TIMER, MICROSECONDS));
+			register(Metric.scoped("ClientRequest", scope, "TotalLatency", COUNTER, MICROSECONDS));
+			for (String name : new String[] { "Timeouts", "Unavailables", "Failures" })
+				register(Metric.scoped("ClientRequest", scope, name, METER, COUNT));
+		}
+
+		register(Metric.node("Storage", "Load", COUNTER, BYTES));
+		register(Metric.node("Storage", "Exceptions", COUNTER, COUNT));
+		register(Metric.node("Storage", "TotalHints", COUNTER, COUNT));
+		register(Metric.node("Storage", "TotalHintsInProgress", COUNTER, COUNT));
+
+		for (String name : new String[] { "ProcessCpuLoad", "SystemCpuLoad" })
+			register(Metric.attribute(OPERATING_SYSTEM, name, RATIO));
+		for (String name : new String[] { "SystemLoadAverage", "Arch", "Name", "Version" })
+			register(Metric.attribute(OPERATING_SYSTEM, name, NONE));
+		register(Metric.attribute(OPERATING_SYSTEM, "ProcessCpuTime", NANOSECONDS));
+		for (String name : new String[] { "AvailableProcessors", "MaxFileDescriptorCount",
+				"OpenFileDescriptorCount" })
+			register(Metric.attribute(OPERATING_SYSTEM, name, COUNT));
+		for (String name : new String[] { "FreePhysicalMemorySize", "TotalPhysicalMemorySize", "FreeSwapSpaceSize",
+				"TotalSwapSpaceSize", "CommittedVirtualMemorySize" })
+			register(Metric.attribute(OPERATING_SYSTEM, name, BYTES));
+	}
+
+	private MetricCatalog() {
+	}
+
+	/**
+	 * Adds a metric, or replaces the one of the same group and name.
+	 */
+	public static void register(Metric metric) {
+		metrics.put(metric.getQualifiedName(), metric);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             when the metric is not in the catalog
+	 */
+	public static Metric get(String group, String name) {
+		Metric metric = metrics.get(group + "." + name);
+		if (metric == null)
+			throw new IllegalArgumentException("Unknown metric " + group + "." + name);
+		return metric;
+	}
+
+	/**
+	 * @param qualifiedName
+	 *            group.name, e.g. Compaction.PendingTasks
+	 * @return null when the metric is not in the catalog
+	 */
+	public static Metric find(String qualifiedName) {
+		return metrics.get(qualifiedName);
+	}
+
+	/**
+	 * @see org.apache.cassandra.metrics.ColumnFamilyMetrics
+	 */
+	public static Metric table(String name) {
+		return get("ColumnFamily", name);
+	}
+
+	/**
+	 * @param scope
+	 *            one of {@link #CLIENT_REQUEST_SCOPES}
+	 * @see org.apache.cassandra.metrics.ClientRequestMetrics
+	 */
+	public static Metric clientRequest(String scope, String name) {
+		return get("ClientRequest", scope + "." + name);
+	}
+
+	public static Metric operatingSystem(String name) {
+		return get("OperatingSystem", name);
+	}
+
+	public static Collection<Metric> all() {
+		return Collections.unmodifiableCollection(new ArrayList<Metric>(metrics.values()));
+	}
+}
@@ -0,0 +1,57 @@
+package org.jmxcassandra;
+
+import java.util.Arrays;
+
+import com.yammer.metrics.reporting.JmxReporter;
+
+/**
+ * How a metric is exposed over JMX, which decides the MBean interface to
+ * proxy it with and the attributes to read.
+ */
+public enum MetricKind {
+	GAUGE(JmxReporter.GaugeMBean.class, "Value"),
+	COUNTER(JmxReporter.CounterMBean.class, "Count"),
+	METER(JmxReporter.MeterMBean.class, "Count", "MeanRate", "OneMinuteRate", "FiveMinuteRate", "FifteenMinuteRate"),
+	TIMER(JmxReporter.TimerMBean.class, Distribution.ATTRIBUTES),
+	HISTOGRAM(JmxReporter.HistogramMBean.class,
+			Arrays.copyOf(Distribution.ATTRIBUTES, Distribution.ATTRIBUTES.length - 1)),
+	/** a plain attribute of a platform MBean, e.g. ProcessCpuLoad */
+	ATTRIBUTE(null);
+
+	private final Class<?> mbeanInterface;
+	private final String[] attributes;
+
+	private MetricKind(Class<?> mbeanInterface, String... attributes) {
+		this.mbeanInterface = mbeanInterface;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * @return the metrics-core MBean interface, null for {@link #ATTRIBUTE}
+	 */
+	public Class<?> getMBeanInterface() {
+		return mbeanInterface;
+	}
+
+	/**
+	 * @return the attribute holding the single value of a gauge, counter or
+	 *         meter, the count of a timer or histogram
+	 */
+	String getValueAttribute() {
+		return attributes[0];
+	}
+
+	/**
+	 * @return every attribute of a sample, the value attribute first
+	 */
+	String[] getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return true for timers and histograms, read as a {@link Distribution}
+	 */
+	public boolean isDistribution() {
+		return this == TIMER || this == HISTOGRAM;
+	}
+}
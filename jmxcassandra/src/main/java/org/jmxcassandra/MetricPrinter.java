@@ -0,0 +1,78 @@
+package org.jmxcassandra;
+
+import java.io.PrintStream;
+
+/**
+ * Destination for the values a command reads. Commands hand over both the
+ * raw value, so that it can be aggregated across nodes, and the text a human
+ * should see for it.
+ */
+public abstract class MetricPrinter {
+
+	public void print(String label, Object value) {
+		print(label, value, String.valueOf(value));
+	}
+
+	/**
+	 * @param label
+	 *            human readable metric name, e.g. "Pending Tasks"
+	 * @param value
+	 *            raw value as read over JMX, may be null
+	 * @param text
+	 *            formatted value, e.g. "1.2 GB"
+	 */
+	public abstract void print(String label, Object value, String text);
+
+	/**
+	 * Starts the values of one sample of one node. Printers writing records
+	 * for machine consumption group the values printed until {@link #end()}.
+	 *
+	 * @param timestamp
+	 *            milliseconds since the epoch
+	 */
+	public void begin(String node, long timestamp) {
+	}
+
+	/**
+	 * Ends the record started by {@link #begin(String, long)}.
+	 */
+	public void end() {
+	}
+
+	/**
+	 * Called once after the last record.
+	 */
+	public void close() {
+	}
+
+	/**
+	 * @param format
+	 *            table, json, ndjson or csv
+	 */
+	public static MetricPrinter forFormat(String format, PrintStream out) {
+		switch (format) {
+		case "table":
+			return to(out);
+		case "json":
+			return new JsonPrinter(out, true);
+		case "ndjson":
+			return new JsonPrinter(out, false);
+		case "csv":
+			return new CsvPrinter(out);
+		default:
+			throw new IllegalArgumentException("Unknown format '" + format + "', expected table, json, ndjson or csv");
+		}
+	}
+
+	/**
+	 * Printer writing one "label: text" line per metric.
+	 */
+	public static MetricPrinter to(final PrintStream out) {
+		return new MetricPrinter() {
+			@Override
+			public void print(String label, Object value, String text) {
+				out.println(label + ": " + text);
+			}
+		};
+	}
+}
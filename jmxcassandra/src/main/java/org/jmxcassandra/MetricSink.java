@@ -0,0 +1,90 @@
+package org.jmxcassandra;
+
+import java.net.InetSocketAddress;
+
+import com.google.common.net.HostAndPort;
+
+/**
+ * Destination outside of cassmon for the numeric values commands print, such
+ * as a Graphite or InfluxDB server. Values are written as they are sampled
+ * and handed over to the receiver once per sample by {@link #flush()}.
+ */
+public abstract class MetricSink implements AutoCloseable {
+
+	/**
+	 * @param node
+	 *            node the value was read from, e.g. 10.0.0.1:7199
+	 * @param metric
+	 *            label of the value, e.g. "Pending Tasks"
+	 * @param timestamp
+	 *            milliseconds since the epoch
+	 */
+	public abstract void write(String node, String metric, long timestamp, double value);
+
+	/**
+	 * Writes a value read as an integer over JMX. Sinks that tell integers
+	 * from floating point numbers override it, the others get the value as a
+	 * double.
+	 */
+	public void write(String node, String metric, long timestamp, long value) {
+		write(node, metric, timestamp, (double) value);
+	}
+
+	/**
+	 * Ends a sample, sending what was written since the previous flush.
+	 */
+	public abstract void flush();
+
+	/**
+	 * Sends what is left, waiting a little for a slow receiver.
+	 */
+	@Override
+	public abstract void close();
+
+	/**
+	 * @return a printer writing every numeric value to this sink before
+	 *         passing it on to out
+	 */
+	public MetricPrinter recorder(final String node, final long timestamp, final MetricPrinter out) {
+		return new MetricPrinter() {
+			@Override
+			public void print(String label, Object value, String text) {
+				if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+					write(node, label, timestamp, ((Number) value).longValue());
+				else if (value instanceof Number)
+					write(node, label, timestamp, ((Number) value).doubleValue());
+				out.print(label, value, text);
+			}
+		};
+	}
+
+	/**
+	 * @param address
+	 *            graphite://host[:port] for Graphite's plaintext protocol,
+	 *            port 2003 by default, or influx://host[:port] for InfluxDB
+	 *            line protocol over TCP, e.g. to a Telegraf socket_listener,
+	 *            port 8094 by default
+	 * @param prefix
+	 *            first path element in Graphite, measurement in InfluxDB
+	 */
+	public static MetricSink open(String address, String prefix) {
+		int scheme = address.indexOf("://");
+		if (scheme < 0)
+			throw new IllegalArgumentException("Expected graphite://host:port or influx://host:port but got '"
+					+ address + "'");
+		String protocol = address.substring(0, scheme);
+		HostAndPort hostAndPort = HostAndPort.fromString(address.substring(scheme + 3));
+		switch (protocol) {
+		case "graphite":
+			return new GraphiteSink(socketAddress(hostAndPort.withDefaultPort(2003)), prefix);
+		case "influx":
+			return new InfluxSink(socketAddress(hostAndPort.withDefaultPort(8094)), prefix);
+		default:
+			throw new IllegalArgumentException("Unknown sink '" + protocol + "', expected graphite or influx");
+		}
+	}
+
+	private static InetSocketAddress socketAddress(HostAndPort hostAndPort) {
+		return new InetSocketAddress(hostAndPort.getHostText(), hostAndPort.getPort());
+	}
+}
@@ -0,0 +1,382 @@
+package org.jmxcassandra;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Append-only on-disk history of sampled metric values.
+ * <p>
+ * Points are grouped per series into {@link SeriesBlock}s of up to
+ * {@link #BLOCK_POINTS} points, and every full block is appended as one record
+ * to a memory-mapped segment file. Only the time range of every segment is
+ * kept in memory, a range query scans the record headers of the segments
+ * overlapping it. Segment files are rolled at a fixed size
+ * and dropped whole once everything in them is older than the retention.
+ * Blocks still filling up live in memory only and are written on
+ * {@link #flush()} and {@link #close()}, so a killed process loses at most the
+ * last block of every series.
+ * <p>
+ * The directory holds a "series" file mapping series ids to names and the
+ * segment files, named by their sequence number. A directory is written by
+ * one process at a time; within a process, stores opened on the same
+ * directory are shared.
+ */
+public final class MetricStore implements AutoCloseable {
+	public static final int BLOCK_POINTS = 240;
+	public static final int DEFAULT_SEGMENT_SIZE = 8 << 20;
+	public static final long DEFAULT_RETENTION = TimeUnit.DAYS.toMillis(7);
+
+	private static final int MAGIC = 0x43534d31; // CSM1
+	/** magic, end of the last complete record */
+	private static final int HEADER_SIZE = 8;
+	/** series id, point count, first and last timestamp, data length */
+	private static final int RECORD_HEADER_SIZE = 28;
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final Map<File, MetricStore> open = new HashMap<File, MetricStore>();
+
+	/**
+	 * Receives the points of a range query in timestamp order.
+	 */
+	public interface PointVisitor {
+		void point(long timestamp, double value);
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final long retention;
+	private final RandomAccessFile lockFile;
+	private final FileLock lock;
+	private final Writer seriesFile;
+	private final Map<String, Series> series = new HashMap<String, Series>();
+	private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+	private int references;
+
+	private MetricStore(File directory, int segmentSize, long retention, boolean writable) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.retention = retention;
+
+		if (writable) {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Cannot create metric store directory " + directory);
+			lockFile = new RandomAccessFile(new File(directory, "lock"), "rw");
+			lock = lockFile.getChannel().tryLock();
+			if (lock == null) {
+				lockFile.close();
+				throw new IOException("Metric store " + directory + " is in use by another process");
+			}
+		} else {
+			lockFile = null;
+			lock = null;
+		}
+
+		readSeries();
+		seriesFile = writable
+				? new OutputStreamWriter(new FileOutputStream(new File(directory, "series"), true), Charsets.UTF_8)
+				: null;
+		for (File file : directory.listFiles()) {
+			String name = file.getName();
+			if (name.endsWith(SEGMENT_SUFFIX))
+				openSegment(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+		}
+	}
+
+	/**
+	 * Opens the store in directory, creating it if needed, with the default
+	 * segment size and retention.
+	 */
+	public static MetricStore open(File directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_RETENTION);
+	}
+
+	/**
+	 * @param segmentSize
+	 *            size in bytes of every segment file
+	 * @param retention
+	 *            milliseconds of history to keep, older segments are deleted
+	 *            as new ones are started
+	 */
+	public static MetricStore open(File directory, int segmentSize, long retention) throws IOException {
+		File key = directory.getCanonicalFile();
+		synchronized (open) {
+			MetricStore store = open.get(key);
+			if (store == null) {
+				store = new MetricStore(key, segmentSize, retention, true);
+				open.put(key, store);
+			}
+			synchronized (store) {
+				store.references++;
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * Opens the store for reading while another process may be writing to
+	 * it. Only the blocks written when the store is opened are seen.
+	 */
+	public static MetricStore openReadOnly(File directory) throws IOException {
+		MetricStore store = new MetricStore(directory, 0, Long.MAX_VALUE, false);
+		store.references = 1;
+		return store;
+	}
+
+	/**
+	 * Records one point. Timestamps of a series are expected to increase.
+	 */
+	public synchronized void append(String name, long timestamp, double value) throws IOException {
+		if (seriesFile == null)
+			throw new IllegalStateException("Metric store " + directory + " is open read only");
+		Series s = series(name);
+		if (s.open == null)
+			s.open = new SeriesBlock();
+		s.open.append(timestamp, value);
+		if (s.open.count() == BLOCK_POINTS) {
+			write(s, s.open);
+			s.open = null;
+		}
+	}
+
+	/**
+	 * Writes every partially filled block, making all points appended so far
+	 * durable once the operating system flushes the mapped segments.
+	 */
+	public synchronized void flush() throws IOException {
+		for (Series s : series.values()) {
+			if (s.open != null) {
+				write(s, s.open);
+				s.open = null;
+			}
+		}
+	}
+
+	/**
+	 * @return names of every series with points in the store
+	 */
+	public synchronized SortedSet<String> series() {
+		return new TreeSet<String>(series.keySet());
+	}
+
+	/**
+	 * Passes the points of a series with timestamps within [from, to] to the
+	 * visitor, oldest first.
+	 */
+	public synchronized void read(String name, long from, long to, PointVisitor visitor) {
+		Series s = series.get(name);
+		if (s == null)
+			return;
+		for (Segment segment : segments.values()) {
+			if (segment.last < from || segment.first > to)
+				continue;
+			ByteBuffer record = segment.buffer.duplicate();
+			for (int offset = HEADER_SIZE; offset < segment.end; offset = record.position()) {
+				record.position(offset);
+				int id = record.getInt();
+				int count = record.getInt();
+				long first = record.getLong();
+				long last = record.getLong();
+				int length = record.getInt();
+				if (id != s.id || last < from || first > to) {
+					record.position(record.position() + length);
+					continue;
+				}
+				byte[] data = new byte[length];
+				record.get(data);
+				SeriesBlock.decode(data, count, from, to, visitor);
+			}
+		}
+		if (s.open != null && s.open.lastTimestamp() >= from && s.open.firstTimestamp() <= to)
+			SeriesBlock.decode(s.open.toByteArray(), s.open.count(), from, to, visitor);
+	}
+
+	/**
+	 * Closes this reference to the store; the last one flushes the pending
+	 * blocks and releases the directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (open) {
+			synchronized (this) {
+				if (--references > 0)
+					return;
+				if (seriesFile == null)
+					return;
+				open.remove(directory);
+				try {
+					flush();
+					for (Segment segment : segments.values())
+						segment.buffer.force();
+				} finally {
+					seriesFile.close();
+					lock.release();
+					lockFile.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Printer recording every numeric value under "node/label" at timestamp
+	 * before handing it to out.
+	 */
+	public MetricPrinter recorder(final String node, final long timestamp, final MetricPrinter out) {
+		return new MetricPrinter() {
+			@Override
+			public void print(String label, Object value, String text) {
+				if (value instanceof Number) {
+					try {
+						append(node + "/" + label, timestamp, ((Number) value).doubleValue());
+					} catch (IOException e) {
+						throw new RuntimeException("Failed to record " + label + " in " + directory, e);
+					}
+				}
+				out.print(label, value, text);
+			}
+		};
+	}
+
+	private Series series(String name) throws IOException {
+		Series s = series.get(name);
+		if (s == null) {
+			s = new Series(series.size());
+			seriesFile.write(s.id + "\t" + name + "\n");
+			seriesFile.flush();
+			series.put(name, s);
+		}
+		return s;
+	}
+
+	private void readSeries() throws IOException {
+		File file = new File(directory, "series");
+		if (!file.exists())
+			return;
+		for (String line : Files.readLines(file, Charsets.UTF_8)) {
+			int tab = line.indexOf('\t');
+			if (tab < 0)
+				continue; // torn last line
+			series.put(line.substring(tab + 1), new Series(Integer.parseInt(line.substring(0, tab))));
+		}
+	}
+
+	private void write(Series s, SeriesBlock block) {
+		byte[] data = block.toByteArray();
+		int size = RECORD_HEADER_SIZE + data.length;
+		Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+		if (segment == null || segment.end + size > segmentSize)
+			segment = startSegment(block.firstTimestamp());
+
+		ByteBuffer buffer = segment.buffer;
+		int offset = segment.end;
+		buffer.position(offset);
+		buffer.putInt(s.id).putInt(block.count()).putLong(block.firstTimestamp()).putLong(block.lastTimestamp())
+				.putInt(data.length).put(data);
+		// publish the record only once it is complete
+		segment.end = buffer.position();
+		buffer.putInt(4, segment.end);
+
+		segment.include(block.firstTimestamp(), block.lastTimestamp());
+	}
+
+	private Segment startSegment(long now) {
+		for (Segment old : new ArrayList<Segment>(segments.values())) {
+			if (old.last >= now - retention)
+				break;
+			segments.remove(old.number);
+			if (!segmentFile(old.number).delete())
+				throw new IllegalStateException("Cannot delete expired segment " + segmentFile(old.number));
+		}
+		int number = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+		Segment segment;
+		try {
+			segment = map(number);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create segment " + segmentFile(number), e);
+		}
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(4, HEADER_SIZE);
+		segment.end = HEADER_SIZE;
+		segments.put(number, segment);
+		return segment;
+	}
+
+	private void openSegment(int number) throws IOException {
+		Segment segment = map(number);
+		ByteBuffer buffer = segment.buffer;
+		if (buffer.getInt(0) != MAGIC)
+			throw new IOException(segmentFile(number) + " is not a metric store segment");
+		segment.end = buffer.getInt(4);
+		for (int offset = HEADER_SIZE; offset < segment.end;) {
+			buffer.position(offset + 8);
+			long first = buffer.getLong();
+			long last = buffer.getLong();
+			segment.include(first, last);
+			offset += RECORD_HEADER_SIZE + buffer.getInt();
+		}
+		segments.put(number, segment);
+	}
+
+	private Segment map(int number) throws IOException {
+		boolean writable = seriesFile != null;
+		RandomAccessFile file = new RandomAccessFile(segmentFile(number), writable ? "rw" : "r");
+		try {
+			// the mapping stays valid once the channel is closed
+			return new Segment(number, file.getChannel().map(
+					writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0,
+					Math.max(segmentSize, file.length())));
+		} finally {
+			file.close();
+		}
+	}
+
+	private File segmentFile(int number) {
+		return new File(directory, String.format("%08d%s", number, SEGMENT_SUFFIX));
+	}
+
+	private static final class Series {
+		final int id;
+		SeriesBlock open;
+
+		Series(int id) {
+			this.id = id;
+		}
+	}
+
+	private static final class Segment {
+		final int number;
+		final MappedByteBuffer buffer;
+		int end;
+		/** time range covered by the records of the segment */
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+
+		Segment(int number, MappedByteBuffer buffer) {
+			this.number = number;
+			this.buffer = buffer;
+		}
+
+		void include(long from, long to) {
+			first = Math.min(first, from);
+			last = Math.max(last, to);
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package org.jmxcassandra;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Throwables;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the metrics JmxConnect can read in the Prometheus text exposition
+ * format. Metrics are read on a background schedule and scrapes are answered
+ * from the last snapshot, so the number of scrapers never changes the load put
+ * on the node's JMX agent.
+ */
+public class PrometheusExporter implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(PrometheusExporter.class);
+
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final String[] compactionMetrics = { "BytesCompacted", "CompletedTasks", "PendingTasks",
+			"TotalCompactionsCompleted" };
+	private static final String[] clientMetrics = { "connectedNativeClients", "connectedThriftClients" };
+	private static final String[] storageMetrics = { "Load", "Exceptions", "TotalHints", "TotalHintsInProgress" };
+	private static final String[] operatingSystemMetrics = { "ProcessCpuLoad", "SystemCpuLoad", "SystemLoadAverage",
+			"ProcessCpuTime", "AvailableProcessors", "FreePhysicalMemorySize", "TotalPhysicalMemorySize",
+			"FreeSwapSpaceSize", "TotalSwapSpaceSize", "OpenFileDescriptorCount", "MaxFileDescriptorCount" };
+	private static final String[] tableMetrics = { "LiveSSTableCount", "MemtableLiveDataSize", "MemtableColumnsCount",
+			"EstimatedRowCount", "MaxRowSize", "MeanRowSize", "BloomFilterFalseRatio", "KeyCacheHitRate",
+			"SnapshotsSize", "CompressionRatio", "LiveDiskSpaceUsed", "TotalDiskSpaceUsed", "MemtableSwitchCount",
+			"ReadTotalLatency", "WriteTotalLatency", "PendingFlushes" };
+	private static final String[] tableTimers = { "ReadLatency", "WriteLatency", "CoordinatorReadLatency",
+			"CoordinatorScanLatency" };
+	/** quantiles of the first {@link Distribution#getValues()} */
+	private static final String[] QUANTILES = { "0.5", "0.75", "0.95", "0.98", "0.99", "0.999" };
+
+	private final JmxConnect jmxConnect;
+	private final List<String[]> tables;
+	private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+	private HttpServer server;
+
+	private String lastMetrics = "";
+	private volatile byte[] snapshot = new byte[0];
+
+	/**
+	 * @param tables
+	 *            (keyspace, table) pairs to export column family metrics for,
+	 *            empty to export every table discovered at each refresh
+	 */
+	public PrometheusExporter(JmxConnect jmxConnect, List<String[]> tables) {
+		this.jmxConnect = jmxConnect;
+		this.tables = tables;
+	}
+
+	/**
+	 * Takes the first snapshot, then starts refreshing it every refreshMillis
+	 * and serving it on http://address/metrics.
+	 */
+	public void start(InetSocketAddress address, long refreshMillis) throws IOException {
+		refresh();
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		}, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+
+		server = HttpServer.create(address, 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = snapshot;
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		server.setExecutor(Executors.newSingleThreadExecutor());
+		server.start();
+	}
+
+	@Override
+	public void close() {
+		if (server != null)
+			server.stop(0);
+		refresher.shutdownNow();
+	}
+
+	byte[] snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Reads every exported metric and swaps in the new snapshot. A failed read
+	 * keeps serving the previous values and flags the failure in
+	 * cassmon_scrape_success.
+	 */
+	void refresh() {
+		long start = System.nanoTime();
+		Exposition exposition = new Exposition();
+		boolean success = true;
+		try {
+			write(exposition);
+		} catch (RuntimeException e) {
+			Throwable rootCause = Throwables.getRootCause(e);
+			logger.warn("metrics refresh failed - {}: {}", rootCause.getClass().getSimpleName(),
+					rootCause.getMessage());
+			success = false;
+		}
+
+		Exposition meta = new Exposition();
+		meta.family("cassmon_scrape_success", "gauge").sample("cassmon_scrape_success", null, success ? 1 : 0);
+		meta.family("cassmon_scrape_duration_seconds", "gauge").sample("cassmon_scrape_duration_seconds", null,
+				(System.nanoTime() - start) / 1e9);
+
+		if (success)
+			lastMetrics = exposition.toString();
+		snapshot = (lastMetrics + meta).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void write(Exposition out) {
+		for (String metric : compactionMetrics)
+			out.gauge("cassandra_compaction_" + snakeCase(metric), jmxConnect.getCompactionMetric(metric));
+
+		for (String metric : clientMetrics)
+			out.gauge("cassandra_client_" + snakeCase(metric), jmxConnect.getConnectedClients(metric));
+
+		for (String metric : storageMetrics)
+			out.gauge("cassandra_storage_" + snakeCase(metric), jmxConnect.getStorageMetric(metric));
+
+		Map<String, Object> os = jmxConnect.getOperatingSystemMetrics(operatingSystemMetrics);
+		for (String metric : operatingSystemMetrics)
+			out.gauge("cassandra_os_" + snakeCase(metric), os.get(metric));
+
+		List<String[]> tables = this.tables.isEmpty() ? jmxConnect.getColumnFamilies(null) : this.tables;
+		tableFamilies(out, tables, tableMetrics);
+
+		// every timer of a table in one round trip, tables without them are left out
+		List<Map<String, Distribution>> timers = jmxConnect.getColumnFamilyDistributions(tables, tableTimers);
+		for (String metric : tableTimers) {
+			String name = "cassandra_table_" + snakeCase(metric) + "_microseconds";
+			out.family(name, "summary");
+			for (int i = 0; i < tables.size(); i++) {
+				Distribution timer = timers.get(i).get(metric);
+				if (timer == null)
+					continue;
+				String labels = tableLabels(tables.get(i));
+				double[] values = micros(timer);
+				for (int q = 0; q < QUANTILES.length; q++)
+					out.sample(name, labels + ",quantile=\"" + QUANTILES[q] + "\"", values[q]);
+				out.sample(name + "_count", labels, timer.getCount());
+			}
+		}
+	}
+
+	/**
+	 * @return the values of the timer in microseconds, unchanged when its unit
+	 *         is not known
+	 */
+	private static double[] micros(Distribution timer) {
+		if (timer.getUnit() == null)
+			return timer.getValues();
+		double[] values = timer.getMillis();
+		for (int i = 0; i < values.length; i++)
+			values[i] *= 1000;
+		return values;
+	}
+
+	private void tableFamilies(Exposition out, List<String[]> tables, String[] metrics) {
+		List<Map<String, Object>> values = jmxConnect.getColumnFamilyMetrics(tables, metrics);
+		for (String metric : metrics) {
+			String name = "cassandra_table_" + snakeCase(metric);
+			out.family(name, MetricCatalog.table(metric).getKind() == MetricKind.GAUGE ? "gauge" : "counter");
+			for (int i = 0; i < tables.size(); i++)
+				out.sample(name, tableLabels(tables.get(i)), values.get(i).get(metric));
+		}
+	}
+
+	private static String tableLabels(String[] table) {
+		return "keyspace=\"" + escape(table[0]) + "\",table=\"" + escape(table[1]) + "\"";
+	}
+
+	/**
+	 * ProcessCpuLoad and LiveSSTableCount become process_cpu_load and
+	 * live_sstable_count.
+	 */
+	public static String snakeCase(String metric) {
+		metric = metric.replace("SSTable", "Sstable");
+		StringBuilder name = new StringBuilder(metric.length() + 8);
+		for (int i = 0; i < metric.length(); i++) {
+			char c = metric.charAt(i);
+			if (Character.isUpperCase(c)) {
+				if (i > 0 && (Character.isLowerCase(metric.charAt(i - 1))
+						|| (i + 1 < metric.length() && Character.isLowerCase(metric.charAt(i + 1)))))
+					name.append('_');
+				name.append(Character.toLowerCase(c));
+			} else {
+				name.append(c);
+			}
+		}
+		return name.toString();
+	}
+
+	public static String escape(String labelValue) {
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Text exposition under construction. Samples of a family must follow its
+	 * TYPE line, non-numeric values are skipped.
+	 */
+	private static final class Exposition {
+		private final StringBuilder text = new StringBuilder(16 * 1024);
+
+		Exposition family(String name, String type) {
+			text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+			return this;
+		}
+
+		void gauge(String name, Object value) {
+			family(name, "gauge");
+			sample(name, null, value);
+		}
+
+		Exposition sample(String name, String labels, Object value) {
+			if (!(value instanceof Number))
+				return this;
+
+			text.append(name);
+			if (labels != null)
+				text.append('{').append(labels).append('}');
+			text.append(' ');
+
+			double number = ((Number) value).doubleValue();
+			if (Double.isNaN(number))
+				text.append("NaN");
+			else if (Double.isInfinite(number))
+				text.append(number > 0 ? "+Inf" : "-Inf");
+			else if (value instanceof Double || value instanceof Float)
+				text.append(number);
+			else
+				text.append(((Number) value).longValue());
+			text.append('\n');
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return text.toString();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.jmxcassandra;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns monotonic counters, such as BytesCompacted or a latency timer's Count,
+ * into deltas and per-second rates by remembering the previous value and time
+ * of every metric key. A counter that goes backwards is taken to have been
+ * reset by a node restart and restarted from zero.
+ */
+public class RateSampler {
+
+	private final ConcurrentMap<String, Sample> previous = new ConcurrentHashMap<String, Sample>();
+
+	/**
+	 * @see #update(String, long, long)
+	 */
+	public Rate update(String key, long value) {
+		return update(key, value, System.nanoTime());
+	}
+
+	/**
+	 * Records a new value of a counter.
+	 *
+	 * @param key
+	 *            identifies the counter, include the host when sampling
+	 *            several nodes
+	 * @param value
+	 *            current counter value
+	 * @param nanoTime
+	 *            time the value was read, from {@link System#nanoTime()}
+	 * @return change since the previous value of the key, or null on the
+	 *         first sample
+	 */
+	public Rate update(String key, long value, long nanoTime) {
+		Sample last = previous.put(key, new Sample(value, nanoTime));
+		if (last == null || nanoTime <= last.nanoTime)
+			return null;
+
+		boolean reset = value < last.value;
+		long delta = reset ? value : value - last.value;
+		double seconds = (double) (nanoTime - last.nanoTime) / TimeUnit.SECONDS.toNanos(1);
+		return new Rate(delta, delta / seconds, reset);
+	}
+
+	public void forget(String key) {
+		previous.remove(key);
+	}
+
+	private static final class Sample {
+		final long value;
+		final long nanoTime;
+
+		Sample(long value, long nanoTime) {
+			this.value = value;
+			this.nanoTime = nanoTime;
+		}
+	}
+
+	public static final class Rate {
+		private final long delta;
+		private final double perSecond;
+		private final boolean reset;
+
+		Rate(long delta, double perSecond, boolean reset) {
+			this.delta = delta;
+			this.perSecond = perSecond;
+			this.reset = reset;
+		}
+
+		/**
+		 * @return increase of the counter since the previous sample
+		 */
+		public long getDelta() {
+			return delta;
+		}
+
+		public double getPerSecond() {
+			return perSecond;
+		}
+
+		/**
+		 * @return true when the counter went backwards since the previous
+		 *         sample, the delta then only covers the time since the reset
+		 */
+		public boolean isReset() {
+			return reset;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.2f/s", perSecond);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.jmxcassandra;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link ReadPlan} and the buffers it is read into, kept for a node from one
+ * sample to the next so that only a change of the tables it reads needs a new
+ * plan.
+ */
+public final class ReadBuffers {
+	private final ReadPlan plan;
+	private final List<String[]> tables;
+	private final long[] longs;
+	private final double[] doubles;
+
+	/**
+	 * Buffers for a plan of node wide metrics.
+	 */
+	public ReadBuffers(ReadPlan plan) {
+		this(plan, Collections.<String[]> emptyList());
+	}
+
+	/**
+	 * @param tables
+	 *            keyspace and table of every table the plan was built for
+	 */
+	public ReadBuffers(ReadPlan plan, List<String[]> tables) {
+		this.plan = plan;
+		this.tables = tables;
+		this.longs = new long[plan.size()];
+		this.doubles = new double[plan.size()];
+	}
+
+	/**
+	 * Reads the plan into the buffers, overwriting the previous sample.
+	 *
+	 * @return the number of values read
+	 */
+	public int read(JmxConnect jmxConnect) {
+		return jmxConnect.read(plan, longs, doubles);
+	}
+
+	/**
+	 * @return true when the plan was built for these tables, in this order
+	 */
+	public boolean reads(List<String[]> tables) {
+		if (tables.size() != this.tables.size())
+			return false;
+		for (int i = 0; i < tables.size(); i++)
+			if (!Arrays.equals(tables.get(i), this.tables.get(i)))
+				return false;
+		return true;
+	}
+
+	public ReadPlan getPlan() {
+		return plan;
+	}
+
+	/**
+	 * @return the values of the last read, {@link ReadPlan#MISSING} for those
+	 *         the node did not return
+	 */
+	public long[] getLongs() {
+		return longs;
+	}
+
+	/**
+	 * @return the values of the last read, NaN for those the node did not
+	 *         return
+	 */
+	public double[] getDoubles() {
+		return doubles;
+	}
+}
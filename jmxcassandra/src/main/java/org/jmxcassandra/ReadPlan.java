@@ -0,0 +1,120 @@
+package org.jmxcassandra;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+/**
+ * A fixed set of metric values to read together with
+ * {@link JmxConnect#read(ReadPlan, long[], double[])}. Every value gets an id,
+ * its index in the caller's buffers, and the attributes are grouped per MBean
+ * once, so that reading the plan again allocates nothing on the caller's
+ * side. Build a plan once and reuse it for every sample.
+ */
+public final class ReadPlan {
+	/** value written to the long buffer for a value the node did not return */
+	public static final long MISSING = Long.MIN_VALUE;
+
+	final ObjectName[] beans;
+	/** attributes of each bean, in request order */
+	final String[][] attributes;
+	/** ids to write each attribute of each bean to */
+	final int[][][] ids;
+	private final int size;
+
+	private ReadPlan(ObjectName[] beans, String[][] attributes, int[][][] ids, int size) {
+		this.beans = beans;
+		this.attributes = attributes;
+		this.ids = ids;
+		this.size = size;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return number of ids, the minimum length of the buffers
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true when the value was missing from the last read into the
+	 *         buffer
+	 */
+	public static boolean isMissing(long value) {
+		return value == MISSING;
+	}
+
+	public static final class Builder {
+		private final Map<ObjectName, Map<String, List<Integer>>> beans = new LinkedHashMap<ObjectName, Map<String, List<Integer>>>();
+		private int size;
+
+		private Builder() {
+		}
+
+		/**
+		 * Adds the value of a node wide metric.
+		 *
+		 * @return the id of the value
+		 */
+		public int add(Metric metric) {
+			return add(metric.getObjectName(), metric.getAttribute());
+		}
+
+		/**
+		 * Adds the value of a table metric.
+		 *
+		 * @return the id of the value
+		 */
+		public int add(Metric metric, String keyspace, String table) {
+			return add(metric.getObjectName(keyspace, table), metric.getAttribute());
+		}
+
+		/**
+		 * Adds any attribute.
+		 *
+		 * @return the id of the value
+		 */
+		public int add(ObjectName objectName, String attribute) {
+			Map<String, List<Integer>> bean = beans.get(objectName);
+			if (bean == null) {
+				bean = new LinkedHashMap<String, List<Integer>>();
+				beans.put(objectName, bean);
+			}
+			List<Integer> ids = bean.get(attribute);
+			if (ids == null) {
+				ids = new ArrayList<Integer>(1);
+				bean.put(attribute, ids);
+			}
+			ids.add(size);
+			return size++;
+		}
+
+		public ReadPlan build() {
+			ObjectName[] names = new ObjectName[beans.size()];
+			String[][] attributes = new String[beans.size()][];
+			int[][][] ids = new int[beans.size()][][];
+			int b = 0;
+			for (Map.Entry<ObjectName, Map<String, List<Integer>>> bean : beans.entrySet()) {
+				names[b] = bean.getKey();
+				attributes[b] = bean.getValue().keySet().toArray(new String[bean.getValue().size()]);
+				ids[b] = new int[attributes[b].length][];
+				int a = 0;
+				for (List<Integer> attributeIds : bean.getValue().values()) {
+					ids[b][a] = new int[attributeIds.size()];
+					for (int i = 0; i < attributeIds.size(); i++)
+						ids[b][a][i] = attributeIds.get(i);
+					a++;
+				}
+				b++;
+			}
+			return new ReadPlan(names, attributes, ids, size);
+		}
+	}
+}
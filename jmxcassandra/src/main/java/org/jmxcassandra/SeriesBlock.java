@@ -0,0 +1,137 @@
+package org.jmxcassandra;
+
+/**
+ * One compressed run of points of a single series: timestamps as
+ * delta-of-deltas, values as the XOR against the previous value (the Gorilla
+ * encoding). A regular 1s series costs one bit per timestamp and an unchanged
+ * value one more, so most points of a slowly moving metric fit in a few bytes.
+ */
+final class SeriesBlock {
+	private final BitWriter bits = new BitWriter();
+	private int count;
+	private long firstTimestamp;
+	private long lastTimestamp;
+	private long lastDelta;
+	private long lastValue;
+	private int lastLeading = -1;
+	private int lastTrailing;
+
+	void append(long timestamp, double value) {
+		long valueBits = Double.doubleToRawLongBits(value);
+		if (count == 0) {
+			firstTimestamp = timestamp;
+			bits.write(timestamp, 64);
+			bits.write(valueBits, 64);
+		} else {
+			long delta = timestamp - lastTimestamp;
+			writeDeltaOfDelta(delta - lastDelta);
+			lastDelta = delta;
+			writeXor(valueBits ^ lastValue);
+		}
+		lastTimestamp = timestamp;
+		lastValue = valueBits;
+		count++;
+	}
+
+	private void writeDeltaOfDelta(long dod) {
+		if (dod == 0) {
+			bits.write(0, 1);
+		} else if (dod >= -64 && dod < 64) {
+			bits.write(0x2, 2);
+			bits.write(dod, 7);
+		} else if (dod >= -256 && dod < 256) {
+			bits.write(0x6, 3);
+			bits.write(dod, 9);
+		} else if (dod >= -2048 && dod < 2048) {
+			bits.write(0xE, 4);
+			bits.write(dod, 12);
+		} else {
+			bits.write(0xF, 4);
+			bits.write(dod, 64);
+		}
+	}
+
+	private void writeXor(long xor) {
+		if (xor == 0) {
+			bits.write(0, 1);
+			return;
+		}
+		bits.write(1, 1);
+		int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+		int trailing = Long.numberOfTrailingZeros(xor);
+		if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+			bits.write(0, 1);
+			bits.write(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+		} else {
+			int significant = 64 - leading - trailing;
+			bits.write(1, 1);
+			bits.write(leading, 5);
+			bits.write(significant - 1, 6);
+			bits.write(xor >>> trailing, significant);
+			lastLeading = leading;
+			lastTrailing = trailing;
+		}
+	}
+
+	int count() {
+		return count;
+	}
+
+	long firstTimestamp() {
+		return firstTimestamp;
+	}
+
+	long lastTimestamp() {
+		return lastTimestamp;
+	}
+
+	byte[] toByteArray() {
+		return bits.toByteArray();
+	}
+
+	/**
+	 * Decodes count points from an encoded block, passing those within
+	 * [from, to] to the visitor.
+	 */
+	static void decode(byte[] data, int count, long from, long to, MetricStore.PointVisitor visitor) {
+		if (count == 0)
+			return;
+		BitReader in = new BitReader(data);
+		long timestamp = in.read(64);
+		long value = in.read(64);
+		long delta = 0;
+		int leading = 0;
+		int trailing = 0;
+		for (int i = 0;;) {
+			if (timestamp > to)
+				return;
+			if (timestamp >= from)
+				visitor.point(timestamp, Double.longBitsToDouble(value));
+			if (++i == count)
+				return;
+
+			delta += readDeltaOfDelta(in);
+			timestamp += delta;
+			if (in.readBit()) {
+				if (in.readBit()) {
+					leading = (int) in.read(5);
+					int significant = (int) in.read(6) + 1;
+					trailing = 64 - leading - significant;
+				}
+				value ^= in.read(64 - leading - trailing) << trailing;
+			}
+		}
+	}
+
+	private static long readDeltaOfDelta(BitReader in) {
+		if (!in.readBit())
+			return 0;
+		if (!in.readBit())
+			return in.readSigned(7);
+		if (!in.readBit())
+			return in.readSigned(9);
+		if (!in.readBit())
+			return in.readSigned(12);
+		return in.readSigned(64);
+	}
+}
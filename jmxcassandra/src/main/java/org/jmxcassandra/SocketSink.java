@@ -0,0 +1,287 @@
+package org.jmxcassandra;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Sends text lines to a receiver over one persistent TCP connection.
+ * <p>
+ * Lines are encoded into batches of {@code batchBytes}. A batch is queued
+ * once it is full or the sample is flushed, and a writer thread sends every
+ * queued batch with a single gathering write, reconnecting after failures.
+ * The sampling threads never wait for the network: when the receiver falls
+ * behind and {@code maxBatches} are queued, the oldest batch is dropped, as
+ * recent values matter more than old ones. After a failed write, the lines
+ * the connection took whole are not sent again.
+ */
+public abstract class SocketSink extends MetricSink {
+	public static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+	public static final int DEFAULT_MAX_BATCHES = 256;
+	private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+	private static final long MAX_BACKOFF_MILLIS = 5000;
+	private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+
+	private final InetSocketAddress address;
+	private final int batchBytes;
+	private final int maxBatches;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+	private final StringBuilder line = new StringBuilder(256);
+	private final Deque<ByteBuffer> queued = new ArrayDeque<ByteBuffer>();
+	private final Deque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+	private final Thread writer;
+	private ByteBuffer batch;
+	private volatile SocketChannel channel;
+	private boolean closed;
+	private long droppedBatches;
+	private long sentBatches;
+
+	protected SocketSink(InetSocketAddress address, int batchBytes, int maxBatches) {
+		if (batchBytes < 1024 || maxBatches < 1)
+			throw new IllegalArgumentException("batches need at least 1 KB and one batch queued");
+		this.address = address;
+		this.batchBytes = batchBytes;
+		this.maxBatches = maxBatches;
+		this.batch = ByteBuffer.allocate(batchBytes);
+		this.writer = new Thread("cassmon-sink-" + address) {
+			@Override
+			public void run() {
+				send();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Appends one line, ending in a newline, for the value.
+	 */
+	protected abstract void format(StringBuilder line, String node, String metric, long timestamp, double value);
+
+	/**
+	 * Appends one line for an integer value, formatted as a double unless the
+	 * protocol has integers.
+	 */
+	protected void format(StringBuilder line, String node, String metric, long timestamp, long value) {
+		format(line, node, metric, timestamp, (double) value);
+	}
+
+	@Override
+	public synchronized void write(String node, String metric, long timestamp, double value) {
+		// neither protocol has a representation for them
+		if (Double.isNaN(value) || Double.isInfinite(value) || closed)
+			return;
+		line.setLength(0);
+		format(line, node, metric, timestamp, value);
+		append();
+	}
+
+	@Override
+	public synchronized void write(String node, String metric, long timestamp, long value) {
+		if (closed)
+			return;
+		line.setLength(0);
+		format(line, node, metric, timestamp, value);
+		append();
+	}
+
+	private void append() {
+		if (!encode() && batch.position() > 0) {
+			queue();
+			// a line longer than a whole batch is dropped rather than split
+			encode();
+		}
+	}
+
+	/**
+	 * @return false when the line does not fit in the batch, which is then
+	 *         left as it was
+	 */
+	private boolean encode() {
+		int start = batch.position();
+		encoder.reset();
+		CoderResult result = encoder.encode(CharBuffer.wrap(line), batch, true);
+		if (result.isOverflow()) {
+			batch.position(start);
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized void flush() {
+		if (batch.position() > 0)
+			queue();
+	}
+
+	/**
+	 * Hands the current batch to the writer, dropping the oldest queued
+	 * batch when the queue is full.
+	 */
+	private void queue() {
+		if (queued.size() >= maxBatches) {
+			free.add(recycle(queued.pollFirst()));
+			droppedBatches++;
+		}
+		batch.flip();
+		queued.addLast(batch);
+		batch = free.isEmpty() ? ByteBuffer.allocate(batchBytes) : free.poll();
+		notifyAll();
+	}
+
+	private static ByteBuffer recycle(ByteBuffer buffer) {
+		buffer.clear();
+		return buffer;
+	}
+
+	private void send() {
+		int failures = 0;
+		ByteBuffer[] sending = new ByteBuffer[0];
+		while (true) {
+			synchronized (this) {
+				for (ByteBuffer buffer : sending)
+					free.add(recycle(buffer));
+				while (queued.isEmpty() && !closed)
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				if (queued.isEmpty())
+					return;
+				sending = queued.toArray(new ByteBuffer[queued.size()]);
+				queued.clear();
+			}
+
+			try {
+				if (channel == null)
+					channel = connect();
+				long remaining = 0;
+				for (ByteBuffer buffer : sending)
+					remaining += buffer.remaining();
+				while (remaining > 0)
+					remaining -= channel.write(sending);
+				synchronized (this) {
+					sentBatches += sending.length;
+				}
+				failures = 0;
+			} catch (IOException e) {
+				closeChannel();
+				requeue(sending);
+				sending = new ByteBuffer[0];
+				if (Thread.currentThread().isInterrupted())
+					return;
+				try {
+					Thread.sleep(Math.min(MAX_BACKOFF_MILLIS, 100L << Math.min(failures++, 6)));
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+			}
+		}
+	}
+
+	private SocketChannel connect() throws IOException {
+		SocketChannel connected = SocketChannel.open();
+		try {
+			connected.socket().setTcpNoDelay(true);
+			connected.socket().connect(address, CONNECT_TIMEOUT_MILLIS);
+			return connected;
+		} catch (IOException e) {
+			connected.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Puts batches that failed to send back in front of those queued since,
+	 * as far as the queue has room. Batches the connection took whole are
+	 * done with; a batch it took part of is sent again from the line it was
+	 * cut in, as the receiver drops a line the connection ended in.
+	 */
+	private synchronized void requeue(ByteBuffer[] failed) {
+		for (int i = failed.length - 1; i >= 0; i--) {
+			if (!failed[i].hasRemaining()) {
+				free.add(recycle(failed[i]));
+				sentBatches++;
+				continue;
+			}
+			if (queued.size() >= maxBatches || closed) {
+				free.add(recycle(failed[i]));
+				droppedBatches++;
+				continue;
+			}
+			failed[i].position(lineStart(failed[i]));
+			queued.addFirst(failed[i]);
+		}
+	}
+
+	/**
+	 * @return the start of the line holding the position of the buffer
+	 */
+	private static int lineStart(ByteBuffer buffer) {
+		int start = buffer.position();
+		while (start > 0 && buffer.get(start - 1) != '\n')
+			start--;
+		return start;
+	}
+
+	private void closeChannel() {
+		SocketChannel open = channel;
+		channel = null;
+		if (open != null)
+			try {
+				open.close();
+			} catch (IOException e) {
+				// the connection is given up anyway
+			}
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			flush();
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join(CLOSE_TIMEOUT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// a receiver that does not read keeps the writer blocked in write
+		writer.interrupt();
+		closeChannel();
+	}
+
+	/**
+	 * @return batches dropped because the receiver fell behind or could not
+	 *         be reached
+	 */
+	public synchronized long getDroppedBatches() {
+		return droppedBatches;
+	}
+
+	public synchronized long getSentBatches() {
+		return sentBatches;
+	}
+
+	/**
+	 * Appends a value without the exponent notation of Double.toString for
+	 * whole numbers, which is how most counters and gauges come.
+	 */
+	static void appendValue(StringBuilder line, double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			line.append((long) value);
+		else
+			line.append(value);
+	}
+}
@@ -0,0 +1,180 @@
+package org.jmxcassandra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranks the tables of a cluster by how busy they are: operation rates are
+ * summed over the nodes, latencies and SSTables per read are the worst of any
+ * node. Rates are taken against the previous sample of the same node, so
+ * tables only rank from their second sample on.
+ */
+public final class TableRanking {
+	static final String[] METRICS = { "ReadLatency", "WriteLatency", "SSTablesPerReadHistogram" };
+	/** position of the 99th percentile in {@link Distribution#getMillis()} */
+	private static final int P99 = 4;
+
+	private final RateSampler sampler = new RateSampler();
+	private Map<String, Row> rows = new HashMap<String, Row>();
+
+	/**
+	 * Busy-ness of a table in the latest sample.
+	 */
+	public static final class Row {
+		private final String table;
+		private double reads;
+		private double writes;
+		private double readP99;
+		private double writeP99;
+		private double sstablesP99;
+		private boolean rated;
+
+		Row(String table) {
+			this.table = table;
+		}
+
+		/**
+		 * @return keyspace.table
+		 */
+		public String getTable() {
+			return table;
+		}
+
+		/**
+		 * @return reads per second summed over the nodes
+		 */
+		public double getReads() {
+			return reads;
+		}
+
+		public double getWrites() {
+			return writes;
+		}
+
+		/**
+		 * @return worst read 99th percentile of any node, in milliseconds
+		 */
+		public double getReadP99() {
+			return readP99;
+		}
+
+		public double getWriteP99() {
+			return writeP99;
+		}
+
+		public double getSstablesP99() {
+			return sstablesP99;
+		}
+
+		double ops() {
+			return reads + writes;
+		}
+	}
+
+	/**
+	 * Starts a new sample of every node.
+	 */
+	public synchronized void clear() {
+		rows = new HashMap<String, Row>();
+	}
+
+	/**
+	 * Adds the sample of one node.
+	 *
+	 * @param distributions
+	 *            the {@link #METRICS} of every table, as read by
+	 *            {@link JmxConnect#getColumnFamilyDistributions(List, String...)}
+	 */
+	public synchronized void add(String node, List<String[]> tables, List<Map<String, Distribution>> distributions,
+			long nanoTime) {
+		for (int i = 0; i < tables.size(); i++) {
+			String table = tables.get(i)[0] + "." + tables.get(i)[1];
+			Map<String, Distribution> metrics = distributions.get(i);
+			Row row = rows.get(table);
+			if (row == null) {
+				row = new Row(table);
+				rows.put(table, row);
+			}
+
+			Distribution reads = metrics.get("ReadLatency");
+			if (reads != null) {
+				RateSampler.Rate rate = sampler.update(node + "/" + table + "/reads", reads.getCount(), nanoTime);
+				if (rate != null) {
+					row.reads += rate.getPerSecond();
+					row.rated = true;
+				}
+				row.readP99 = Math.max(row.readP99, reads.getMillis()[P99]);
+			}
+			Distribution writes = metrics.get("WriteLatency");
+			if (writes != null) {
+				RateSampler.Rate rate = sampler.update(node + "/" + table + "/writes", writes.getCount(), nanoTime);
+				if (rate != null) {
+					row.writes += rate.getPerSecond();
+					row.rated = true;
+				}
+				row.writeP99 = Math.max(row.writeP99, writes.getMillis()[P99]);
+			}
+			Distribution sstables = metrics.get("SSTablesPerReadHistogram");
+			if (sstables != null)
+				row.sstablesP99 = Math.max(row.sstablesP99, sstables.getMillis()[P99]);
+		}
+	}
+
+	/**
+	 * @param order
+	 *            ops, reads, writes, p99 or sstables
+	 * @return the busiest tables of the latest sample, busiest first
+	 */
+	public synchronized List<Row> top(String order, int limit) {
+		List<Row> ranked = new ArrayList<Row>();
+		for (Row row : rows.values())
+			if (row.rated)
+				ranked.add(row);
+		Collections.sort(ranked, comparator(order));
+		return ranked.size() > limit ? ranked.subList(0, limit) : ranked;
+	}
+
+	public synchronized int size() {
+		return rows.size();
+	}
+
+	private static Comparator<Row> comparator(final String order) {
+		switch (order) {
+		case "ops":
+		case "reads":
+		case "writes":
+		case "p99":
+		case "sstables":
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown sort order '" + order
+					+ "', expected ops, reads, writes, p99 or sstables");
+		}
+		return new Comparator<Row>() {
+			@Override
+			public int compare(Row a, Row b) {
+				int c = Double.compare(key(b), key(a));
+				return c != 0 ? c : a.table.compareTo(b.table);
+			}
+
+			private double key(Row row) {
+				switch (order) {
+				case "reads":
+					return row.reads;
+				case "writes":
+					return row.writes;
+				case "p99":
+					return Math.max(row.readP99, row.writeP99);
+				case "sstables":
+					return row.sstablesP99;
+				default:
+					return row.ops();
+				}
+			}
+		};
+	}
+}
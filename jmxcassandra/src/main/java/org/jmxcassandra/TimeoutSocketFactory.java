@@ -0,0 +1,187 @@
+package org.jmxcassandra;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServerConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * RMI client socket factory giving up on a node that does not accept the
+ * connection within the connect timeout, or does not answer within the read
+ * timeout, instead of waiting on the operating system defaults. Every
+ * JmxConnect has its own factory with its own timeouts, handed to the registry
+ * lookup through the JNDI environment. SSL sockets honor the
+ * javax.rmi.ssl.client.enabledCipherSuites and enabledProtocols properties
+ * like SslRMIClientSocketFactory does.
+ * <p>
+ * The stubs of a JMX connection come with the factory the agent exported them
+ * with, plain or SSL, and the RMI transport shares their sockets between all
+ * connections to a node, so no factory of the client can bound their reads.
+ * {@link #withTimeouts(MBeanServerConnection)} bounds every call made through
+ * them by the read timeout instead; a call given up on ends when its socket
+ * does.
+ */
+final class TimeoutSocketFactory implements RMIClientSocketFactory, Serializable {
+	private static final long serialVersionUID = 3L;
+
+	static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	static final int DEFAULT_READ_TIMEOUT = 30000;
+
+	private final boolean ssl;
+	private final int connectTimeout;
+	private final int readTimeout;
+
+	/**
+	 * @param connectTimeout
+	 *            milliseconds
+	 * @param readTimeout
+	 *            milliseconds
+	 */
+	TimeoutSocketFactory(boolean ssl, int connectTimeout, int readTimeout) {
+		if (connectTimeout <= 0 || readTimeout <= 0)
+			throw new IllegalArgumentException("timeouts must be positive");
+		this.ssl = ssl;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * @return connection whose calls fail with a SocketTimeoutException once
+	 *         the node did not answer within the read timeout
+	 */
+	MBeanServerConnection withTimeouts(final MBeanServerConnection connection) {
+		return (MBeanServerConnection) Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(),
+				new Class<?>[] { MBeanServerConnection.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+						if (method.getDeclaringClass() == Object.class)
+							return delegate(connection, method, args);
+						return within(readTimeout, new Callable<Object>() {
+							@Override
+							public Object call() throws Exception {
+								return delegate(connection, method, args);
+							}
+						});
+					}
+				});
+	}
+
+	private static Object delegate(Object target, Method method, Object[] args) throws Exception {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			Throwables.propagateIfPossible(e.getCause(), Exception.class);
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Runs a call to the node, giving up on it after timeoutMillis. Like a
+	 * socket read, the wait does not end early on interrupt.
+	 *
+	 * @throws SocketTimeoutException
+	 *             when the call did not complete in time
+	 */
+	static <T> T within(int timeoutMillis, Callable<T> call) throws Exception {
+		try {
+			return Uninterruptibles.getUninterruptibly(AsyncJmxConnect.call(call, AsyncJmxConnect.defaultExecutor(),
+					timeoutMillis, TimeUnit.MILLISECONDS));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TimeoutException)
+				throw new SocketTimeoutException("no answer within " + timeoutMillis + " ms");
+			Throwables.propagateIfPossible(e.getCause(), Exception.class);
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		TimeoutSocket socket = new TimeoutSocket(readTimeout);
+		try {
+			socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			socket.setSoTimeout(readTimeout);
+			socket.setTcpNoDelay(true);
+			return ssl ? ssl(socket, host, port) : socket;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	private static Socket ssl(Socket socket, String host, int port) throws IOException {
+		SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket,
+				host, port, true);
+		String cipherSuites = System.getProperty("javax.rmi.ssl.client.enabledCipherSuites");
+		if (cipherSuites != null)
+			sslSocket.setEnabledCipherSuites(split(cipherSuites));
+		String protocols = System.getProperty("javax.rmi.ssl.client.enabledProtocols");
+		if (protocols != null)
+			sslSocket.setEnabledProtocols(split(protocols));
+		return sslSocket;
+	}
+
+	private static String[] split(String list) {
+		return Iterables.toArray(Splitter.on(',').trimResults().omitEmptyStrings().split(list), String.class);
+	}
+
+	/**
+	 * RMI reuses connections made through equal factories.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof TimeoutSocketFactory))
+			return false;
+		TimeoutSocketFactory other = (TimeoutSocketFactory) o;
+		return other.ssl == ssl && other.connectTimeout == connectTimeout && other.readTimeout == readTimeout;
+	}
+
+	@Override
+	public int hashCode() {
+		return (ssl ? 1 : 0) + 31 * (connectTimeout + 31 * readTimeout);
+	}
+
+	/**
+	 * Socket whose read timeout the RMI transport may shorten, for its
+	 * handshake, but not lift.
+	 */
+	private static final class TimeoutSocket extends Socket {
+		private final int readTimeout;
+
+		TimeoutSocket(int readTimeout) {
+			this.readTimeout = readTimeout;
+		}
+
+		@Override
+		public synchronized void setSoTimeout(int timeout) throws SocketException {
+			super.setSoTimeout(timeout == 0 ? readTimeout : Math.min(timeout, readTimeout));
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.jmxcassandra;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.Alert;
+import org.jmxcassandra.AlertEngine;
+import org.jmxcassandra.AlertRule;
+import org.jmxcassandra.AlertSink;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit test for parsing alert rules and evaluating them against samples.
+ */
+public class AlertEngineTest extends TestCase {
+
+	private final List<Alert> alerts = new ArrayList<Alert>();
+	private final AlertSink sink = new AlertSink() {
+		@Override
+		public void send(Alert alert) {
+			alerts.add(alert);
+		}
+	};
+
+	public void testParse() {
+		AlertRule rule = AlertRule.parse("backlog: \"Pending Tasks\" >= 100 for 10m");
+		assertEquals("backlog", rule.getName());
+		assertEquals("Pending Tasks", rule.getLabel());
+		assertFalse(rule.isRate());
+		assertEquals(100.0, rule.getThreshold());
+		assertEquals(600000, rule.getDurationMillis());
+		assertEquals("backlog: \"Pending Tasks\" >= 100 for 600s", rule.toString());
+
+		rule = AlertRule.parse("drops: rate(\"Dropped *\") > 0.5");
+		assertTrue(rule.isRate());
+		assertTrue(rule.isPattern());
+		assertTrue(rule.matches("Dropped MUTATION"));
+		assertFalse(rule.matches("Dropped"));
+
+		try {
+			AlertRule.parse("backlog: Pending Tasks > 100");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testThresholdForDuration() {
+		AlertEngine engine = new AlertEngine(Arrays.asList(AlertRule.parse("backlog: \"Pending Tasks\" > 10 for 20s")),
+				sink);
+		engine.evaluate("a", "Pending Tasks", 0, 50);
+		engine.evaluate("a", "Pending Tasks", 10000, 50);
+		assertTrue(alerts.isEmpty());
+		engine.evaluate("b", "Pending Tasks", 15000, 50);
+		engine.evaluate("a", "Pending Tasks", 20000, 50);
+		engine.evaluate("a", "Pending Tasks", 30000, 60);
+		assertEquals(1, alerts.size());
+		Alert alert = alerts.get(0);
+		assertTrue(alert.isFiring());
+		assertEquals("a", alert.getNode());
+		assertEquals(0, alert.getSince());
+		assertEquals(20000, alert.getTimestamp());
+
+		engine.evaluate("a", "Pending Tasks", 40000, 5);
+		assertEquals(2, alerts.size());
+		assertFalse(alerts.get(1).isFiring());
+		assertEquals(5.0, alerts.get(1).getValue());
+
+		// dipping below the threshold starts the duration over
+		engine.evaluate("b", "Pending Tasks", 25000, 5);
+		engine.evaluate("b", "Pending Tasks", 30000, 50);
+		engine.evaluate("b", "Pending Tasks", 45000, 50);
+		assertEquals(2, alerts.size());
+	}
+
+	public void testRate() {
+		AlertEngine engine = new AlertEngine(Arrays.asList(AlertRule.parse("drops: rate(\"Dropped *\") > 1")), sink);
+		engine.evaluate("a", "Dropped MUTATION", 0, 100);
+		engine.evaluate("a", "Dropped MUTATION", 10000, 105);
+		assertTrue(alerts.isEmpty());
+		engine.evaluate("a", "Dropped READ", 10000, 100);
+		engine.evaluate("a", "Dropped MUTATION", 20000, 205);
+		assertEquals(1, alerts.size());
+		assertEquals("Dropped MUTATION", alerts.get(0).getLabel());
+		assertEquals(10.0, alerts.get(0).getValue());
+
+		// a restart resets the counter, which is no drop in the rate
+		engine.evaluate("a", "Dropped MUTATION", 30000, 0);
+		assertEquals(1, alerts.size());
+		engine.evaluate("a", "Dropped MUTATION", 40000, 0);
+		assertEquals(2, alerts.size());
+		assertFalse(alerts.get(1).isFiring());
+	}
+
+	public void testWebhook() throws IOException, InterruptedException {
+		final BlockingQueue<String> posted = new LinkedBlockingQueue<String>();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/alerts", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				InputStream in = exchange.getRequestBody();
+				posted.add(exchange.getRequestMethod() + " "
+						+ new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+				exchange.sendResponseHeaders(204, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		try {
+			AlertEngine engine = new AlertEngine(Arrays.asList(AlertRule.parse("blocked: \"NTR Blocked\" > 0")),
+					AlertSink.open("http://127.0.0.1:" + server.getAddress().getPort() + "/alerts"));
+			engine.evaluate("10.0.0.1:7199", "NTR Blocked", 1000, 3);
+			engine.close();
+
+			assertEquals("POST {\"status\":\"firing\",\"rule\":\"blocked\",\"condition\":\"\\\"NTR Blocked\\\" > 0\","
+					+ "\"node\":\"10.0.0.1:7199\",\"metric\":\"NTR Blocked\",\"value\":3,\"timestamp\":1000,"
+					+ "\"since\":1000}", posted.poll(5, TimeUnit.SECONDS));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	public void testWebhookDropsOldest() throws IOException, InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final BlockingQueue<String> posted = new LinkedBlockingQueue<String>();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/alerts", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				InputStream in = exchange.getRequestBody();
+				posted.add(new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+				exchange.sendResponseHeaders(204, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		try {
+			AlertSink webhook = AlertSink.open("http://127.0.0.1:" + server.getAddress().getPort() + "/alerts");
+			AlertEngine engine = new AlertEngine(Arrays.asList(AlertRule.parse("blocked: \"NTR Blocked\" > 0")),
+					webhook);
+			// one alert being posted, a full queue of 1000 behind it and two more
+			for (int node = 0; node < 1003; node++)
+				engine.evaluate("10.0.0." + node, "NTR Blocked", 1000, 3);
+			assertEquals(2, webhook.getDroppedAlerts());
+			release.countDown();
+			engine.close();
+
+			assertEquals(2, webhook.getDroppedAlerts());
+			assertEquals(0, webhook.getFailedAlerts());
+			assertEquals(1001, posted.size());
+			assertTrue(posted.peek().contains("\"node\":\"10.0.0.0\""));
+		} finally {
+			release.countDown();
+			server.stop(0);
+		}
+	}
+
+	public void testWebhookFailure() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/alerts", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				ByteStreams.toByteArray(exchange.getRequestBody());
+				exchange.sendResponseHeaders(500, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		try {
+			AlertSink webhook = AlertSink.open("http://127.0.0.1:" + server.getAddress().getPort() + "/alerts");
+			AlertEngine engine = new AlertEngine(Arrays.asList(AlertRule.parse("blocked: \"NTR Blocked\" > 0")),
+					webhook);
+			engine.evaluate("10.0.0.1:7199", "NTR Blocked", 1000, 3);
+			engine.evaluate("10.0.0.1:7199", "NTR Blocked", 2000, 0);
+			engine.close();
+
+			assertEquals(0, webhook.getDroppedAlerts());
+			assertEquals(2, webhook.getFailedAlerts());
+			assertEquals("IOException: HTTP 500", webhook.getLastError());
+		} finally {
+			server.stop(0);
+		}
+	}
+}
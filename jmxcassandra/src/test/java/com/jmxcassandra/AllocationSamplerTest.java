@@ -0,0 +1,35 @@
+package com.jmxcassandra;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.AllocationSampler;
+
+/**
+ * Unit test for AllocationSampler.
+ */
+public class AllocationSamplerTest extends TestCase {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	public void testGrowthWithoutCollection() {
+		AllocationSampler sampler = new AllocationSampler();
+		assertEquals(-1.0, sampler.update("node", 100, 1000, 5, 0), 0.0001);
+		assertEquals(200.0, sampler.update("node", 500, 1000, 5, 2 * SECOND), 0.0001);
+	}
+
+	public void testCollectionsCountAsFullEden() {
+		AllocationSampler sampler = new AllocationSampler();
+		sampler.update("node", 600, 1000, 5, 0);
+		// 400 to fill eden, one more full eden, then 300 after the last collection
+		assertEquals(1700.0, sampler.update("node", 300, 1000, 7, SECOND), 0.0001);
+	}
+
+	public void testRestartHasNoRate() {
+		AllocationSampler sampler = new AllocationSampler();
+		sampler.update("node", 600, 1000, 50, 0);
+		assertEquals(-1.0, sampler.update("node", 300, 1000, 1, SECOND), 0.0001);
+		assertEquals(100.0, sampler.update("node", 400, 1000, 1, 2 * SECOND), 0.0001);
+	}
+}
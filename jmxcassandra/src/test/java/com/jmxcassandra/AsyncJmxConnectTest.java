@@ -0,0 +1,120 @@
+package com.jmxcassandra;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.AsyncJmxConnect;
+import org.jmxcassandra.JmxConnect;
+import org.jmxcassandra.MBeanAttribute;
+
+/**
+ * Unit test for AsyncJmxConnect, against a JMX agent in the test JVM.
+ */
+public class AsyncJmxConnectTest extends TestCase {
+
+	private static final ObjectName SLOW = name("com.jmxcassandra:type=Slow");
+
+	public interface SlowMBean {
+		long getValue() throws InterruptedException;
+	}
+
+	public static class Slow implements SlowMBean {
+		@Override
+		public long getValue() throws InterruptedException {
+			Thread.sleep(2000);
+			return 1;
+		}
+	}
+
+	private Registry registry;
+	private JMXConnectorServer server;
+	private int port;
+	private JmxConnect jmxConnect;
+
+	@Override
+	protected void setUp() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		if (!mbeanServer.isRegistered(SLOW))
+			mbeanServer.registerMBean(new Slow(), SLOW);
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null, mbeanServer);
+		server.start();
+		jmxConnect = new JmxConnect("127.0.0.1", port);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		jmxConnect.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testRead() throws Exception {
+		AsyncJmxConnect async = new AsyncJmxConnect(jmxConnect);
+		Object processors = async.getOperatingSystemMetric("AvailableProcessors").get(10, TimeUnit.SECONDS);
+		assertEquals(Runtime.getRuntime().availableProcessors(), processors);
+	}
+
+	public void testDeadline() throws Exception {
+		AsyncJmxConnect async = new AsyncJmxConnect(jmxConnect).withTimeout(100, TimeUnit.MILLISECONDS);
+		long start = System.nanoTime();
+		try {
+			async.getAttributes(Collections.singleton(new MBeanAttribute(SLOW, "Value"))).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+	}
+
+	public void testCancel() throws Exception {
+		AsyncJmxConnect async = new AsyncJmxConnect(jmxConnect);
+		CompletableFuture<?> read = async.getAttributes(Collections.singleton(new MBeanAttribute(SLOW, "Value")));
+		assertTrue(read.cancel(true));
+		assertTrue(read.isCancelled());
+	}
+
+	public void testConnectFailure() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int closed = socket.getLocalPort();
+		socket.close();
+
+		CompletableFuture<JmxConnect> connect = AsyncJmxConnect.connect("127.0.0.1", closed, null, null,
+				AsyncJmxConnect.defaultExecutor(), 10, TimeUnit.SECONDS);
+		try {
+			connect.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertFalse(e.getCause() instanceof TimeoutException);
+		}
+	}
+
+	private static ObjectName name(String name) {
+		try {
+			return new ObjectName(name);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.jmxcassandra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.config.Config;
+import org.jmxcassandra.App;
+import org.jmxcassandra.CassMonDaemon;
+import org.jmxcassandra.JmxConnectPool;
+
+import io.airlift.airline.Cli;
+import io.airlift.airline.Help;
+
+/**
+ * Unit test for commands forwarded to a daemon, against a JMX agent in the
+ * test JVM.
+ */
+public class CassMonDaemonTest extends TestCase {
+	private int port;
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnectPool pool;
+	private CassMonDaemon daemon;
+	private Thread serving;
+
+	@Override
+	protected void setUp() throws Exception {
+		// as in App.main, the byte formatting must not load cassandra.yaml
+		Config.setClientMode(true);
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null,
+				ManagementFactory.getPlatformMBeanServer());
+		server.start();
+
+		@SuppressWarnings("unchecked")
+		Cli<Runnable> parser = Cli.<Runnable> builder("cassmon").withDefaultCommand(Help.class)
+				.withCommands(Help.class, App.Jvm.class, App.Serve.class).build();
+		pool = new JmxConnectPool(2);
+		daemon = new CassMonDaemon(new InetSocketAddress("127.0.0.1", 0), parser, pool);
+		serving = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				daemon.serve();
+			}
+		});
+		serving.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		daemon.close();
+		serving.join(5000);
+		pool.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testNodeCommand() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String[] args = { "-h", "127.0.0.1", "-p", String.valueOf(port), "jvm" };
+		assertEquals(0, CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, out));
+		assertTrue(out.toString("UTF-8"), out.toString("UTF-8").contains("Heap Used"));
+		assertEquals(1, pool.idleCount());
+
+		// the second run reuses the idle connection
+		out.reset();
+		assertEquals(0, CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, out));
+		assertTrue(out.toString("UTF-8").contains("Heap Used"));
+		assertEquals(1, pool.idleCount());
+	}
+
+	public void testGcNotifications() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(0, forward(out, "-h", "127.0.0.1", "-p", String.valueOf(port), "--interval", "0.1", "--count",
+				"2", "jvm", "-n"));
+		assertTrue(out.toString("UTF-8"), out.toString("UTF-8").contains("GC Notified"));
+		// unsubscribed and handed back healthy
+		assertEquals(1, pool.idleCount());
+	}
+
+	public void testFailures() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(1, forward(out, "help"));
+		assertEquals("cassmon: only node commands can run in the daemon", out.toString("UTF-8").trim());
+
+		out.reset();
+		assertEquals(1, forward(out, "nosuchcommand"));
+		assertTrue(out.toString("UTF-8").startsWith("cassmon: "));
+
+		ServerSocket socket = new ServerSocket(0);
+		int closed = socket.getLocalPort();
+		socket.close();
+		out.reset();
+		String[] args = { "-h", "127.0.0.1", "-p", String.valueOf(closed), "jvm" };
+		assertEquals(1, CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, out));
+		assertTrue(out.toString("UTF-8"), out.toString("UTF-8").startsWith("cassmon: Failed to connect to '127.0.0.1:"));
+		assertEquals(0, pool.idleCount());
+	}
+
+	public void testToken() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String[] args = { "-h", "127.0.0.1", "-p", String.valueOf(port), "jvm" };
+		assertEquals(1, CassMonDaemon.forward(daemon.getAddress(), "guessed", args, out));
+		assertEquals("cassmon: wrong daemon token", out.toString("UTF-8").trim());
+		assertEquals(0, pool.idleCount());
+
+		File file = File.createTempFile("cassmon", ".token");
+		try {
+			daemon.writeToken(file);
+			assertEquals(daemon.getToken(), CassMonDaemon.readToken(file));
+			assertEquals(PosixFilePermissions.fromString("rw-------"),
+					java.nio.file.Files.getPosixFilePermissions(file.toPath()));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testRejectedOptions() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String[][] rejected = { { "--hosts-file", "/etc/passwd" }, { "--store", "/tmp/store" },
+				{ "--sink", "graphite://127.0.0.1" }, { "--alerts", "/tmp/rules" },
+				{ "--alert-sink", "/tmp/alerts" } };
+		for (String[] option : rejected) {
+			out.reset();
+			assertEquals(1, forward(out, "-h", "127.0.0.1", "-p", String.valueOf(port), option[0], option[1], "jvm"));
+			assertEquals("cassmon: " + option[0] + " cannot be used through the daemon",
+					out.toString("UTF-8").trim());
+		}
+
+		out.reset();
+		assertEquals(1, forward(out, "-h", "127.0.0.1", "-p", String.valueOf(port), "serve"));
+		assertEquals("cassmon: serve cannot run in the daemon", out.toString("UTF-8").trim());
+		assertEquals(0, pool.idleCount());
+	}
+
+	public void testRequestLimits() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String[] many = new String[CassMonDaemon.MAX_ARGUMENTS + 1];
+		Arrays.fill(many, "jvm");
+		assertEquals(1, forward(out, many));
+		assertTrue(out.toString("UTF-8"), out.toString("UTF-8").startsWith("cassmon: at most "));
+
+		// dropped before the argument is read
+		char[] huge = new char[CassMonDaemon.MAX_ARGUMENT_BYTES + 1];
+		Arrays.fill(huge, 'x');
+		try {
+			forward(new ByteArrayOutputStream(), new String(huge));
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private int forward(ByteArrayOutputStream out, String... args) throws IOException {
+		return CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, out);
+	}
+}
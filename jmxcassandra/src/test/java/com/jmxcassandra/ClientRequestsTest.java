@@ -0,0 +1,263 @@
+package com.jmxcassandra;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.App;
+import org.jmxcassandra.CassMonDaemon;
+import org.jmxcassandra.JmxConnectPool;
+
+import io.airlift.airline.Cli;
+import io.airlift.airline.Help;
+
+/**
+ * Unit test for the clientrequests command, against a JMX agent in the test
+ * JVM registering the coordinator metrics of reads and writes.
+ */
+public class ClientRequestsTest extends TestCase {
+
+	public interface LatencyMBean {
+		long getCount();
+
+		double get50thPercentile();
+
+		double get75thPercentile();
+
+		double get95thPercentile();
+
+		double get98thPercentile();
+
+		double get99thPercentile();
+
+		double get999thPercentile();
+
+		double getMax();
+
+		double getMean();
+	}
+
+	/**
+	 * Timer whose percentiles are the given microseconds.
+	 */
+	public static class Latency implements LatencyMBean {
+		private final long count;
+		private final double micros;
+		volatile long sleepMillis;
+
+		Latency(long count, double micros) {
+			this.count = count;
+			this.micros = micros;
+		}
+
+		@Override
+		public long getCount() {
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return count;
+		}
+
+		@Override
+		public double get50thPercentile() {
+			return micros;
+		}
+
+		@Override
+		public double get75thPercentile() {
+			return micros;
+		}
+
+		@Override
+		public double get95thPercentile() {
+			return micros;
+		}
+
+		@Override
+		public double get98thPercentile() {
+			return micros;
+		}
+
+		@Override
+		public double get99thPercentile() {
+			return micros * 2;
+		}
+
+		@Override
+		public double get999thPercentile() {
+			return micros * 2;
+		}
+
+		@Override
+		public double getMax() {
+			return micros * 4;
+		}
+
+		@Override
+		public double getMean() {
+			return micros;
+		}
+	}
+
+	public interface CountMBean {
+		long getCount();
+	}
+
+	public static class Count implements CountMBean {
+		private final long count;
+
+		Count(long count) {
+			this.count = count;
+		}
+
+		@Override
+		public long getCount() {
+			return count;
+		}
+	}
+
+	private MBeanServer mbeanServer;
+	private Latency writes;
+	private int port;
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnectPool pool;
+	private CassMonDaemon daemon;
+	private Thread serving;
+
+	@Override
+	protected void setUp() throws Exception {
+		mbeanServer = MBeanServerFactory.newMBeanServer();
+		registerScope("Read", new Latency(100, 1500), 3, 1, 0);
+		writes = new Latency(50, 250);
+		registerScope("Write", writes, 0, 0, 0);
+		// no CAS, range slice or failure metrics, as on a node that never served one
+
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null, mbeanServer);
+		server.start();
+
+		@SuppressWarnings("unchecked")
+		Cli<Runnable> parser = Cli.<Runnable> builder("cassmon").withDefaultCommand(Help.class)
+				.withCommands(Help.class, App.ClientRequests.class).build();
+		pool = new JmxConnectPool(1);
+		daemon = new CassMonDaemon(new InetSocketAddress("127.0.0.1", 0), parser, pool);
+		serving = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				daemon.serve();
+			}
+		});
+		serving.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		daemon.close();
+		serving.join(5000);
+		pool.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testAllScopes() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals(0, clientRequests(bytes));
+		String out = text(bytes);
+
+		assertTrue(out, out.contains("Read Requests: 100\n"));
+		// microseconds printed as milliseconds
+		assertTrue(out, out.contains("Read Latency 50th: " + format(1.5) + " ms\n"));
+		assertTrue(out, out.contains("Read Latency 99th: " + format(3.0) + " ms\n"));
+		assertTrue(out, out.contains("Read Latency Max: " + format(6.0) + " ms\n"));
+		assertTrue(out, out.contains("Read Timeouts: 3\n"));
+		assertTrue(out, out.contains("Read Unavailables: 1\n"));
+		assertTrue(out, out.contains("Write Requests: 50\n"));
+		assertTrue(out, out.contains("Write Latency Mean: " + format(0.25) + " ms\n"));
+		assertFalse(out, out.contains("Read Failures"));
+		assertFalse(out, out.contains("CASRead"));
+		assertFalse(out, out.contains("RangeSlice"));
+		// rates need a previous sample
+		assertFalse(out, out.contains("Rate"));
+		assertFalse(out, out.contains("Since Last Sample"));
+	}
+
+	public void testScope() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals(0, clientRequests(bytes, "-s", "Write"));
+		String out = text(bytes);
+		assertTrue(out, out.contains("Write Requests: 50\n"));
+		assertFalse(out, out.contains("Read"));
+	}
+
+	public void testUnknownScope() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals(1, clientRequests(bytes, "-s", "Reads"));
+		assertEquals("cassmon: Unknown scope 'Reads', expected Read, Write, RangeSlice, CASRead or CASWrite",
+				text(bytes).trim());
+		// rejected before connecting
+		assertEquals(0, pool.idleCount());
+	}
+
+	public void testDeadline() throws Exception {
+		writes.sleepMillis = 1000;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		long start = System.currentTimeMillis();
+		String[] args = { "-h", "127.0.0.1", "-p", String.valueOf(port), "--deadline", "0.2", "clientrequests" };
+		assertEquals(1, CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, bytes));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		String out = text(bytes);
+		assertTrue(out, out.contains("cassmon: '127.0.0.1' did not answer within 0.2 seconds"));
+		// nothing of the abandoned sample is printed
+		assertFalse(out, out.contains("Requests"));
+		// and the connection it may still use is not handed out again
+		assertEquals(0, pool.idleCount());
+	}
+
+	private int clientRequests(ByteArrayOutputStream out, String... options) throws Exception {
+		String[] args = new String[5 + options.length];
+		args[0] = "-h";
+		args[1] = "127.0.0.1";
+		args[2] = "-p";
+		args[3] = String.valueOf(port);
+		args[4] = "clientrequests";
+		System.arraycopy(options, 0, args, 5, options.length);
+		return CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, out);
+	}
+
+	private static String text(ByteArrayOutputStream bytes) throws Exception {
+		return bytes.toString("UTF-8").replace(System.lineSeparator(), "\n");
+	}
+
+	private static String format(double millis) {
+		return String.format("%.2f", millis);
+	}
+
+	private void registerScope(String scope, Latency latency, long timeouts, long unavailables, long totalLatency)
+			throws Exception {
+		String prefix = "org.apache.cassandra.metrics:type=ClientRequest,scope=" + scope + ",name=";
+		mbeanServer.registerMBean(latency, new ObjectName(prefix + "Latency"));
+		mbeanServer.registerMBean(new Count(totalLatency), new ObjectName(prefix + "TotalLatency"));
+		mbeanServer.registerMBean(new Count(timeouts), new ObjectName(prefix + "Timeouts"));
+		mbeanServer.registerMBean(new Count(unavailables), new ObjectName(prefix + "Unavailables"));
+	}
+}
@@ -0,0 +1,74 @@
+package com.jmxcassandra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.ClusterReport;
+import org.jmxcassandra.MetricPrinter;
+
+/**
+ * Unit test for printing one command's output for several nodes.
+ */
+public class ClusterReportTest extends TestCase {
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+	public void testAggregate() throws UnsupportedEncodingException {
+		ClusterReport report = new ClusterReport();
+		MetricPrinter first = report.node("10.0.0.1");
+		MetricPrinter second = report.node("10.0.0.2");
+		MetricPrinter third = report.node("10.0.0.3");
+		// nodes record out of host order
+		second.print("Pending Tasks", 4);
+		second.print("Load", 1.5, "1.5 KB");
+		second.print("Arch", "amd64");
+		first.print("Pending Tasks", 1);
+		first.print("Load", 2.25, "2.25 KB");
+		first.print("Arch", "amd64");
+		third.print("Pending Tasks", 100);
+		report.fail("10.0.0.3", new RuntimeException(new IOException("Connection refused")));
+		report.printTo(new PrintStream(bytes));
+
+		assertEquals("== 10.0.0.1 ==\n"
+				+ "Pending Tasks: 1\n"
+				+ "Load: 2.25 KB\n"
+				+ "Arch: amd64\n"
+				+ "== 10.0.0.2 ==\n"
+				+ "Pending Tasks: 4\n"
+				+ "Load: 1.5 KB\n"
+				+ "Arch: amd64\n"
+				+ "== 10.0.0.3 ==\n"
+				+ "error: IOException: Connection refused\n"
+				+ "== cluster (2/3 nodes) ==\n"
+				+ "Pending Tasks: sum=5 min=1 max=4 avg=" + String.format("%.3f", 2.5) + "\n"
+				+ "Load: sum=" + String.format("%.3f", 3.75) + " min=" + String.format("%.3f", 1.5) + " max="
+				+ String.format("%.3f", 2.25) + " avg=" + String.format("%.3f", 1.875) + "\n",
+				bytes.toString("UTF-8").replace(System.lineSeparator(), "\n"));
+	}
+
+	public void testUnreachableNode() throws UnsupportedEncodingException {
+		ClusterReport report = new ClusterReport();
+		report.fail("10.0.0.9", new IOException("no route to host"));
+		report.printTo(new PrintStream(bytes));
+
+		assertEquals("== 10.0.0.9 ==\nerror: IOException: no route to host\n== cluster (0/1 nodes) ==\n",
+				bytes.toString("UTF-8").replace(System.lineSeparator(), "\n"));
+	}
+
+	public void testRecords() throws UnsupportedEncodingException {
+		ClusterReport report = new ClusterReport();
+		report.node("a").print("x", 1L);
+		report.fail("b", new IllegalStateException("down"));
+		MetricPrinter out = MetricPrinter.forFormat("ndjson", new PrintStream(bytes));
+		report.printTo(out, 5);
+		out.close();
+
+		assertEquals("{\"timestamp\":5,\"node\":\"a\",\"x\":1}\n"
+				+ "{\"timestamp\":5,\"node\":\"b\",\"error\":\"IllegalStateException: down\"}\n",
+				bytes.toString("UTF-8"));
+	}
+}
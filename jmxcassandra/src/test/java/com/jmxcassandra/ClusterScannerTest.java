@@ -0,0 +1,103 @@
+package com.jmxcassandra;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.AsyncJmxConnect;
+import org.jmxcassandra.ClusterScanner;
+import org.jmxcassandra.JmxConnect;
+
+/**
+ * Unit test for the handshake cap of cluster scans, against a node that
+ * accepts connections and never answers.
+ */
+public class ClusterScannerTest extends TestCase {
+	private ServerSocket silent;
+	private final AtomicInteger accepted = new AtomicInteger();
+
+	@Override
+	protected void setUp() throws Exception {
+		silent = new ServerSocket(0);
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					final Socket socket;
+					try {
+						socket = silent.accept();
+					} catch (IOException e) {
+						return;
+					}
+					accepted.incrementAndGet();
+					new Thread(new Runnable() {
+						@Override
+						public void run() {
+							drain(socket);
+						}
+					}).start();
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		silent.close();
+	}
+
+	public void testHandshakesCappedPastDeadline() throws Exception {
+		// the deadline passes long before the connects give up on their read timeout
+		ClusterScanner scanner = new ClusterScanner(AsyncJmxConnect.defaultExecutor(), 2, 50, TimeUnit.MILLISECONDS,
+				1000, 400);
+		final AtomicInteger failed = new AtomicInteger();
+		long start = System.nanoTime();
+		scanner.scan(Collections.nCopies(6, "127.0.0.1"), silent.getLocalPort(), null, null,
+				new ClusterScanner.Probe<Object>() {
+					@Override
+					public Object read(JmxConnect jmxConnect) {
+						throw new AssertionError("connected to a silent node");
+					}
+				}, new ClusterScanner.Listener<Object>() {
+					@Override
+					public void result(String node, Object result) {
+					}
+
+					@Override
+					public void failed(String node, Throwable error) {
+						failed.incrementAndGet();
+					}
+				});
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertEquals(6, failed.get());
+		assertEquals(6, accepted.get());
+		// three rounds of two connects, the last one starts once the first two gave up on their read timeout
+		assertTrue("scan took " + elapsedMillis + " ms", elapsedMillis >= 2 * 400);
+	}
+
+	private static void drain(Socket socket) {
+		try {
+			InputStream in = socket.getInputStream();
+			byte[] buffer = new byte[256];
+			while (in.read(buffer) >= 0)
+				;
+		} catch (IOException e) {
+			// client gave up
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+}
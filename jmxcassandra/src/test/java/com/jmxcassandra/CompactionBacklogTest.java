@@ -0,0 +1,56 @@
+package com.jmxcassandra;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.CompactionBacklog;
+
+/**
+ * Unit test for the compaction backlog estimate.
+ */
+public class CompactionBacklogTest extends TestCase {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	public void testDraining() {
+		CompactionBacklog backlog = new CompactionBacklog(5, TimeUnit.MINUTES);
+		backlog.update(0, 0, 0, 30);
+		assertFalse(backlog.hasRates());
+		backlog.update(10 * SECOND, 100000000, 20, 20);
+
+		assertTrue(backlog.hasRates());
+		assertEquals(10000000.0, backlog.getBytesPerSecond(), 0.001);
+		assertEquals(2.0, backlog.getTasksPerSecond(), 0.001);
+		assertEquals(-1.0, backlog.getPendingPerSecond(), 0.001);
+		assertEquals(20, backlog.getDrainSeconds());
+		assertEquals(5, backlog.getSecondsFor(50000000));
+	}
+
+	public void testNotDraining() {
+		CompactionBacklog backlog = new CompactionBacklog(5, TimeUnit.MINUTES);
+		backlog.update(0, 0, 0, 10);
+		backlog.update(10 * SECOND, 0, 0, 12);
+
+		assertEquals(-1, backlog.getDrainSeconds());
+		assertEquals(-1, backlog.getSecondsFor(1000));
+	}
+
+	public void testWindowAndRestart() {
+		CompactionBacklog backlog = new CompactionBacklog(20, TimeUnit.SECONDS);
+		backlog.update(0, 0, 0, 0);
+		backlog.update(10 * SECOND, 1000, 0, 0);
+		backlog.update(40 * SECOND, 1300, 0, 0);
+		// the first sample fell out of the window
+		assertEquals(10.0, backlog.getBytesPerSecond(), 0.001);
+
+		backlog.update(50 * SECOND, 100, 0, 0);
+		assertFalse(backlog.hasRates());
+	}
+
+	public void testFormatSeconds() {
+		assertEquals("45s", CompactionBacklog.formatSeconds(45));
+		assertEquals("3m 20s", CompactionBacklog.formatSeconds(200));
+		assertEquals("2h 05m", CompactionBacklog.formatSeconds(7500));
+	}
+}
@@ -0,0 +1,162 @@
+package com.jmxcassandra;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.config.Config;
+import org.jmxcassandra.App;
+import org.jmxcassandra.CassMonDaemon;
+import org.jmxcassandra.JmxConnectPool;
+
+import io.airlift.airline.Cli;
+import io.airlift.airline.Help;
+
+/**
+ * Unit test for the compactionstats command, against a JMX agent in the test
+ * JVM registering the Compaction metrics.
+ */
+public class CompactionStatsTest extends TestCase {
+
+	public interface GaugeMBean {
+		Object getValue();
+	}
+
+	public static class Gauge implements GaugeMBean {
+		private final Object value;
+
+		Gauge(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object getValue() {
+			return value;
+		}
+	}
+
+	public interface CounterMBean {
+		long getCount();
+	}
+
+	/**
+	 * Counter growing by step every time it is read.
+	 */
+	public static class Counter implements CounterMBean {
+		private final AtomicLong count = new AtomicLong();
+		private final long step;
+
+		Counter(long step) {
+			this.step = step;
+		}
+
+		@Override
+		public long getCount() {
+			return count.addAndGet(step);
+		}
+	}
+
+	private MBeanServer mbeanServer;
+	private int port;
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnectPool pool;
+	private CassMonDaemon daemon;
+	private Thread serving;
+
+	@Override
+	protected void setUp() throws Exception {
+		// as in App.main, the byte formatting must not load cassandra.yaml
+		Config.setClientMode(true);
+		mbeanServer = MBeanServerFactory.newMBeanServer();
+		register("BytesCompacted", new Counter(1024 * 1024));
+		register("CompletedTasks", new Gauge(12L));
+		register("PendingTasks", new Gauge(7));
+		register("TotalCompactionsCompleted", new Counter(1));
+
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null, mbeanServer);
+		server.start();
+
+		@SuppressWarnings("unchecked")
+		Cli<Runnable> parser = Cli.<Runnable> builder("cassmon").withDefaultCommand(Help.class)
+				.withCommands(Help.class, App.CompactionStats.class).build();
+		pool = new JmxConnectPool(1);
+		daemon = new CassMonDaemon(new InetSocketAddress("127.0.0.1", 0), parser, pool);
+		serving = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				daemon.serve();
+			}
+		});
+		serving.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		daemon.close();
+		serving.join(5000);
+		pool.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testCounters() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		String[] args = { "-h", "127.0.0.1", "-p", String.valueOf(port), "compactionstats", "-b", "-c", "-p", "-t" };
+		assertEquals(0, CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, bytes));
+		String out = text(bytes);
+		assertTrue(out, out.contains("Bytes Compacted: 1048576\n"));
+		assertTrue(out, out.contains("Completed Tasks: 12\n"));
+		assertTrue(out, out.contains("Pending Tasks: 7\n"));
+		assertTrue(out, out.contains("Total Compactions Completed: 1\n"));
+	}
+
+	public void testEstimate() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		String[] args = { "-h", "127.0.0.1", "-p", String.valueOf(port), "--interval", "0.2", "--count", "2",
+				"compactionstats", "-e" };
+		assertEquals(0, CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, bytes));
+		String out = text(bytes);
+		// once per sample, the estimate reuses the counters already read
+		assertEquals(2, out.split("Pending Tasks: 7\n", -1).length - 1);
+		assertTrue(out, out.contains("Compaction Throughput (5m)"));
+		assertTrue(out, out.contains("Pending Tasks Trend (5m): " + String.format("%+.2f", 0.0) + " tasks/s\n"));
+	}
+
+	public void testMissingCounters() throws Exception {
+		mbeanServer.unregisterMBean(new ObjectName("org.apache.cassandra.metrics:type=Compaction,name=PendingTasks"));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		String[] args = { "-h", "127.0.0.1", "-p", String.valueOf(port), "compactionstats", "-b", "-p", "-e" };
+		assertEquals(0, CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, bytes));
+		String out = text(bytes);
+		assertTrue(out, out.contains("Bytes Compacted: 1048576\n"));
+		assertFalse(out, out.contains("Pending Tasks"));
+	}
+
+	private void register(String name, Object mbean) throws Exception {
+		mbeanServer.registerMBean(mbean, new ObjectName("org.apache.cassandra.metrics:type=Compaction,name=" + name));
+	}
+
+	private static String text(ByteArrayOutputStream bytes) throws Exception {
+		return bytes.toString("UTF-8").replace(System.lineSeparator(), "\n");
+	}
+}
@@ -0,0 +1,81 @@
+package com.jmxcassandra;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.Distribution;
+
+/**
+ * Unit test for timer and histogram snapshots.
+ */
+public class DistributionTest extends TestCase {
+
+	public void testTimer() {
+		Map<String, Object> attributes = percentiles();
+		attributes.put("LatencyUnit", TimeUnit.MICROSECONDS);
+		Distribution distribution = Distribution.of(attributes);
+
+		assertEquals(1000, distribution.getCount());
+		assertEquals(TimeUnit.MICROSECONDS, distribution.getUnit());
+		double[] values = distribution.getValues();
+		assertEquals(Distribution.LABELS.length, values.length);
+		assertEquals(500.0, values[0], 0);
+		assertEquals(750.0, values[1], 0);
+		assertEquals(950.0, values[2], 0);
+		assertEquals(980.0, values[3], 0);
+		assertEquals(990.0, values[4], 0);
+		assertEquals(999.0, values[5], 0);
+		assertEquals(2000.0, values[6], 0);
+		assertEquals(600.0, values[7], 0);
+		assertEquals(990.0, distribution.get99thPercentile(), 0);
+
+		double[] millis = distribution.getMillis();
+		assertEquals(0.5, millis[0], 1e-9);
+		assertEquals(2.0, millis[6], 1e-9);
+		// getValues hands out a copy
+		assertEquals(500.0, distribution.getValues()[0], 0);
+	}
+
+	public void testUnitAsText() {
+		Map<String, Object> attributes = percentiles();
+		attributes.put("LatencyUnit", "milliseconds");
+		Distribution distribution = Distribution.of(attributes);
+		assertEquals(TimeUnit.MILLISECONDS, distribution.getUnit());
+		assertEquals(500.0, distribution.getMillis()[0], 0);
+	}
+
+	public void testHistogram() {
+		Distribution distribution = Distribution.of(percentiles());
+		assertNull(distribution.getUnit());
+		assertEquals(990.0, distribution.getMillis()[4], 0);
+	}
+
+	public void testMissingValues() {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		assertNull(Distribution.of(attributes));
+
+		attributes.put("Count", 3);
+		attributes.put("Max", "n/a");
+		Distribution distribution = Distribution.of(attributes);
+		assertEquals(3, distribution.getCount());
+		for (double value : distribution.getValues())
+			assertTrue(Double.isNaN(value));
+	}
+
+	private static Map<String, Object> percentiles() {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("Count", 1000L);
+		attributes.put("50thPercentile", 500.0);
+		attributes.put("75thPercentile", 750.0);
+		attributes.put("95thPercentile", 950.0);
+		attributes.put("98thPercentile", 980.0);
+		attributes.put("99thPercentile", 990.0);
+		attributes.put("999thPercentile", 999.0);
+		attributes.put("Max", 2000.0);
+		attributes.put("Mean", 600.0);
+		return attributes;
+	}
+}
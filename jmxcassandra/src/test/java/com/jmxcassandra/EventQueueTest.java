@@ -0,0 +1,54 @@
+package com.jmxcassandra;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.EventQueue;
+
+/**
+ * Unit test for EventQueue.
+ */
+public class EventQueueTest extends TestCase {
+
+	public void testDropsWhenFull() {
+		EventQueue<String> queue = new EventQueue<String>(2);
+		assertTrue(queue.offer("a"));
+		assertTrue(queue.offer("b"));
+		assertFalse(queue.offer("c"));
+		assertEquals(1, queue.getDropped());
+
+		assertEquals("a", queue.poll());
+		assertTrue(queue.offer("d"));
+		assertEquals("b", queue.poll());
+		assertEquals("d", queue.poll());
+		assertNull(queue.poll());
+		assertEquals(0, queue.size());
+	}
+
+	public void testPollWakesUpOnOffer() throws InterruptedException {
+		final EventQueue<String> queue = new EventQueue<String>(10);
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+				queue.offer("event");
+			}
+		};
+		producer.start();
+
+		long start = System.nanoTime();
+		assertEquals("event", queue.poll(10, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		producer.join();
+	}
+
+	public void testPollTimesOut() {
+		EventQueue<String> queue = new EventQueue<String>(10);
+		assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+	}
+}
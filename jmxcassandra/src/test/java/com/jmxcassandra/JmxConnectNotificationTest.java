@@ -0,0 +1,102 @@
+package com.jmxcassandra;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.EventQueue;
+import org.jmxcassandra.JmxConnect;
+import org.jmxcassandra.JmxEvent;
+
+/**
+ * Unit test for notification subscriptions, against a JMX agent in the test
+ * JVM.
+ */
+public class JmxConnectNotificationTest extends TestCase {
+
+	public interface RepairMBean {
+	}
+
+	public static class Repair extends NotificationBroadcasterSupport implements RepairMBean {
+	}
+
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnect jmxConnect;
+	private ObjectName name;
+	private Repair repair;
+
+	@Override
+	protected void setUp() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		name = new ObjectName("com.jmxcassandra:type=Repair,port=" + port);
+		repair = new Repair();
+		mbeanServer.registerMBean(repair, name);
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null, mbeanServer);
+		server.start();
+		jmxConnect = new JmxConnect("127.0.0.1", port);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		jmxConnect.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+	}
+
+	public void testSubscribe() throws Exception {
+		final EventQueue<JmxEvent> events = new EventQueue<JmxEvent>(10);
+		NotificationListener listener = new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				events.offer(JmxEvent.of("node", notification));
+			}
+		};
+		List<ObjectName> subscribed = jmxConnect.subscribe(name.toString(), null, listener);
+		assertEquals(1, subscribed.size());
+
+		Notification notification = new Notification("repair", name, 1, 1000, "Repair session finished");
+		notification.setUserData(new int[] { 7, 2 });
+		repair.sendNotification(notification);
+
+		JmxEvent event = events.poll(10, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals("repair", event.getType());
+		assertEquals(1000, event.getTimestamp());
+		assertEquals("Repair session finished [7, 2]", event.getMessage());
+
+		jmxConnect.unsubscribe(subscribed, listener);
+		repair.sendNotification(new Notification("repair", name, 2, "after"));
+		assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+	}
+
+	public void testOnlyBroadcasters() {
+		assertTrue(jmxConnect.subscribe("java.lang:type=Runtime", null, new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+			}
+		}).isEmpty());
+	}
+}
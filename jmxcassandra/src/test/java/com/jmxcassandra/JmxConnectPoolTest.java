@@ -0,0 +1,150 @@
+package com.jmxcassandra;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.remote.JMXAuthenticator;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXPrincipal;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.JmxConnect;
+import org.jmxcassandra.JmxConnectPool;
+
+/**
+ * Unit test for the connection pool, against a JMX agent in the test JVM
+ * accepting a single user.
+ */
+public class JmxConnectPoolTest extends TestCase {
+	private static final String USER = "cassandra";
+	private static final String PASSWORD = "secret";
+
+	private int port;
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnectPool pool;
+
+	@Override
+	protected void setUp() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		Map<String, Object> env = new HashMap<String, Object>();
+		env.put(JMXConnectorServer.AUTHENTICATOR, new JMXAuthenticator() {
+			@Override
+			public Subject authenticate(Object credentials) {
+				if (!(credentials instanceof String[])
+						|| !Arrays.equals(new String[] { USER, PASSWORD }, (String[]) credentials))
+					throw new SecurityException("Authentication failed");
+				return new Subject(true, Collections.singleton(new JMXPrincipal(USER)), Collections.emptySet(),
+						Collections.emptySet());
+			}
+		});
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), env,
+				ManagementFactory.getPlatformMBeanServer());
+		server.start();
+		pool = new JmxConnectPool(1, 60000, 60000);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pool.close();
+		if (server.isActive())
+			server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testReuse() throws Exception {
+		JmxConnect first = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+		pool.release(first, false);
+		assertEquals(1, pool.idleCount());
+
+		JmxConnect second = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+		assertSame(first, second);
+		assertEquals(0, pool.idleCount());
+		assertTrue(second.isAlive());
+		pool.release(second, false);
+	}
+
+	public void testDifferentTimeoutsOpenNewConnection() throws Exception {
+		JmxConnect first = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+		pool.release(first, false);
+
+		JmxConnect second = pool.borrow("127.0.0.1", port, USER, PASSWORD, 1000, 1000);
+		assertNotSame(first, second);
+		assertEquals(1000, second.getReadTimeoutMillis());
+		pool.release(second, false);
+	}
+
+	public void testMaxIdle() throws Exception {
+		JmxConnect first = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+		JmxConnect second = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+		assertNotSame(first, second);
+		pool.release(first, false);
+		pool.release(second, false);
+		assertEquals(1, pool.idleCount());
+		assertFalse(first.isAlive() && second.isAlive());
+	}
+
+	public void testBrokenNotReused() throws Exception {
+		JmxConnect first = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+		pool.release(first, true);
+		assertEquals(0, pool.idleCount());
+		assertFalse(first.isAlive());
+
+		try {
+			pool.release(first, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// already returned
+		}
+	}
+
+	public void testDeadIdleEvicted() throws Exception {
+		pool.close();
+		pool = new JmxConnectPool(1, 0, 60000);
+		JmxConnect first = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+		pool.release(first, false);
+		server.stop();
+
+		try {
+			JmxConnect second = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+			pool.release(second, true);
+			fail("the agent is gone");
+		} catch (IOException e) {
+			// the dead connection was dropped and a new one could not be opened
+		}
+		assertEquals(0, pool.idleCount());
+	}
+
+	public void testCredentialMismatch() throws Exception {
+		JmxConnect first = pool.borrow("127.0.0.1", port, USER, PASSWORD);
+		pool.release(first, false);
+
+		try {
+			JmxConnect other = pool.borrow("127.0.0.1", port, USER, "guess");
+			pool.release(other, true);
+			fail("the pooled connection must not be handed out for another password");
+		} catch (SecurityException e) {
+			// the agent refused the new connection
+		}
+		assertEquals(1, pool.idleCount());
+		assertSame(first, pool.borrow("127.0.0.1", port, USER, PASSWORD));
+		pool.release(first, false);
+	}
+}
@@ -0,0 +1,147 @@
+package com.jmxcassandra;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.RMISocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import javax.management.remote.rmi.RMIConnectorServer;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.JmxConnect;
+import org.jmxcassandra.Metric;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Unit test for the per-connection connect and read timeouts.
+ */
+public class JmxConnectTimeoutTest extends TestCase {
+
+	public interface SlowMBean {
+		long getSlow();
+	}
+
+	public static class Slow implements SlowMBean {
+		volatile long sleepMillis;
+
+		@Override
+		public long getSlow() {
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return sleepMillis;
+		}
+	}
+
+	/**
+	 * Accepts connections and never answers, like a wedged node.
+	 */
+	public void testSilentServer() throws Exception {
+		final ServerSocket silent = new ServerSocket(0);
+		final List<Socket> accepted = new CopyOnWriteArrayList<Socket>();
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true)
+						accepted.add(silent.accept());
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.start();
+		try {
+			assertTimesOut(silent.getLocalPort(), 300, 150, 5000);
+			// a later connection gets its own timeout, not the first one's
+			assertTimesOut(silent.getLocalPort(), 1500, 1400, 10000);
+		} finally {
+			silent.close();
+			for (Socket socket : accepted)
+				socket.close();
+		}
+	}
+
+	private static void assertTimesOut(int port, int readTimeout, long atLeast, long atMost) {
+		long start = System.currentTimeMillis();
+		try {
+			new JmxConnect("127.0.0.1", port, null, null, 1000, readTimeout).close();
+			fail();
+		} catch (IOException e) {
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue(elapsed + " ms", elapsed >= atLeast && elapsed < atMost);
+			assertTrue(String.valueOf(e), Throwables.getRootCause(e) instanceof SocketTimeoutException);
+		}
+	}
+
+	/**
+	 * A node that answers the handshake but not a call.
+	 */
+	public void testSlowCall() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.jmxcassandra:type=Slow,port=" + port);
+		Slow slow = new Slow();
+		mbeanServer.registerMBean(slow, name);
+		Registry registry = LocateRegistry.createRegistry(port);
+		// a factory of its own exports the agent on a port of its own, not shared with the other tests' agents
+		Map<String, Object> env = new HashMap<String, Object>();
+		env.put(RMIConnectorServer.RMI_SERVER_SOCKET_FACTORY_ATTRIBUTE, new RMIServerSocketFactory() {
+			@Override
+			public ServerSocket createServerSocket(int port) throws IOException {
+				return new ServerSocket(port);
+			}
+		});
+		JMXConnectorServer server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), env, mbeanServer);
+		server.start();
+		JmxConnect impatient = new JmxConnect("127.0.0.1", port, null, null, 1000, 300);
+		JmxConnect patient = new JmxConnect("127.0.0.1", port, null, null, 1000, 5000);
+		try {
+			Metric metric = Metric.attribute(name.toString(), "Slow", Metric.Unit.NONE);
+			slow.sleepMillis = 1000;
+			long start = System.currentTimeMillis();
+			try {
+				impatient.read(metric);
+				fail();
+			} catch (RuntimeException e) {
+				assertTrue(String.valueOf(e), Throwables.getRootCause(e) instanceof SocketTimeoutException);
+				assertTrue(System.currentTimeMillis() - start < 1000);
+			}
+			// the connections share the RMI sockets to the agent, each keeps its timeout
+			assertEquals(1000L, patient.read(metric));
+			slow.sleepMillis = 0;
+			assertEquals(0L, impatient.read(metric));
+			// the timeouts are the connections' own, not the JVM's
+			assertNull(RMISocketFactory.getSocketFactory());
+		} finally {
+			impatient.close();
+			patient.close();
+			server.stop();
+			UnicastRemoteObject.unexportObject(registry, true);
+			mbeanServer.unregisterMBean(name);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.jmxcassandra;
+
+import java.net.MalformedURLException;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.JmxConnect;
+
+/**
+ * Unit test for the JMX service URL of a node.
+ */
+public class JmxConnectUrlTest extends TestCase {
+
+	public void testIPv4() throws MalformedURLException {
+		assertEquals("service:jmx:rmi:///jndi/rmi://127.0.0.1:7199/jmxrmi",
+				JmxConnect.serviceUrl("127.0.0.1", 7199).toString());
+	}
+
+	public void testHostname() throws MalformedURLException {
+		assertEquals("service:jmx:rmi:///jndi/rmi://cassandra-1.example.com:7199/jmxrmi",
+				JmxConnect.serviceUrl("cassandra-1.example.com", 7199).toString());
+	}
+
+	public void testIPv6() throws MalformedURLException {
+		assertEquals("service:jmx:rmi:///jndi/rmi://[::1]:7199/jmxrmi", JmxConnect.serviceUrl("::1", 7199).toString());
+		assertEquals("service:jmx:rmi:///jndi/rmi://[fe80::1:2]:7200/jmxrmi",
+				JmxConnect.serviceUrl("fe80::1:2", 7200).toString());
+		// already bracketed, e.g. from host:port syntax
+		assertEquals("service:jmx:rmi:///jndi/rmi://[::1]:7199/jmxrmi",
+				JmxConnect.serviceUrl("[::1]", 7199).toString());
+	}
+}
@@ -0,0 +1,95 @@
+package com.jmxcassandra;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.JmxConnect;
+
+import com.yammer.metrics.reporting.JmxReporter;
+
+/**
+ * Unit test for the MBean proxies JmxConnect hands out for table timers and
+ * histograms.
+ */
+public class MBeanProxyCacheTest extends TestCase {
+
+	private Registry registry;
+	private JMXConnectorServer server;
+	private int port;
+
+	@Override
+	protected void setUp() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null,
+				ManagementFactory.getPlatformMBeanServer());
+		server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty("cassmon.proxycache.size");
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testHit() throws Exception {
+		JmxConnect jmxConnect = new JmxConnect("127.0.0.1", port);
+		try {
+			Object proxy = jmxConnect.getColumnFamilyMetric("ks", "users", "ReadLatency");
+			assertTrue(proxy instanceof JmxReporter.TimerMBean);
+			assertSame(proxy, jmxConnect.getColumnFamilyMetric("ks", "users", "ReadLatency"));
+			assertNotSame(proxy, jmxConnect.getColumnFamilyMetric("ks", "users", "WriteLatency"));
+			assertNotSame(proxy, jmxConnect.getColumnFamilyMetric("ks2", "users", "ReadLatency"));
+			assertTrue(jmxConnect.getColumnFamilyMetric("ks", "users",
+					"SSTablesPerReadHistogram") instanceof JmxReporter.HistogramMBean);
+		} finally {
+			jmxConnect.close();
+		}
+	}
+
+	public void testEviction() throws Exception {
+		System.setProperty("cassmon.proxycache.size", "2");
+		JmxConnect jmxConnect = new JmxConnect("127.0.0.1", port);
+		try {
+			Object first = jmxConnect.getColumnFamilyMetric("ks", "t1", "ReadLatency");
+			jmxConnect.getColumnFamilyMetric("ks", "t2", "ReadLatency");
+			jmxConnect.getColumnFamilyMetric("ks", "t3", "ReadLatency");
+			// least recently used, rebuilt on the next lookup
+			assertNotSame(first, jmxConnect.getColumnFamilyMetric("ks", "t1", "ReadLatency"));
+		} finally {
+			jmxConnect.close();
+		}
+	}
+
+	public void testReconnect() throws Exception {
+		JmxConnect jmxConnect = new JmxConnect("127.0.0.1", port);
+		Object proxy;
+		try {
+			proxy = jmxConnect.getColumnFamilyMetric("ks", "users", "ReadLatency");
+		} finally {
+			jmxConnect.close();
+		}
+
+		// proxies of a closed connection are not handed out again
+		JmxConnect reconnected = new JmxConnect("127.0.0.1", port);
+		try {
+			assertNotSame(proxy, reconnected.getColumnFamilyMetric("ks", "users", "ReadLatency"));
+		} finally {
+			reconnected.close();
+		}
+	}
+}
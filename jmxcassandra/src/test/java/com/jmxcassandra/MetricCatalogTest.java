@@ -0,0 +1,80 @@
+package com.jmxcassandra;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.Metric;
+import org.jmxcassandra.MetricCatalog;
+import org.jmxcassandra.MetricKind;
+
+/**
+ * Unit test for the metric catalog.
+ */
+public class MetricCatalogTest extends TestCase {
+
+	public void testNodeMetric() {
+		Metric metric = MetricCatalog.get("Compaction", "PendingTasks");
+		assertEquals(MetricKind.GAUGE, metric.getKind());
+		assertEquals("Value", metric.getAttribute());
+		assertEquals("org.apache.cassandra.metrics:type=Compaction,name=PendingTasks",
+				metric.getObjectName().toString());
+		assertSame(metric, MetricCatalog.find("Compaction.PendingTasks"));
+	}
+
+	public void testTableMetric() {
+		Metric metric = MetricCatalog.table("LiveDiskSpaceUsed");
+		assertEquals(MetricKind.COUNTER, metric.getKind());
+		assertEquals(Metric.Unit.BYTES, metric.getUnit());
+		assertEquals("Count", metric.getAttribute());
+		assertEquals("org.apache.cassandra.metrics:type=ColumnFamily,keyspace=ks,scope=users,name=LiveDiskSpaceUsed",
+				metric.getObjectName("ks", "users").toString());
+		assertEquals("IndexColumnFamily", metric.getObjectName("ks", "users.by_email").getKeyProperty("type"));
+		assertSame(metric.getObjectName("ks", "users"), metric.getObjectName("ks", "users"));
+		assertNotSame(metric.getObjectName("ks", "users"), metric.getObjectName("ks2", "users"));
+
+		try {
+			metric.getObjectName();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	public void testScopedMetric() {
+		Metric metric = MetricCatalog.clientRequest("CASWrite", "Timeouts");
+		assertEquals(MetricKind.METER, metric.getKind());
+		assertEquals("CASWrite", metric.getScope());
+		assertEquals("org.apache.cassandra.metrics:type=ClientRequest,scope=CASWrite,name=Timeouts",
+				metric.getObjectName().toString());
+		assertSame(metric, MetricCatalog.find("ClientRequest.CASWrite.Timeouts"));
+		assertTrue(MetricCatalog.clientRequest("Read", "Latency").getKind().isDistribution());
+		assertEquals(1.5, MetricCatalog.clientRequest("Read", "Latency").getUnit().toMillis(1500), 0);
+		assertEquals(7.0, Metric.Unit.COUNT.toMillis(7), 0);
+	}
+
+	public void testDistributionAttributes() {
+		assertEquals("LatencyUnit", last(MetricCatalog.table("ReadLatency").getAttributes()));
+		assertEquals("Mean", last(MetricCatalog.table("SSTablesPerReadHistogram").getAttributes()));
+		assertTrue(MetricCatalog.table("TombstoneScannedHistogram").getKind().isDistribution());
+	}
+
+	public void testUnknownMetric() {
+		assertNull(MetricCatalog.find("Compaction.Pending"));
+		try {
+			MetricCatalog.table("ReadLatencyy");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unknown metric ColumnFamily.ReadLatencyy", e.getMessage());
+		}
+	}
+
+	public void testRegister() {
+		MetricCatalog.register(Metric.node("Cache", "KeyCacheHits", MetricKind.METER, Metric.Unit.COUNT));
+		Metric metric = MetricCatalog.get("Cache", "KeyCacheHits");
+		assertEquals("Count", metric.getAttribute());
+		assertEquals("KeyCacheHits", metric.getObjectName().getKeyProperty("name"));
+	}
+
+	private static String last(String[] values) {
+		return values[values.length - 1];
+	}
+}
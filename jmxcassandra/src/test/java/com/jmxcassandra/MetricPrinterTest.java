@@ -0,0 +1,72 @@
+package com.jmxcassandra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.MetricPrinter;
+
+/**
+ * Unit test for the machine readable MetricPrinter formats.
+ */
+public class MetricPrinterTest extends TestCase {
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+	public void testNdjson() throws UnsupportedEncodingException {
+		MetricPrinter out = MetricPrinter.forFormat("ndjson", new PrintStream(bytes));
+		out.begin("10.0.0.1", 1000);
+		out.print("Pending Tasks", 12);
+		out.print("Read Rate", 2.5, "2.50 ops/s");
+		out.print("Mean", Double.NaN);
+		out.print("Arch", "amd\"64\n");
+		out.print("Missing", null);
+		out.end();
+		out.begin("10.0.0.2", 1000);
+		out.end();
+		out.close();
+
+		assertEquals("{\"timestamp\":1000,\"node\":\"10.0.0.1\",\"Pending Tasks\":12,\"Read Rate\":2.5,"
+				+ "\"Mean\":null,\"Arch\":\"amd\\\"64\\n\",\"Missing\":null}\n"
+				+ "{\"timestamp\":1000,\"node\":\"10.0.0.2\"}\n", bytes.toString("UTF-8"));
+	}
+
+	public void testJsonArray() throws UnsupportedEncodingException {
+		MetricPrinter out = MetricPrinter.forFormat("json", new PrintStream(bytes));
+		out.begin("a", 1);
+		out.print("x", 1L);
+		out.end();
+		out.begin("b", 2);
+		out.end();
+		out.close();
+
+		assertEquals("[\n{\"timestamp\":1,\"node\":\"a\",\"x\":1},\n{\"timestamp\":2,\"node\":\"b\"}\n]\n",
+				bytes.toString("UTF-8"));
+	}
+
+	public void testCsv() throws UnsupportedEncodingException {
+		MetricPrinter out = MetricPrinter.forFormat("csv", new PrintStream(bytes));
+		out.begin("10.0.0.1", 1000);
+		out.print("Pending Tasks", 12);
+		out.print("Memory(Free/Total)", "1 GB/2 GB");
+		out.print("a,\"b\"", Double.POSITIVE_INFINITY);
+		out.end();
+		out.close();
+
+		assertEquals("timestamp,node,metric,value\n"
+				+ "1000,10.0.0.1,Pending Tasks,12\n"
+				+ "1000,10.0.0.1,Memory(Free/Total),1 GB/2 GB\n"
+				+ "1000,10.0.0.1,\"a,\"\"b\"\"\",\n", bytes.toString("UTF-8"));
+	}
+
+	public void testUnknownFormat() {
+		try {
+			MetricPrinter.forFormat("xml", new PrintStream(bytes));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.jmxcassandra;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.GraphiteSink;
+import org.jmxcassandra.InfluxSink;
+import org.jmxcassandra.MetricPrinter;
+import org.jmxcassandra.MetricSink;
+import org.jmxcassandra.SocketSink;
+
+/**
+ * Unit test for the Graphite and InfluxDB sinks, against a local socket
+ * standing in for the receiver.
+ */
+public class MetricSinkTest extends TestCase {
+
+	private ServerSocket receiver;
+
+	@Override
+	protected void setUp() throws IOException {
+		receiver = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		receiver.setSoTimeout(10000);
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		receiver.close();
+	}
+
+	private InetSocketAddress address() {
+		return new InetSocketAddress(receiver.getInetAddress(), receiver.getLocalPort());
+	}
+
+	public void testGraphite() throws IOException {
+		MetricSink sink = new GraphiteSink(address(), "cassandra");
+		sink.write("10.0.0.1:7199", "Pending Tasks", 1500000000123L, 12);
+		sink.write("10.0.0.1:7199", "Read Latency 99th", 1500000000123L, 2.5);
+		sink.write("10.0.0.1:7199", "Mean", 1500000000123L, Double.NaN);
+		sink.flush();
+
+		Socket socket = receiver.accept();
+		BufferedReader lines = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		assertEquals("cassandra.10_0_0_1_7199.Pending_Tasks 12 1500000000", lines.readLine());
+		assertEquals("cassandra.10_0_0_1_7199.Read_Latency_99th 2.5 1500000000", lines.readLine());
+		sink.close();
+		assertNull(lines.readLine());
+		socket.close();
+	}
+
+	public void testInflux() throws IOException {
+		MetricSink sink = MetricSink.open("influx://" + receiver.getInetAddress().getHostAddress() + ":"
+				+ receiver.getLocalPort(), "cassandra");
+		sink.write("10.0.0.1:7199", "Memory(Free/Total)=x, y", 1500000000123L, 0.25);
+		sink.write("10.0.0.1:7199", "Pending Tasks", 1500000000123L, 12L);
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		MetricPrinter recorder = sink.recorder("10.0.0.1:7199", 1500000000123L,
+				MetricPrinter.to(new PrintStream(printed, true, "UTF-8")));
+		recorder.print("Load", 9007199254740993L);
+		recorder.print("Ratio", 1.0);
+		sink.close();
+		// the recorder passes the values on to the printer it wraps
+		assertEquals("Load: 9007199254740993\nRatio: 1.0\n",
+				printed.toString("UTF-8").replace(System.lineSeparator(), "\n"));
+
+		Socket socket = receiver.accept();
+		BufferedReader lines = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		assertEquals("cassandra,node=10.0.0.1:7199,metric=Memory(Free/Total)\\=x\\,\\ y value=0.25 1500000000123000000",
+				lines.readLine());
+		assertEquals("cassandra,node=10.0.0.1:7199,metric=Pending\\ Tasks value_int=12i 1500000000123000000",
+				lines.readLine());
+		// integers read over JMX keep their type and every digit, floating point numbers stay floats when whole
+		assertEquals("cassandra,node=10.0.0.1:7199,metric=Load value_int=9007199254740993i 1500000000123000000",
+				lines.readLine());
+		assertEquals("cassandra,node=10.0.0.1:7199,metric=Ratio value=1 1500000000123000000", lines.readLine());
+		assertNull(lines.readLine());
+		socket.close();
+	}
+
+	public void testDropsOldestWhenReceiverIsSlow() throws IOException {
+		SocketSink sink = new GraphiteSink(address(), "cassandra", 1024, 4);
+		Socket socket = null;
+		try {
+			long start = System.nanoTime();
+			// far more than the socket buffers hold, with nobody reading
+			for (int sample = 0; sample < 2000; sample++) {
+				for (int i = 0; i < 100; i++)
+					sink.write("node", "metric " + i, sample * 1000L, i);
+				sink.flush();
+				if (sample == 0)
+					socket = receiver.accept();
+			}
+			assertTrue("writes must not wait for the receiver", System.nanoTime() - start < 10000000000L);
+			assertTrue(sink.getDroppedBatches() > 0);
+		} finally {
+			sink.close();
+			if (socket != null)
+				socket.close();
+		}
+	}
+
+	public void testUnknownSink() {
+		try {
+			MetricSink.open("statsd://localhost", "cassandra");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
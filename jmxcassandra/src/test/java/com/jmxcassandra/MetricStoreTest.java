@@ -0,0 +1,135 @@
+package com.jmxcassandra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.MetricStore;
+
+import com.google.common.io.Files;
+
+/**
+ * Unit test for MetricStore.
+ */
+public class MetricStoreTest extends TestCase {
+
+	private static final long START = 1400000000000L;
+
+	private File directory;
+
+	@Override
+	protected void setUp() {
+		directory = Files.createTempDir();
+	}
+
+	@Override
+	protected void tearDown() {
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	public void testPointsRoundTrip() throws IOException {
+		MetricStore store = MetricStore.open(directory);
+		double[] values = { 0, 1.5, 1.5, -3.25, Double.MAX_VALUE, Double.NaN, 42, 42, 1e-300 };
+		long[] timestamps = new long[values.length];
+		long timestamp = START;
+		for (int i = 0; i < values.length; i++) {
+			// irregular intervals exercise every delta-of-delta width
+			timestamp += 1000 + i * i * i * 37;
+			timestamps[i] = timestamp;
+			store.append("node/Pending Tasks", timestamp, values[i]);
+		}
+
+		List<double[]> points = read(store, "node/Pending Tasks", 0, Long.MAX_VALUE);
+		store.close();
+
+		assertEquals(values.length, points.size());
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(timestamps[i], (long) points.get(i)[0]);
+			assertEquals(Double.doubleToLongBits(values[i]), Double.doubleToLongBits(points.get(i)[1]));
+		}
+	}
+
+	public void testReopenAndRange() throws IOException {
+		MetricStore store = MetricStore.open(directory);
+		for (int i = 0; i < 1000; i++) {
+			store.append("a/Load", START + i * 1000L, i);
+			store.append("b/Load", START + i * 1000L, -i);
+		}
+		store.close();
+
+		store = MetricStore.open(directory);
+		assertEquals(2, store.series().size());
+		List<double[]> points = read(store, "b/Load", START + 100000, START + 199000);
+		store.close();
+
+		assertEquals(100, points.size());
+		assertEquals(START + 100000, (long) points.get(0)[0]);
+		assertEquals(-100.0, points.get(0)[1]);
+		assertEquals(-199.0, points.get(99)[1]);
+	}
+
+	public void testRegularSeriesIsCompact() throws IOException {
+		MetricStore store = MetricStore.open(directory);
+		int points = 10 * MetricStore.BLOCK_POINTS;
+		for (int i = 0; i < points; i++)
+			store.append("node/Completed Tasks", START + i * 1000L, 1000 + i / 10);
+		store.close();
+
+		long used = 0;
+		for (File file : directory.listFiles())
+			if (file.getName().endsWith(".seg"))
+				used += endOfSegment(file);
+		assertTrue("used " + used + " bytes", used < 2 * points);
+
+		store = MetricStore.openReadOnly(directory);
+		assertEquals(points, read(store, "node/Completed Tasks", 0, Long.MAX_VALUE).size());
+		store.close();
+	}
+
+	public void testExpiredSegmentsAreDeleted() throws IOException {
+		MetricStore store = MetricStore.open(directory, 4096, 60000);
+		for (int i = 0; i < 100000; i++)
+			store.append("node/Load", START + i * 1000L, Math.random());
+		store.close();
+
+		store = MetricStore.open(directory);
+		List<double[]> points = read(store, "node/Load", 0, Long.MAX_VALUE);
+		store.close();
+		assertTrue(points.size() < 2000);
+		assertEquals(START + 99999000L, (long) points.get(points.size() - 1)[0]);
+	}
+
+	public void testReadOnlyRejectsAppend() throws IOException {
+		MetricStore.open(directory).close();
+		MetricStore store = MetricStore.openReadOnly(directory);
+		try {
+			store.append("node/Load", START, 1);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		} finally {
+			store.close();
+		}
+	}
+
+	private static List<double[]> read(MetricStore store, String series, long from, long to) {
+		final List<double[]> points = new ArrayList<double[]>();
+		store.read(series, from, to, new MetricStore.PointVisitor() {
+			@Override
+			public void point(long timestamp, double value) {
+				points.add(new double[] { timestamp, value });
+			}
+		});
+		return points;
+	}
+
+	private static int endOfSegment(File segment) throws IOException {
+		byte[] header = Files.toByteArray(segment);
+		return ((header[4] & 0xff) << 24) | ((header[5] & 0xff) << 16) | ((header[6] & 0xff) << 8) | (header[7] & 0xff);
+	}
+}
@@ -0,0 +1,238 @@
+package com.jmxcassandra;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.JmxConnect;
+import org.jmxcassandra.PrometheusExporter;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Unit test for the Prometheus exposition, against a JMX agent in the test
+ * JVM registering the node and table metrics the exporter reads.
+ */
+public class PrometheusExporterTest extends TestCase {
+
+	private static final String[][] nodeMetrics = { { "Compaction", "BytesCompacted" },
+			{ "Compaction", "CompletedTasks" }, { "Compaction", "PendingTasks" },
+			{ "Compaction", "TotalCompactionsCompleted" }, { "Client", "connectedNativeClients" },
+			{ "Client", "connectedThriftClients" }, { "Storage", "Load" }, { "Storage", "Exceptions" },
+			{ "Storage", "TotalHints" }, { "Storage", "TotalHintsInProgress" } };
+	private static final String[] timers = { "ReadLatency", "WriteLatency", "CoordinatorReadLatency",
+			"CoordinatorScanLatency" };
+
+	/**
+	 * MBean answering the attributes it was given.
+	 */
+	public static class Attributes implements DynamicMBean {
+		private final Map<String, Object> values;
+
+		Attributes(Map<String, Object> values) {
+			this.values = values;
+		}
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			if (!values.containsKey(attribute))
+				throw new AttributeNotFoundException(attribute);
+			return values.get(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes)
+				if (values.containsKey(attribute))
+					list.add(new Attribute(attribute, values.get(attribute)));
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			return new MBeanInfo(Attributes.class.getName(), null, null, null, null, null);
+		}
+	}
+
+	private MBeanServer mbeanServer;
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnect jmxConnect;
+	private PrometheusExporter exporter;
+	private int httpPort;
+
+	@Override
+	protected void setUp() throws Exception {
+		mbeanServer = MBeanServerFactory.newMBeanServer();
+		for (String[] metric : nodeMetrics) {
+			Map<String, Object> values = new HashMap<String, Object>();
+			values.put("Value", 3);
+			values.put("Count", 3L);
+			mbeanServer.registerMBean(new Attributes(values),
+					new ObjectName("org.apache.cassandra.metrics:type=" + metric[0] + ",name=" + metric[1]));
+		}
+		for (String timer : timers) {
+			Map<String, Object> values = new HashMap<String, Object>();
+			for (String percentile : new String[] { "50th", "75th", "95th", "98th" })
+				values.put(percentile + "Percentile", 1.5);
+			values.put("99thPercentile", Double.NaN);
+			values.put("999thPercentile", Double.POSITIVE_INFINITY);
+			values.put("Count", 42L);
+			mbeanServer.registerMBean(new Attributes(values), new ObjectName(
+					"org.apache.cassandra.metrics:type=ColumnFamily,keyspace=ks,scope=users,name=" + timer));
+		}
+
+		int port = freePort();
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null, mbeanServer);
+		server.start();
+		jmxConnect = new JmxConnect("127.0.0.1", port);
+
+		// the second table has been dropped
+		List<String[]> tables = Arrays.asList(new String[] { "ks", "users" }, new String[] { "ks", "dropped" });
+		exporter = new PrometheusExporter(jmxConnect, tables);
+		httpPort = freePort();
+		exporter.start(new InetSocketAddress("127.0.0.1", httpPort), 100);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		exporter.close();
+		jmxConnect.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testSnakeCase() {
+		assertEquals("process_cpu_load", PrometheusExporter.snakeCase("ProcessCpuLoad"));
+		assertEquals("live_sstable_count", PrometheusExporter.snakeCase("LiveSSTableCount"));
+		assertEquals("connected_native_clients", PrometheusExporter.snakeCase("connectedNativeClients"));
+		assertEquals("total_hints_in_progress", PrometheusExporter.snakeCase("TotalHintsInProgress"));
+	}
+
+	public void testEscape() {
+		assertEquals("users", PrometheusExporter.escape("users"));
+		assertEquals("a\\\\b\\\"c\\nd", PrometheusExporter.escape("a\\b\"c\nd"));
+	}
+
+	public void testExposition() throws Exception {
+		String text = scrape();
+		assertTrue(text, text.contains("# TYPE cassandra_compaction_pending_tasks gauge\n"
+				+ "cassandra_compaction_pending_tasks 3\n"));
+		assertTrue(text, text.contains("# TYPE cassandra_storage_total_hints gauge\n"
+				+ "cassandra_storage_total_hints 3\n"));
+
+		String users = "{keyspace=\"ks\",table=\"users\",";
+		assertTrue(text, text.contains("# TYPE cassandra_table_read_latency_microseconds summary\n"
+				+ "cassandra_table_read_latency_microseconds" + users + "quantile=\"0.5\"} 1.5\n"));
+		assertTrue(text, text.contains(users + "quantile=\"0.99\"} NaN\n"));
+		assertTrue(text, text.contains(users + "quantile=\"0.999\"} +Inf\n"));
+		assertTrue(text, text.contains(
+				"cassandra_table_read_latency_microseconds_count{keyspace=\"ks\",table=\"users\"} 42\n"));
+		assertTrue(text, text.contains("cassmon_scrape_success 1\n"));
+		assertFalse(text, text.contains("table=\"dropped\""));
+
+		// every sample follows the TYPE line of its family
+		String family = null;
+		for (String line : text.split("\n")) {
+			if (line.startsWith("# TYPE ")) {
+				family = line.split(" ")[2];
+				continue;
+			}
+			assertNotNull(line, family);
+			String name = line.split("[{ ]")[0];
+			assertTrue(line, name.equals(family) || name.equals(family + "_count"));
+		}
+	}
+
+	public void testFailedRefreshKeepsSnapshot() throws Exception {
+		String before = scrape();
+		assertTrue(before, before.contains("cassmon_scrape_success 1\n"));
+
+		mbeanServer.unregisterMBean(new ObjectName("org.apache.cassandra.metrics:type=Storage,name=Load"));
+		String after = scrape();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!after.contains("cassmon_scrape_success 0\n") && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+			after = scrape();
+		}
+		assertTrue(after, after.contains("cassmon_scrape_success 0\n"));
+		// the last values are still served
+		assertTrue(after, after.contains("cassandra_storage_load 3\n"));
+		assertEquals(metrics(before), metrics(after));
+	}
+
+	private String scrape() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + httpPort + "/metrics")
+				.openConnection();
+		try {
+			assertEquals(200, connection.getResponseCode());
+			assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+			InputStream in = connection.getInputStream();
+			try {
+				return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+			} finally {
+				in.close();
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * @return the exposition without the cassmon_ families, which change at
+	 *         every refresh
+	 */
+	private static String metrics(String text) {
+		return text.substring(0, text.indexOf("# TYPE cassmon_"));
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+}
@@ -0,0 +1,47 @@
+package com.jmxcassandra;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.RateSampler;
+
+/**
+ * Unit test for RateSampler.
+ */
+public class RateSamplerTest extends TestCase {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	public void testFirstSampleHasNoRate() {
+		RateSampler sampler = new RateSampler();
+		assertNull(sampler.update("node/BytesCompacted", 100, 0));
+	}
+
+	public void testRatePerSecond() {
+		RateSampler sampler = new RateSampler();
+		sampler.update("node/BytesCompacted", 100, 0);
+		RateSampler.Rate rate = sampler.update("node/BytesCompacted", 600, 2 * SECOND);
+
+		assertEquals(500, rate.getDelta());
+		assertEquals(250.0, rate.getPerSecond(), 0.0001);
+		assertFalse(rate.isReset());
+	}
+
+	public void testCounterResetRestartsFromZero() {
+		RateSampler sampler = new RateSampler();
+		sampler.update("node/WriteLatency", 10000, 0);
+		RateSampler.Rate rate = sampler.update("node/WriteLatency", 40, SECOND);
+
+		assertTrue(rate.isReset());
+		assertEquals(40, rate.getDelta());
+		assertEquals(40.0, rate.getPerSecond(), 0.0001);
+	}
+
+	public void testKeysAreIndependent() {
+		RateSampler sampler = new RateSampler();
+		sampler.update("a/ReadLatency", 0, 0);
+		assertNull(sampler.update("b/ReadLatency", 50, SECOND));
+		assertEquals(10, sampler.update("a/ReadLatency", 10, SECOND).getDelta());
+	}
+}
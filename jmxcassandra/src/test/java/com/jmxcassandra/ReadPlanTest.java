@@ -0,0 +1,112 @@
+package com.jmxcassandra;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.JmxConnect;
+import org.jmxcassandra.MetricCatalog;
+import org.jmxcassandra.ReadBuffers;
+import org.jmxcassandra.ReadPlan;
+
+/**
+ * Unit test for reading a ReadPlan into primitive buffers, against a JMX
+ * agent in the test JVM.
+ */
+public class ReadPlanTest extends TestCase {
+
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnect jmxConnect;
+
+	@Override
+	protected void setUp() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null,
+				ManagementFactory.getPlatformMBeanServer());
+		server.start();
+		jmxConnect = new JmxConnect("127.0.0.1", port);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		jmxConnect.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testRead() {
+		ReadPlan.Builder builder = ReadPlan.builder();
+		int processors = builder.add(MetricCatalog.operatingSystem("AvailableProcessors"));
+		int arch = builder.add(MetricCatalog.operatingSystem("Arch"));
+		int pending = builder.add(MetricCatalog.get("Compaction", "PendingTasks"));
+		int again = builder.add(MetricCatalog.operatingSystem("AvailableProcessors"));
+		ReadPlan plan = builder.build();
+		assertEquals(4, plan.size());
+
+		long[] longs = new long[plan.size()];
+		double[] doubles = new double[plan.size()];
+		for (int sample = 0; sample < 2; sample++) {
+			assertEquals(2, jmxConnect.read(plan, longs, doubles));
+
+			assertEquals(Runtime.getRuntime().availableProcessors(), longs[processors]);
+			assertEquals(Runtime.getRuntime().availableProcessors(), doubles[processors], 0);
+			assertEquals(longs[processors], longs[again]);
+			// not a number
+			assertTrue(ReadPlan.isMissing(longs[arch]));
+			assertTrue(Double.isNaN(doubles[arch]));
+			// no such bean
+			assertTrue(ReadPlan.isMissing(longs[pending]));
+		}
+	}
+
+	public void testMissingAttribute() throws Exception {
+		ReadPlan.Builder builder = ReadPlan.builder();
+		ObjectName runtime = new ObjectName("java.lang:type=Runtime");
+		int missing = builder.add(runtime, "NoSuchAttribute");
+		int uptime = builder.add(runtime, "Uptime");
+		ReadPlan plan = builder.build();
+
+		long[] longs = new long[plan.size()];
+		assertEquals(1, jmxConnect.read(plan, longs, null));
+		assertTrue(ReadPlan.isMissing(longs[missing]));
+		assertTrue(longs[uptime] > 0);
+	}
+
+	public void testBuffers() throws Exception {
+		ReadPlan.Builder builder = ReadPlan.builder();
+		int processors = builder.add(MetricCatalog.operatingSystem("AvailableProcessors"));
+		int arch = builder.add(MetricCatalog.operatingSystem("Arch"));
+		ReadBuffers read = new ReadBuffers(builder.build(),
+				Collections.singletonList(new String[] { "ks", "users" }));
+		long[] longs = read.getLongs();
+
+		for (int sample = 0; sample < 2; sample++) {
+			assertEquals(1, read.read(jmxConnect));
+			// the same buffers every sample
+			assertSame(longs, read.getLongs());
+			assertEquals(Runtime.getRuntime().availableProcessors(), longs[processors]);
+			assertTrue(Double.isNaN(read.getDoubles()[arch]));
+		}
+
+		assertTrue(read.reads(Collections.singletonList(new String[] { "ks", "users" })));
+		assertFalse(read.reads(Collections.singletonList(new String[] { "ks", "events" })));
+		assertFalse(read.reads(Arrays.asList(new String[] { "ks", "users" }, new String[] { "ks", "events" })));
+	}
+}
@@ -0,0 +1,136 @@
+package com.jmxcassandra;
+
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.JmxConnect;
+
+/**
+ * Unit test for discovering every table of a node and reading their metrics
+ * in bulk, against a JMX agent in the test JVM.
+ */
+public class TableDiscoveryTest extends TestCase {
+
+	public interface GaugeMBean {
+		Object getValue();
+	}
+
+	public static class Gauge implements GaugeMBean {
+		private final Object value;
+
+		Gauge(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object getValue() {
+			return value;
+		}
+	}
+
+	public interface CounterMBean {
+		long getCount();
+	}
+
+	public static class Counter implements CounterMBean {
+		private final long count;
+
+		Counter(long count) {
+			this.count = count;
+		}
+
+		@Override
+		public long getCount() {
+			return count;
+		}
+	}
+
+	private MBeanServer mbeanServer;
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnect jmxConnect;
+
+	@Override
+	protected void setUp() throws Exception {
+		mbeanServer = MBeanServerFactory.newMBeanServer();
+		register("ColumnFamily", "ks1", "users", "LiveSSTableCount", new Gauge(3));
+		register("ColumnFamily", "ks1", "users", "LiveDiskSpaceUsed", new Counter(2048));
+		register("IndexColumnFamily", "ks1", "users.by_email", "LiveSSTableCount", new Gauge(1));
+		register("ColumnFamily", "ks2", "events", "LiveSSTableCount", new Gauge(7));
+		register("ColumnFamily", "ks1", "audit", "LiveSSTableCount", new Gauge(0));
+		// not a table
+		mbeanServer.registerMBean(new Gauge(5),
+				new ObjectName("org.apache.cassandra.metrics:type=Compaction,name=PendingTasks"));
+
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null, mbeanServer);
+		server.start();
+		jmxConnect = new JmxConnect("127.0.0.1", port);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		jmxConnect.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testDiscoverAll() {
+		List<String[]> tables = jmxConnect.getColumnFamilies(null);
+		assertEquals(4, tables.size());
+		assertTable("ks1", "audit", tables.get(0));
+		assertTable("ks1", "users", tables.get(1));
+		assertTable("ks1", "users.by_email", tables.get(2));
+		assertTable("ks2", "events", tables.get(3));
+		assertEquals(tables.size(), jmxConnect.getColumnFamilies("").size());
+	}
+
+	public void testDiscoverKeyspace() {
+		List<String[]> tables = jmxConnect.getColumnFamilies("ks2");
+		assertEquals(1, tables.size());
+		assertTable("ks2", "events", tables.get(0));
+		assertTrue(jmxConnect.getColumnFamilies("ks3").isEmpty());
+	}
+
+	public void testBulkRead() {
+		List<String[]> tables = jmxConnect.getColumnFamilies("ks1");
+		List<Map<String, Object>> metrics = jmxConnect.getColumnFamilyMetrics(tables, "LiveSSTableCount",
+				"LiveDiskSpaceUsed");
+		assertEquals(3, metrics.size());
+		assertEquals(0, metrics.get(0).get("LiveSSTableCount"));
+		assertEquals(3, metrics.get(1).get("LiveSSTableCount"));
+		assertEquals(2048L, metrics.get(1).get("LiveDiskSpaceUsed"));
+		assertEquals(1, metrics.get(2).get("LiveSSTableCount"));
+		// not registered for these tables
+		assertFalse(metrics.get(0).containsKey("LiveDiskSpaceUsed"));
+		assertFalse(metrics.get(2).containsKey("LiveDiskSpaceUsed"));
+	}
+
+	private void register(String type, String keyspace, String table, String name, Object mbean) throws Exception {
+		mbeanServer.registerMBean(mbean, new ObjectName("org.apache.cassandra.metrics:type=" + type + ",keyspace="
+				+ keyspace + ",scope=" + table + ",name=" + name));
+	}
+
+	private static void assertTable(String keyspace, String table, String[] actual) {
+		assertEquals(keyspace, actual[0]);
+		assertEquals(table, actual[1]);
+	}
+}
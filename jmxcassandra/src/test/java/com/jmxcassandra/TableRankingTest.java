@@ -0,0 +1,139 @@
+package com.jmxcassandra;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.Distribution;
+import org.jmxcassandra.TableRanking;
+
+/**
+ * Unit test for TableRanking.
+ */
+public class TableRankingTest extends TestCase {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final List<String[]> tables = new ArrayList<String[]>();
+	private final List<Map<String, Distribution>> distributions = new ArrayList<Map<String, Distribution>>();
+
+	public void testNeedsTwoSamples() {
+		TableRanking ranking = new TableRanking();
+		table("ks", "a", 100, 2000, 10, 1000, 3);
+		add(ranking, "node1", 0);
+
+		assertEquals(1, ranking.size());
+		assertTrue(ranking.top("ops", 10).isEmpty());
+	}
+
+	public void testRatesSummedOverNodes() {
+		TableRanking ranking = new TableRanking();
+		table("ks", "a", 100, 2000, 0, 1000, 3);
+		table("ks", "b", 0, 1000, 100, 1000, 1);
+		add(ranking, "node1", 0);
+		table("ks", "a", 100, 2000, 0, 1000, 3);
+		table("ks", "b", 0, 1000, 100, 1000, 1);
+		add(ranking, "node2", 0);
+
+		ranking.clear();
+		table("ks", "a", 300, 2000, 0, 1000, 3);
+		table("ks", "b", 0, 1000, 350, 1000, 1);
+		add(ranking, "node1", 2 * SECOND);
+		table("ks", "a", 200, 8000, 0, 1000, 5);
+		table("ks", "b", 0, 1000, 100, 1000, 1);
+		add(ranking, "node2", 2 * SECOND);
+
+		List<TableRanking.Row> top = ranking.top("ops", 10);
+		assertEquals(2, top.size());
+		TableRanking.Row a = top.get(0);
+		assertEquals("ks.a", a.getTable());
+		assertEquals(150.0, a.getReads(), 0.0001);
+		assertEquals(0.0, a.getWrites(), 0.0001);
+		// worst node, in milliseconds
+		assertEquals(8.0, a.getReadP99(), 0.0001);
+		assertEquals(5.0, a.getSstablesP99(), 0.0001);
+		assertEquals("ks.b", top.get(1).getTable());
+		assertEquals(125.0, top.get(1).getWrites(), 0.0001);
+	}
+
+	public void testOrders() {
+		TableRanking ranking = twoSamples();
+
+		assertEquals("ks.reads", ranking.top("reads", 10).get(0).getTable());
+		assertEquals("ks.writes", ranking.top("writes", 10).get(0).getTable());
+		assertEquals("ks.slow", ranking.top("p99", 10).get(0).getTable());
+		assertEquals("ks.scattered", ranking.top("sstables", 10).get(0).getTable());
+		assertEquals(2, ranking.top("ops", 2).size());
+	}
+
+	public void testTiesRankedByName() {
+		TableRanking ranking = new TableRanking();
+		table("ks", "c", 0, 1000, 0, 1000, 1);
+		table("ks", "a", 0, 1000, 0, 1000, 1);
+		table("ks", "b", 0, 1000, 0, 1000, 1);
+		add(ranking, "node1", 0);
+		table("ks", "c", 10, 1000, 0, 1000, 1);
+		table("ks", "a", 0, 1000, 10, 1000, 1);
+		table("ks", "b", 5, 1000, 5, 1000, 1);
+		add(ranking, "node1", SECOND);
+
+		List<TableRanking.Row> top = ranking.top("ops", 10);
+		assertEquals("ks.a", top.get(0).getTable());
+		assertEquals("ks.b", top.get(1).getTable());
+		assertEquals("ks.c", top.get(2).getTable());
+	}
+
+	public void testUnknownOrder() {
+		try {
+			new TableRanking().top("latency", 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("latency"));
+		}
+	}
+
+	private TableRanking twoSamples() {
+		TableRanking ranking = new TableRanking();
+		for (int sample = 0; sample < 2; sample++) {
+			table("ks", "reads", sample * 500, 1000, 0, 1000, 1);
+			table("ks", "writes", 0, 1000, sample * 400, 1000, 1);
+			table("ks", "slow", sample * 10, 90000, 0, 1000, 1);
+			table("ks", "scattered", sample * 10, 1000, 0, 1000, 12);
+			add(ranking, "node1", sample * SECOND);
+		}
+		return ranking;
+	}
+
+	/**
+	 * Queues a table for the next {@link #add(TableRanking, String, long)},
+	 * latencies in microseconds.
+	 */
+	private void table(String keyspace, String table, long reads, double readP99, long writes, double writeP99,
+			double sstablesP99) {
+		tables.add(new String[] { keyspace, table });
+		Map<String, Distribution> metrics = new HashMap<String, Distribution>();
+		metrics.put("ReadLatency", distribution(reads, readP99, "microseconds"));
+		metrics.put("WriteLatency", distribution(writes, writeP99, "microseconds"));
+		metrics.put("SSTablesPerReadHistogram", distribution(reads, sstablesP99, null));
+		distributions.add(metrics);
+	}
+
+	private void add(TableRanking ranking, String node, long nanoTime) {
+		ranking.add(node, tables, distributions, nanoTime);
+		tables.clear();
+		distributions.clear();
+	}
+
+	private static Distribution distribution(long count, double p99, String unit) {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("Count", count);
+		attributes.put("99thPercentile", p99);
+		if (unit != null)
+			attributes.put("LatencyUnit", unit);
+		return Distribution.of(attributes);
+	}
+}
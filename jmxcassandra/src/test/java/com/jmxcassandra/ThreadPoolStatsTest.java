@@ -0,0 +1,184 @@
+package com.jmxcassandra;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import junit.framework.TestCase;
+
+import org.jmxcassandra.App;
+import org.jmxcassandra.CassMonDaemon;
+import org.jmxcassandra.JmxConnect;
+import org.jmxcassandra.JmxConnectPool;
+
+import io.airlift.airline.Cli;
+import io.airlift.airline.Help;
+
+/**
+ * Unit test for thread pool discovery and the tpstats command, against a JMX
+ * agent in the test JVM registering the pools of a node.
+ */
+public class ThreadPoolStatsTest extends TestCase {
+
+	public interface PoolMetricMBean {
+		long getValue();
+
+		long getCount();
+	}
+
+	public static class PoolMetric implements PoolMetricMBean {
+		private final long value;
+
+		PoolMetric(long value) {
+			this.value = value;
+		}
+
+		@Override
+		public long getValue() {
+			return value;
+		}
+
+		@Override
+		public long getCount() {
+			return value;
+		}
+	}
+
+	private MBeanServer mbeanServer;
+	private int port;
+	private Registry registry;
+	private JMXConnectorServer server;
+	private JmxConnectPool pool;
+	private CassMonDaemon daemon;
+	private Thread serving;
+
+	@Override
+	protected void setUp() throws Exception {
+		mbeanServer = MBeanServerFactory.newMBeanServer();
+		registerPool("request", "ReadStage", 2, 5, 100, 0, 0);
+		registerPool("request", "MutationStage", 0, 0, 40, 0, 0);
+		registerPool("transport", "Native-Transport-Requests", 1, 0, 7, 3, 12);
+		// the same pool name under two paths
+		registerPool("internal", "CustomStage", 0, 0, 1, 0, 0);
+		registerPool("request", "CustomStage", 0, 0, 2, 0, 0);
+		mbeanServer.registerMBean(new PoolMetric(8), new ObjectName(
+				"org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=ReadStage,name=MaxPoolSize"));
+		mbeanServer.registerMBean(new PoolMetric(6),
+				new ObjectName("org.apache.cassandra.metrics:type=DroppedMessage,scope=MUTATION,name=Dropped"));
+		mbeanServer.registerMBean(new PoolMetric(0),
+				new ObjectName("org.apache.cassandra.metrics:type=DroppedMessage,scope=READ,name=Dropped"));
+
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		registry = LocateRegistry.createRegistry(port);
+		server = JMXConnectorServerFactory.newJMXConnectorServer(
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"), null, mbeanServer);
+		server.start();
+
+		@SuppressWarnings("unchecked")
+		Cli<Runnable> parser = Cli.<Runnable> builder("cassmon").withDefaultCommand(Help.class)
+				.withCommands(Help.class, App.ThreadPoolStats.class).build();
+		pool = new JmxConnectPool(1);
+		daemon = new CassMonDaemon(new InetSocketAddress("127.0.0.1", 0), parser, pool);
+		serving = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				daemon.serve();
+			}
+		});
+		serving.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		daemon.close();
+		serving.join(5000);
+		pool.close();
+		server.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	public void testDiscovery() throws Exception {
+		JmxConnect jmxConnect = new JmxConnect("127.0.0.1", port);
+		try {
+			Map<String, Map<String, Object>> pools = jmxConnect.getThreadPools();
+			assertEquals("[internal/CustomStage, request/CustomStage, request/MutationStage, request/ReadStage, "
+					+ "transport/Native-Transport-Requests]", pools.keySet().toString());
+			Map<String, Object> read = pools.get("request/ReadStage");
+			assertEquals(5, read.size());
+			assertEquals(2L, read.get("ActiveTasks"));
+			assertEquals(5L, read.get("PendingTasks"));
+			assertEquals(100L, read.get("CompletedTasks"));
+			assertEquals(1L, pools.get("internal/CustomStage").get("CompletedTasks"));
+			assertEquals(2L, pools.get("request/CustomStage").get("CompletedTasks"));
+
+			Map<String, Long> dropped = jmxConnect.getDroppedMessages();
+			assertEquals("{MUTATION=6, READ=0}", dropped.toString());
+		} finally {
+			jmxConnect.close();
+		}
+	}
+
+	public void testOutput() throws Exception {
+		String out = tpstats();
+		assertTrue(out, out.contains("ReadStage Active: 2\n"));
+		assertTrue(out, out.contains("ReadStage Pending: 5\n"));
+		assertTrue(out, out.contains("ReadStage Completed: 100\n"));
+		assertTrue(out, out.contains("Native-Transport-Requests Blocked: 3\n"));
+		assertTrue(out, out.contains("Native-Transport-Requests All Time Blocked: 12\n"));
+		assertTrue(out, out.contains("internal/CustomStage Completed: 1\n"));
+		assertTrue(out, out.contains("request/CustomStage Completed: 2\n"));
+		assertTrue(out, out.contains("Dropped MUTATION: 6\n"));
+		assertTrue(out, out.contains("Dropped READ: 0\n"));
+		assertFalse(out, out.contains("MaxPoolSize"));
+		// no rates on a single sample
+		assertFalse(out, out.contains("Rate"));
+	}
+
+	public void testBusy() throws Exception {
+		String out = tpstats("-b");
+		assertTrue(out, out.contains("ReadStage Active: 2\n"));
+		assertTrue(out, out.contains("Native-Transport-Requests Blocked: 3\n"));
+		assertFalse(out, out.contains("MutationStage"));
+		assertFalse(out, out.contains("CustomStage"));
+		assertTrue(out, out.contains("Dropped MUTATION: 6\n"));
+		assertFalse(out, out.contains("Dropped READ"));
+	}
+
+	private String tpstats(String... options) throws Exception {
+		String[] args = new String[5 + options.length];
+		args[0] = "-h";
+		args[1] = "127.0.0.1";
+		args[2] = "-p";
+		args[3] = String.valueOf(port);
+		args[4] = "tpstats";
+		System.arraycopy(options, 0, args, 5, options.length);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(0, CassMonDaemon.forward(daemon.getAddress(), daemon.getToken(), args, out));
+		return out.toString("UTF-8").replace(System.lineSeparator(), "\n");
+	}
+
+	private void registerPool(String path, String scope, long active, long pending, long completed,
+			long blocked, long totalBlocked) throws Exception {
+		String prefix = "org.apache.cassandra.metrics:type=ThreadPools,path=" + path + ",scope=" + scope + ",name=";
+		mbeanServer.registerMBean(new PoolMetric(active), new ObjectName(prefix + "ActiveTasks"));
+		mbeanServer.registerMBean(new PoolMetric(pending), new ObjectName(prefix + "PendingTasks"));
+		mbeanServer.registerMBean(new PoolMetric(completed), new ObjectName(prefix + "CompletedTasks"));
+		mbeanServer.registerMBean(new PoolMetric(blocked), new ObjectName(prefix + "CurrentlyBlockedTasks"));
+		mbeanServer.registerMBean(new PoolMetric(totalBlocked), new ObjectName(prefix + "TotalBlockedTasks"));
+	}
+}